@@ -0,0 +1,107 @@
+/*
+ * BSD 3-Clause License
+ *
+ * Copyright (c) Unité Mixte de Recherche en Acoustique Environnementale (univ-gustave-eiffel)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+
+package org.noise_planet.qrtone.benchmarks;
+
+import org.noise_planet.qrtone.Configuration;
+import org.noise_planet.qrtone.QRTone;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decoding of the IPFS payload message, with 0.35 s of noise before and after the message. The decoder is reset
+ * before each invocation so that every invocation decodes the message.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DecodeBenchmark {
+    @Param({"16000", "44100", "48000"})
+    public double sampleRate;
+
+    private float[] samples;
+    private short[] pcmSamples;
+    private QRTone qrTone;
+
+    @Setup
+    public void setUp() {
+        Configuration configuration = Configuration.getAudible(sampleRate);
+        samples = Signals.message(configuration);
+        pcmSamples = Signals.toPcm(samples);
+        qrTone = new QRTone(configuration);
+    }
+
+    private void consumePayload(boolean decoded, Blackhole blackhole) {
+        if(!decoded) {
+            throw new IllegalStateException("The message is not decoded at " + sampleRate + " Hz");
+        }
+        blackhole.consume(qrTone.getPayload());
+    }
+
+    @Benchmark
+    public void pushSamples(Blackhole blackhole) {
+        qrTone.reset();
+        consumePayload(qrTone.pushSamples(samples), blackhole);
+    }
+
+    @Benchmark
+    public void pushPcmSamples(Blackhole blackhole) {
+        qrTone.reset();
+        consumePayload(qrTone.pushSamples(pcmSamples), blackhole);
+    }
+
+    @TearDown
+    public void tearDown() {
+        if(!Arrays.equals(Signals.IPFS_PAYLOAD, qrTone.getPayload())) {
+            throw new IllegalStateException("Wrong payload decoded at " + sampleRate + " Hz");
+        }
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * BSD 3-Clause License
+ *
+ * Copyright (c) Unité Mixte de Recherche en Acoustique Environnementale (univ-gustave-eiffel)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+
+package org.noise_planet.qrtone.benchmarks;
+
+import org.noise_planet.qrtone.Configuration;
+import org.noise_planet.qrtone.QRTone;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding steps of the IPFS payload message with the audible configuration at 44.1 kHz
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EncodeBenchmark {
+    private QRTone qrTone;
+    private float[] samples;
+    private byte[] symbols;
+    private int blockSize;
+
+    @Setup
+    public void setUp() {
+        qrTone = new QRTone(Configuration.getAudible(44100));
+        samples = new float[qrTone.setPayload(Signals.IPFS_PAYLOAD)];
+        blockSize = Configuration.getTotalSymbolsForEcc(Configuration.DEFAULT_ECC_LEVEL);
+        // Eight blocks of symbols
+        symbols = new byte[blockSize * 8];
+        Random random = new Random(Signals.SEED);
+        random.nextBytes(symbols);
+    }
+
+    @Benchmark
+    public int crc16() {
+        return QRTone.crc16(Signals.IPFS_PAYLOAD, 0, Signals.IPFS_PAYLOAD.length);
+    }
+
+    @Benchmark
+    public byte[] interleaveSymbols() {
+        QRTone.interleaveSymbols(symbols, blockSize);
+        return symbols;
+    }
+
+    @Benchmark
+    public float[] getSamples() {
+        qrTone.setPayload(Signals.IPFS_PAYLOAD);
+        qrTone.getSamples(samples, Signals.MESSAGE_POWER);
+        return samples;
+    }
+}
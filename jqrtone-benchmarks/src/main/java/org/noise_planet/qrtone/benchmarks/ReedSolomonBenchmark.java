@@ -0,0 +1,108 @@
+/*
+ * BSD 3-Clause License
+ *
+ * Copyright (c) Unité Mixte de Recherche en Acoustique Environnementale (univ-gustave-eiffel)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+
+package org.noise_planet.qrtone.benchmarks;
+
+import com.google.zxing.common.reedsolomon.GenericGF;
+import com.google.zxing.common.reedsolomon.ReedSolomonDecoder;
+import com.google.zxing.common.reedsolomon.ReedSolomonException;
+import org.noise_planet.qrtone.Configuration;
+import org.noise_planet.qrtone.ReedSolomonGF16;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decoding of a code word of the default error correction level, with the GF(16) codec used by QRTone and with the
+ * generic decoder
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReedSolomonBenchmark {
+    @Param({"0", "1", "2", "3"})
+    public int errors;
+
+    private int eccSymbols;
+    private int[] received;
+    private int[] codeWord;
+    private final ReedSolomonGF16 reedSolomon = new ReedSolomonGF16();
+    private final ReedSolomonDecoder decoder = new ReedSolomonDecoder(GenericGF.AZTEC_PARAM);
+
+    @Setup
+    public void setUp() {
+        eccSymbols = Configuration.getEccSymbolsForEcc(Configuration.DEFAULT_ECC_LEVEL);
+        if(errors > eccSymbols / 2) {
+            throw new IllegalArgumentException("Can not correct " + errors + " errors");
+        }
+        Random random = new Random(Signals.SEED);
+        received = new int[Configuration.getTotalSymbolsForEcc(Configuration.DEFAULT_ECC_LEVEL)];
+        for(int i = 0; i < received.length - eccSymbols; i++) {
+            received[i] = random.nextInt(16);
+        }
+        reedSolomon.encode(received, eccSymbols);
+        for(int i = 0; i < errors; i++) {
+            // Distinct locations
+            final int location = i * (received.length / Math.max(1, errors));
+            received[location] = (received[location] + 1 + random.nextInt(15)) % 16;
+        }
+        codeWord = new int[received.length];
+    }
+
+    @Benchmark
+    public int decode() {
+        System.arraycopy(received, 0, codeWord, 0, received.length);
+        return reedSolomon.decode(codeWord, eccSymbols);
+    }
+
+    @Benchmark
+    public int decodeGeneric() throws ReedSolomonException {
+        System.arraycopy(received, 0, codeWord, 0, received.length);
+        return decoder.decode(codeWord, eccSymbols);
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * BSD 3-Clause License
+ *
+ * Copyright (c) Unité Mixte de Recherche en Acoustique Environnementale (univ-gustave-eiffel)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package org.noise_planet.qrtone.benchmarks;
+
+import org.noise_planet.qrtone.Configuration;
+import org.noise_planet.qrtone.QRToneScanner;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scan of a 60 s raw PCM recording at 44.1 kHz holding one IPFS payload message every 10 s, with a pool of 1 to 4
+ * threads. Compare the scores of the thread counts to measure the parallel speedup of the machine.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class ScannerBenchmark {
+    private static final double SAMPLE_RATE = 44100;
+    private static final int RECORDING_DURATION = 60;
+    private static final int MESSAGE_PERIOD = 10;
+
+    @Param({"1", "2", "4"})
+    public int threads;
+
+    private File file;
+    private ForkJoinPool pool;
+    private QRToneScanner scanner;
+
+    @Setup
+    public void setUp() throws IOException {
+        Configuration configuration = Configuration.getAudible(SAMPLE_RATE);
+        float[] message = Signals.message(configuration);
+        final int messagePeriod = (int)(MESSAGE_PERIOD * SAMPLE_RATE);
+        float[] samples = Signals.noise((int)(RECORDING_DURATION * SAMPLE_RATE), Signals.NOISE_LEVEL);
+        for(int location = 0; location + message.length <= samples.length; location += messagePeriod) {
+            System.arraycopy(message, 0, samples, location, message.length);
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(samples.length * 2).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.asShortBuffer().put(Signals.toPcm(samples));
+        file = File.createTempFile("qrtone", ".raw");
+        try(FileOutputStream fileOutputStream = new FileOutputStream(file)) {
+            fileOutputStream.write(buffer.array());
+        }
+        pool = new ForkJoinPool(threads);
+        scanner = new QRToneScanner(configuration, Signals.IPFS_PAYLOAD.length, pool);
+        final int expectedMessages = RECORDING_DURATION / MESSAGE_PERIOD;
+        if(scanner.scanRawPCM(file, ByteOrder.LITTLE_ENDIAN).size() != expectedMessages) {
+            throw new IllegalStateException("The " + expectedMessages + " messages are not decoded");
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        pool.shutdown();
+        if(!file.delete()) {
+            file.deleteOnExit();
+        }
+    }
+
+    @Benchmark
+    public List<QRToneScanner.Message> scanRawPCM() throws IOException {
+        return scanner.scanRawPCM(file, ByteOrder.LITTLE_ENDIAN);
+    }
+}
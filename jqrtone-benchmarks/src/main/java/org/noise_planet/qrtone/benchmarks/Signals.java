@@ -0,0 +1,94 @@
+/*
+ * BSD 3-Clause License
+ *
+ * Copyright (c) Unité Mixte de Recherche en Acoustique Environnementale (univ-gustave-eiffel)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+
+package org.noise_planet.qrtone.benchmarks;
+
+import org.noise_planet.qrtone.Configuration;
+import org.noise_planet.qrtone.QRTone;
+
+import java.util.Random;
+
+/**
+ * Test signals shared by the benchmarks
+ */
+final class Signals {
+    static final byte[] IPFS_PAYLOAD = new byte[] {18, 32, -117, -93, -50, 2, 52, 26, -117, 93, 119, -109, 39, 46,
+            108, 4, 31, 36, -100, 95, -9, -70, -82, -93, -75, -32, -63, 42, -44, -100, 50, 83, -118, 114};
+    static final double MESSAGE_LEVEL = -26;
+    // Peak amplitude of the tones
+    static final double MESSAGE_POWER = Math.pow(10, MESSAGE_LEVEL / 20.0) * Math.sqrt(2);
+    static final double NOISE_LEVEL = -50;
+    static final long SEED = 1337;
+
+    private Signals() {
+    }
+
+    /**
+     * @param length Number of samples
+     * @param level RMS level in dB
+     * @return Gaussian white noise
+     */
+    static float[] noise(int length, double level) {
+        Random random = new Random(SEED);
+        float[] samples = new float[length];
+        for(int i = 0; i < samples.length; i++) {
+            samples[i] = (float)(random.nextGaussian() * Math.pow(10, level / 20.0));
+        }
+        return samples;
+    }
+
+    /**
+     * @return The IPFS payload message with 0.35 s of noise before and after
+     */
+    static float[] message(Configuration configuration) {
+        QRTone qrTone = new QRTone(configuration);
+        float[] audio = new float[qrTone.setPayload(IPFS_PAYLOAD)];
+        qrTone.getSamples(audio, MESSAGE_POWER);
+        final int samplesBefore = (int)(0.35 * configuration.sampleRate);
+        float[] samples = noise(samplesBefore + audio.length + samplesBefore, NOISE_LEVEL);
+        for(int i = 0; i < audio.length; i++) {
+            samples[samplesBefore + i] += audio[i];
+        }
+        return samples;
+    }
+
+    static short[] toPcm(float[] samples) {
+        short[] pcm = new short[samples.length];
+        for(int i = 0; i < samples.length; i++) {
+            pcm[i] = (short)Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE,
+                    Math.round(samples[i] * Short.MAX_VALUE)));
+        }
+        return pcm;
+    }
+}
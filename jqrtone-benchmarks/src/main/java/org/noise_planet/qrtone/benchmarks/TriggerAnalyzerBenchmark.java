@@ -0,0 +1,102 @@
+/*
+ * BSD 3-Clause License
+ *
+ * Copyright (c) Unité Mixte de Recherche en Acoustique Environnementale (univ-gustave-eiffel)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+
+package org.noise_planet.qrtone.benchmarks;
+
+import org.noise_planet.qrtone.Configuration;
+import org.noise_planet.qrtone.QRTone;
+import org.noise_planet.qrtone.TriggerAnalyzer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Trigger analysis of 4096 samples of the audible configuration at 44.1 kHz while no message is received
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TriggerAnalyzerBenchmark {
+    private static final int BUFFER_LENGTH = 4096;
+
+    @Param({"silence", "noise"})
+    public String signal;
+
+    private float[] samples;
+    private short[] pcmSamples;
+    private TriggerAnalyzer triggerAnalyzer;
+    private long processedSamples = 0;
+
+    @Setup
+    public void setUp() {
+        Configuration configuration = Configuration.getAudible(44100);
+        samples = "noise".equals(signal) ? Signals.noise(BUFFER_LENGTH, Signals.NOISE_LEVEL) : new float[BUFFER_LENGTH];
+        pcmSamples = Signals.toPcm(samples);
+        double[] frequencies = configuration.computeFrequencies(QRTone.NUM_FREQUENCIES);
+        double[] frequencyLimits = configuration.computeFrequencies(QRTone.NUM_FREQUENCIES, QRTone.WINDOW_WIDTH);
+        double[] gateFrequencies = new double[]{frequencies[QRTone.FREQUENCY_ROOT],
+                frequencies[QRTone.FREQUENCY_ROOT + 2]};
+        triggerAnalyzer = new TriggerAnalyzer(configuration.sampleRate,
+                (int)(configuration.sampleRate * configuration.gateTime), gateFrequencies,
+                Configuration.computeMinimumWindowSize(configuration.sampleRate, gateFrequencies[0],
+                        frequencyLimits[QRTone.FREQUENCY_ROOT]), configuration.triggerSnr);
+    }
+
+    @Benchmark
+    public long processSamples() {
+        triggerAnalyzer.processSamples(samples, 0, samples.length, processedSamples);
+        processedSamples += samples.length;
+        return triggerAnalyzer.getFirstToneLocation();
+    }
+
+    @Benchmark
+    public long processPcmSamples() {
+        triggerAnalyzer.processSamples(pcmSamples, 0, pcmSamples.length, processedSamples);
+        processedSamples += pcmSamples.length;
+        return triggerAnalyzer.getFirstToneLocation();
+    }
+}
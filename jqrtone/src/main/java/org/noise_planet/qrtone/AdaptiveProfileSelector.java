@@ -0,0 +1,277 @@
+/*
+ * BSD 3-Clause License
+ *
+ * Copyright (c) Unité Mixte de Recherche en Acoustique Environnementale (univ-gustave-eiffel)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+
+package org.noise_planet.qrtone;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Choose the configuration and the error correction level of the encoder from the telemetry of the receivers.
+ * For each candidate configuration the selector estimates the probability that a symbol is wrong, from the symbols
+ * fixed by Reed-Solomon, and the probability that a message is lost before its payload (missed trigger or dropped
+ * header). The probability that a message is decoded with a given error correction level is then evaluated from the
+ * number of errors each block can fix. The selected profile is the one with the shortest airtime that reaches the
+ * target success rate.
+ * The estimation is conservative: erasures are not taken into account and the symbol error rate has a uniform prior.
+ * A configuration without telemetry is not selected.
+ */
+public class AdaptiveProfileSelector {
+    private final List<Configuration> configurations;
+    private final double targetSuccessRate;
+    // Telemetry of each configuration
+    private final long[] symbols;
+    private final long[] symbolErrors;
+    private final long[] messages;
+    private final long[] lostMessages;
+
+    /**
+     * @param configurations Candidate configurations, usually with different word and gate durations (see
+     *                       {@link Configuration#withTiming(double, double, double)})
+     * @param targetSuccessRate Expected ratio of decoded messages, in ]0, 1[
+     */
+    public AdaptiveProfileSelector(List<Configuration> configurations, double targetSuccessRate) {
+        if(configurations.isEmpty()) {
+            throw new IllegalArgumentException("At least one configuration is required");
+        }
+        if(targetSuccessRate <= 0 || targetSuccessRate >= 1) {
+            throw new IllegalArgumentException("Target success rate must be in ]0, 1[");
+        }
+        this.configurations = Collections.unmodifiableList(new ArrayList<>(configurations));
+        this.targetSuccessRate = targetSuccessRate;
+        symbols = new long[configurations.size()];
+        symbolErrors = new long[configurations.size()];
+        messages = new long[configurations.size()];
+        lostMessages = new long[configurations.size()];
+    }
+
+    public List<Configuration> getConfigurations() {
+        return configurations;
+    }
+
+    public double getTargetSuccessRate() {
+        return targetSuccessRate;
+    }
+
+    private int indexOf(Configuration configuration) {
+        for(int i = 0; i < configurations.size(); i++) {
+            if(configurations.get(i) == configuration) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("Unknown configuration");
+    }
+
+    /**
+     * Add the quality report of a message sent with a candidate configuration
+     * @param configuration Candidate configuration used to send the message
+     * @param quality Report of the receiver, see {@link QRTone#getMessageQuality()}
+     */
+    public void addReport(Configuration configuration, MessageQuality quality) {
+        final int index = indexOf(configuration);
+        messages[index]++;
+        if(!quality.isHeaderDecoded()) {
+            lostMessages[index]++;
+            return;
+        }
+        final int blockSymbolsSize = Configuration.getTotalSymbolsForEcc(quality.getEccLevel());
+        final int correctableErrors = Configuration.getEccSymbolsForEcc(quality.getEccLevel()) / 2;
+        symbols[index] += quality.getSymbolCount();
+        for(int blockIndex = 0; blockIndex < quality.getBlockCount(); blockIndex++) {
+            final int errors = quality.getBlockErrors(blockIndex);
+            if(errors == ReedSolomonGF16.DECODE_FAILED) {
+                // At least one error more than the correction capacity, the next blocks have not been evaluated
+                symbolErrors[index] += correctableErrors + 1;
+                symbols[index] -= Math.max(0, quality.getSymbolCount() - (blockIndex + 1) * blockSymbolsSize);
+                return;
+            }
+            symbolErrors[index] += errors;
+        }
+        if(!quality.isDecoded()) {
+            // All blocks have been corrected but the CRC does not match, a block had too many errors
+            symbolErrors[index] += correctableErrors + 1;
+        }
+    }
+
+    /**
+     * Add telemetry aggregated by the receivers
+     * @param configuration Candidate configuration used to send the messages
+     * @param sentMessages Number of sent messages
+     * @param lostMessages Messages without a decoded header (trigger missed or header dropped)
+     * @param receivedSymbols Number of payload symbols of the messages with a decoded header
+     * @param fixedErrors Number of payload symbols fixed by Reed-Solomon, see {@link QRTone#getFixedErrors()}
+     */
+    public void addStatistics(Configuration configuration, long sentMessages, long lostMessages, long receivedSymbols,
+                              long fixedErrors) {
+        final int index = indexOf(configuration);
+        messages[index] += sentMessages;
+        this.lostMessages[index] += lostMessages;
+        symbols[index] += receivedSymbols;
+        symbolErrors[index] += fixedErrors;
+    }
+
+    public void reset() {
+        for(int i = 0; i < configurations.size(); i++) {
+            symbols[i] = 0;
+            symbolErrors[i] = 0;
+            messages[i] = 0;
+            lostMessages[i] = 0;
+        }
+    }
+
+    /**
+     * @param configuration Candidate configuration
+     * @return Estimated probability that a received symbol is wrong, with a uniform prior
+     */
+    public double getSymbolErrorRate(Configuration configuration) {
+        final int index = indexOf(configuration);
+        return (symbolErrors[index] + 1) / (double)(symbols[index] + 2);
+    }
+
+    /**
+     * @param configuration Candidate configuration
+     * @return Ratio of messages lost before the payload
+     */
+    public double getLossRate(Configuration configuration) {
+        final int index = indexOf(configuration);
+        return messages[index] == 0 ? 0 : lostMessages[index] / (double) messages[index];
+    }
+
+    /**
+     * @param n Number of symbols
+     * @param t Number of errors that can be fixed
+     * @param p Probability that a symbol is wrong
+     * @return Probability of at most t wrong symbols over n
+     */
+    static double binomialCumulative(int n, int t, double p) {
+        double sum = 0;
+        double combinations = 1;
+        for(int k = 0; k <= Math.min(n, t); k++) {
+            sum += combinations * Math.pow(p, k) * Math.pow(1 - p, n - k);
+            combinations = combinations * (n - k) / (k + 1);
+        }
+        return Math.min(1, sum);
+    }
+
+    /**
+     * @param configuration Candidate configuration
+     * @param eccLevel Error correction level
+     * @param payloadLength Payload length in bytes
+     * @param addPayloadCRC Append a CRC16 to the payload
+     * @return Estimated probability that a message is decoded
+     */
+    public double getExpectedSuccessRate(Configuration configuration, Configuration.ECC_LEVEL eccLevel,
+                                         int payloadLength, boolean addPayloadCRC) {
+        final double symbolErrorRate = getSymbolErrorRate(configuration);
+        final int blockSymbolsSize = Configuration.getTotalSymbolsForEcc(eccLevel);
+        final int blockECCSymbols = Configuration.getEccSymbolsForEcc(eccLevel);
+        final int payloadSymbols = Header.getNumberOfSymbols(payloadLength, blockSymbolsSize, blockECCSymbols,
+                addPayloadCRC);
+        final int fullBlocks = payloadSymbols / blockSymbolsSize;
+        final int lastBlockSymbols = payloadSymbols % blockSymbolsSize;
+        double success = 1 - getLossRate(configuration);
+        success *= Math.pow(binomialCumulative(blockSymbolsSize, blockECCSymbols / 2, symbolErrorRate), fullBlocks);
+        if(lastBlockSymbols > 0) {
+            success *= binomialCumulative(lastBlockSymbols, blockECCSymbols / 2, symbolErrorRate);
+        }
+        return success;
+    }
+
+    /**
+     * @param payloadLength Payload length in bytes
+     * @param addPayloadCRC Append a CRC16 to the payload
+     * @return Profile with the shortest airtime reaching the target success rate, or the profile with the highest
+     * expected success rate if the target can't be reached. Airtimes are compared in seconds as the candidates may
+     * not share the same sample rate. The first configuration with
+     * {@link Configuration#DEFAULT_ECC_LEVEL} if there is no telemetry
+     */
+    public Profile select(int payloadLength, boolean addPayloadCRC) {
+        Profile best = null;
+        Profile mostReliable = null;
+        for(int index = 0; index < configurations.size(); index++) {
+            if(messages[index] == 0 && symbols[index] == 0) {
+                continue;
+            }
+            final Configuration configuration = configurations.get(index);
+            for(Configuration.ECC_LEVEL eccLevel : Configuration.ECC_LEVEL.values()) {
+                Profile profile = new Profile(configuration, eccLevel,
+                        QRTone.getMessageLength(configuration, payloadLength, eccLevel, addPayloadCRC),
+                        getExpectedSuccessRate(configuration, eccLevel, payloadLength, addPayloadCRC));
+                if(profile.expectedSuccessRate >= targetSuccessRate &&
+                        (best == null || profile.getAirtime() < best.getAirtime())) {
+                    best = profile;
+                }
+                if(mostReliable == null || profile.expectedSuccessRate > mostReliable.expectedSuccessRate ||
+                        (profile.expectedSuccessRate == mostReliable.expectedSuccessRate &&
+                                profile.getAirtime() < mostReliable.getAirtime())) {
+                    mostReliable = profile;
+                }
+            }
+        }
+        if(mostReliable == null) {
+            final Configuration configuration = configurations.get(0);
+            return new Profile(configuration, Configuration.DEFAULT_ECC_LEVEL,
+                    QRTone.getMessageLength(configuration, payloadLength, Configuration.DEFAULT_ECC_LEVEL, addPayloadCRC),
+                    getExpectedSuccessRate(configuration, Configuration.DEFAULT_ECC_LEVEL, payloadLength, addPayloadCRC));
+        }
+        return best != null ? best : mostReliable;
+    }
+
+    /**
+     * Configuration and error correction level of the encoder
+     */
+    public static class Profile {
+        public final Configuration configuration;
+        public final Configuration.ECC_LEVEL eccLevel;
+        // Number of samples of the message
+        public final int messageLength;
+        public final double expectedSuccessRate;
+
+        public Profile(Configuration configuration, Configuration.ECC_LEVEL eccLevel, int messageLength,
+                       double expectedSuccessRate) {
+            this.configuration = configuration;
+            this.eccLevel = eccLevel;
+            this.messageLength = messageLength;
+            this.expectedSuccessRate = expectedSuccessRate;
+        }
+
+        /**
+         * @return Duration of the message in seconds
+         */
+        public double getAirtime() {
+            return messageLength / configuration.sampleRate;
+        }
+    }
+}
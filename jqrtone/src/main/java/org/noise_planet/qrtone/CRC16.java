@@ -33,6 +33,7 @@
 
 package org.noise_planet.qrtone;
 
+import java.nio.ByteBuffer;
 
 /**
  * CRC16 Code
@@ -41,21 +42,58 @@ package org.noise_planet.qrtone;
  */
 public class CRC16 {
     private static final int CRC_POLY_16 = 0xA001;
+    // Value to xor with the shifted crc for each possible low byte of crc ^ data
+    private static final int[] CRC_TABLE = new int[256];
     private int crc = 0;
 
+    static {
+        for (int i = 0; i < CRC_TABLE.length; i++) {
+            int crcXor = 0;
+            int c = i;
+            for (int j = 0; j < 8; j++) {
+                if (((crcXor ^ c) & 0x0001) != 0) {
+                    crcXor = (crcXor >> 1) ^ CRC_POLY_16;
+                } else {
+                    crcXor = crcXor >> 1;
+                }
+                c = c >> 1;
+            }
+            CRC_TABLE[i] = crcXor;
+        }
+    }
+
     void add(byte data) {
-        int i = (crc ^ data) & 0xff;
-        int crcXor = 0;
-        int c = i;
-        for (int j = 0; j < 8; j++) {
-            if (((crcXor ^ c) & 0x0001) != 0) {
-                crcXor = (crcXor >> 1) ^ CRC_POLY_16;
-            } else {
-                crcXor = crcXor >> 1;
+        crc = (crc >>> 8) ^ CRC_TABLE[(crc ^ data) & 0xff];
+    }
+
+    void add(byte[] data, int from, int to) {
+        crc = update(crc, data, from, to);
+    }
+
+    static int update(int crc, byte[] data, int from, int to) {
+        int value = crc;
+        for (int i = from; i < to; i++) {
+            value = (value >>> 8) ^ CRC_TABLE[(value ^ data[i]) & 0xff];
+        }
+        return value;
+    }
+
+    /**
+     * Add the remaining bytes of the buffer, the position of the buffer is moved to its limit
+     * @param data Bytes to add
+     */
+    void add(ByteBuffer data) {
+        if (data.hasArray()) {
+            final int offset = data.arrayOffset();
+            add(data.array(), offset + data.position(), offset + data.limit());
+            data.position(data.limit());
+        } else {
+            int value = crc;
+            while (data.hasRemaining()) {
+                value = (value >>> 8) ^ CRC_TABLE[(value ^ data.get()) & 0xff];
             }
-            c = c >> 1;
+            crc = value;
         }
-        crc = (crc >>> 8) ^ crcXor;
     }
 
     void reset() {
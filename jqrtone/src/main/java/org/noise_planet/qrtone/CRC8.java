@@ -33,27 +33,61 @@
 
 package org.noise_planet.qrtone;
 
+import java.nio.ByteBuffer;
+
 public class CRC8 {
+    // Next crc for each possible value of crc ^ data
+    private static final byte[] CRC_TABLE = new byte[256];
     private int crc8 = 0;
 
+    static {
+        for (int i = 0; i < CRC_TABLE.length; i++) {
+            int crc = 0;
+            int accumulator = i;
+            for (int j = 0; j < 8; j++) {
+                if (((accumulator ^ crc) & 0x01) == 0x01) {
+                    crc = ((crc ^ 0x18) >> 1) | 0x80;
+                } else {
+                    crc = crc >> 1;
+                }
+                accumulator = accumulator >> 1;
+            }
+            CRC_TABLE[i] = (byte) crc;
+        }
+    }
+
     void add(byte[] data, int from, int to) {
+        crc8 = update(crc8, data, from, to);
+    }
+
+    static int update(int crc, byte[] data, int from, int to) {
+        int value = crc;
         for (int i=from; i < to; i++) {
-            add(data[i]);
+            value = CRC_TABLE[(value ^ data[i]) & 0x0FF];
         }
+        return value;
     }
 
-    void add(byte data) {
-        int crc = 0;
-        int accumulator = (crc8 ^ data) & 0x0FF;
-        for (int j = 0; j < 8; j++) {
-            if (((accumulator ^ crc) & 0x01) == 0x01) {
-                crc = ((crc ^ 0x18) >> 1) | 0x80;
-            } else {
-                crc = crc >> 1;
+    /**
+     * Add the remaining bytes of the buffer, the position of the buffer is moved to its limit
+     * @param data Bytes to add
+     */
+    void add(ByteBuffer data) {
+        if (data.hasArray()) {
+            final int offset = data.arrayOffset();
+            add(data.array(), offset + data.position(), offset + data.limit());
+            data.position(data.limit());
+        } else {
+            int value = crc8;
+            while (data.hasRemaining()) {
+                value = CRC_TABLE[(value ^ data.get()) & 0x0FF];
             }
-            accumulator = accumulator >> 1;
+            crc8 = value;
         }
-        crc8 = (byte) crc;
+    }
+
+    void add(byte data) {
+        crc8 = CRC_TABLE[(crc8 ^ data) & 0x0FF];
     }
 
     byte crc() {
@@ -38,6 +38,13 @@ package org.noise_planet.qrtone;
  */
 public class Configuration {
   public enum ECC_LEVEL {ECC_L, ECC_M, ECC_Q, ECC_H}
+  /**
+   * Spectral analysis of the symbols. GOERTZEL run one filter for each tone frequency, RFFT evaluate all tone
+   * frequencies with a single real FFT for each word. FIXED_POINT run the Goertzel filters and the trigger analysis
+   * in integer arithmetic on 16 bits PCM samples, float samples are rounded to 16 bits
+   * (see {@link FixedPointGoertzelBank} for the error bounds)
+   */
+  public enum SPECTRAL_ENGINE {GOERTZEL, RFFT, FIXED_POINT}
   private static final int[][] ECC_SYMBOLS = new int[][] {{14, 2}, {14, 4}, {12, 6}, {10, 6}};
   public static final double MULT_SEMITONE = Math.pow(2, 1/15.0);
   public static final double DEFAULT_WORD_TIME = 0.06;
@@ -48,6 +55,8 @@ public class Configuration {
   public static final int DEFAULT_INAUDIBLE_STEP = 50;
   public static final double DEFAULT_TRIGGER_SNR = 15;
   public static final ECC_LEVEL DEFAULT_ECC_LEVEL = ECC_LEVEL.ECC_Q;
+  public static final SPECTRAL_ENGINE DEFAULT_SPECTRAL_ENGINE = SPECTRAL_ENGINE.GOERTZEL;
+  public static final int DEFAULT_DECIMATION_FACTOR = 1;
 
   public final double sampleRate;
   public final double firstFrequency;
@@ -57,9 +66,32 @@ public class Configuration {
   public final double triggerSnr;
   public final double gateTime;
   public final double wordSilenceTime;
+  public final SPECTRAL_ENGINE spectralEngine;
+  public final int decimationFactor;
 
   public Configuration(double sampleRate, double firstFrequency, int frequencyIncrement, double frequencyMulti,
                        double wordTime, double triggerSnr, double gateTime, double wordSilenceTime) {
+    this(sampleRate, firstFrequency, frequencyIncrement, frequencyMulti, wordTime, triggerSnr, gateTime,
+            wordSilenceTime, DEFAULT_SPECTRAL_ENGINE);
+  }
+
+  public Configuration(double sampleRate, double firstFrequency, int frequencyIncrement, double frequencyMulti,
+                       double wordTime, double triggerSnr, double gateTime, double wordSilenceTime,
+                       SPECTRAL_ENGINE spectralEngine) {
+    this(sampleRate, firstFrequency, frequencyIncrement, frequencyMulti, wordTime, triggerSnr, gateTime,
+            wordSilenceTime, spectralEngine, DEFAULT_DECIMATION_FACTOR);
+  }
+
+  /**
+   * @param decimationFactor Received samples are analyzed at sampleRate / decimationFactor, after moving the band
+   *                         of the tone frequencies to the lower rate. 1 to analyze the samples at sampleRate.
+   */
+  public Configuration(double sampleRate, double firstFrequency, int frequencyIncrement, double frequencyMulti,
+                       double wordTime, double triggerSnr, double gateTime, double wordSilenceTime,
+                       SPECTRAL_ENGINE spectralEngine, int decimationFactor) {
+    if(decimationFactor < 1) {
+      throw new IllegalArgumentException("Decimation factor must be at least 1");
+    }
     this.sampleRate = sampleRate;
     this.firstFrequency = firstFrequency;
     this.frequencyIncrement = frequencyIncrement;
@@ -68,6 +100,41 @@ public class Configuration {
     this.triggerSnr = triggerSnr;
     this.gateTime = gateTime;
     this.wordSilenceTime = wordSilenceTime;
+    this.spectralEngine = spectralEngine;
+    this.decimationFactor = decimationFactor;
+  }
+
+  /**
+   * @param spectralEngine Spectral analysis of the symbols
+   * @return Copy of this configuration using the provided spectral engine
+   */
+  public Configuration withSpectralEngine(SPECTRAL_ENGINE spectralEngine) {
+    return new Configuration(sampleRate, firstFrequency, frequencyIncrement, frequencyMulti, wordTime, triggerSnr,
+            gateTime, wordSilenceTime, spectralEngine, decimationFactor);
+  }
+
+  /**
+   * The tone frequencies are all in a narrow band, the received samples can be analyzed at a lower sampling rate.
+   * The band must be narrower than 0.4 * sampleRate / decimationFactor: about 3 for the audible configuration and
+   * 10 for the inaudible configuration at 44.1 kHz.
+   * @param decimationFactor Received samples are analyzed at sampleRate / decimationFactor
+   * @return Copy of this configuration using the provided decimation factor
+   */
+  public Configuration withDecimationFactor(int decimationFactor) {
+    return new Configuration(sampleRate, firstFrequency, frequencyIncrement, frequencyMulti, wordTime, triggerSnr,
+            gateTime, wordSilenceTime, spectralEngine, decimationFactor);
+  }
+
+  /**
+   * Shorter words reduce the airtime but lower the signal to noise ratio of each symbol
+   * @param wordTime Duration of a word in seconds
+   * @param gateTime Duration of a gate tone in seconds
+   * @param wordSilenceTime Silence between two words in seconds
+   * @return Copy of this configuration using the provided durations
+   */
+  public Configuration withTiming(double wordTime, double gateTime, double wordSilenceTime) {
+    return new Configuration(sampleRate, firstFrequency, frequencyIncrement, frequencyMulti, wordTime, triggerSnr,
+            gateTime, wordSilenceTime, spectralEngine, decimationFactor);
   }
 
   /**
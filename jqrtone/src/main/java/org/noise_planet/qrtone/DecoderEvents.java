@@ -0,0 +1,82 @@
+/*
+ * BSD 3-Clause License
+ *
+ * Copyright (c) Unité Mixte de Recherche en Acoustique Environnementale (univ-gustave-eiffel)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+
+package org.noise_planet.qrtone;
+
+/**
+ * Decoding stages reported to Java Flight Recorder. This version does nothing, the jar contains a version emitting
+ * JFR events in META-INF/versions/11 that is loaded instead by Java 11 and later runtimes.
+ */
+final class DecoderEvents {
+    private DecoderEvents() {
+    }
+
+    /**
+     * @param location Location of the first tone, in analyzed samples
+     * @param level Peak level of the last gate frequency in dB
+     * @param snr Difference in dB between the peak level and the background noise
+     */
+    static void triggerFired(long location, double level, double snr) {
+    }
+
+    /**
+     * @return Event to give to {@link #endHeaderDecode(Object, boolean, int)}, null if events are disabled
+     */
+    static Object beginHeaderDecode() {
+        return null;
+    }
+
+    static void endHeaderDecode(Object event, boolean decoded, int fixedErrors) {
+    }
+
+    /**
+     * @return Event to give to {@link #endPayloadDecode(Object, int, int, int)}, null if events are disabled
+     */
+    static Object beginPayloadDecode() {
+        return null;
+    }
+
+    /**
+     * @param payloadLength Length of the decoded payload, -1 if the payload can't be decoded
+     */
+    static void endPayloadDecode(Object event, int symbols, int payloadLength, int fixedErrors) {
+    }
+
+    /**
+     * @param header True if the header failed, false for the payload
+     * @param crcMismatch True if the symbols have been corrected but do not match the CRC
+     */
+    static void decodeFailed(boolean header, boolean crcMismatch) {
+    }
+}
@@ -0,0 +1,285 @@
+/*
+ * BSD 3-Clause License
+ *
+ * Copyright (c) Unité Mixte de Recherche en Acoustique Environnementale (univ-gustave-eiffel)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+
+package org.noise_planet.qrtone;
+
+import java.util.Arrays;
+
+/**
+ * Counters of a {@link QRTone} decoder. A snapshot is obtained with {@link QRTone#getMetrics()}, the counters are
+ * accumulated since the creation of the decoder or the last call to {@link QRTone#resetMetrics()}.
+ * Failed headers tell about the acoustic conditions (false triggers or too much noise), while the stage durations
+ * compared to the processed audio duration tell about the decoder throughput.
+ * The decoder updates the counters without synchronization, a snapshot must be taken from the decoding thread. The
+ * snapshot itself can then be handed to another thread.
+ */
+public class DecoderMetrics {
+    // A Reed-Solomon block can't fix more symbols than its length
+    public static final int MAXIMUM_BLOCK_CORRECTIONS = 15;
+    // Push latency bucket i counts the durations in [2^i, 2^(i+1)[ nanoseconds, the last bucket is unbounded
+    public static final int LATENCY_BUCKETS = 32;
+    long samplesProcessed = 0;
+    long triggerStageNanos = 0;
+    long symbolStageNanos = 0;
+    long triggersFired = 0;
+    long droppedTriggers = 0;
+    long headerCrcFailures = 0;
+    long headerReedSolomonFailures = 0;
+    long payloadCrcFailures = 0;
+    long payloadReedSolomonFailures = 0;
+    long decodedMessages = 0;
+    long lastPayloadDelay = -1;
+    long totalPayloadDelay = 0;
+    long maximumPayloadDelay = 0;
+    final long[] blockCorrections = new long[MAXIMUM_BLOCK_CORRECTIONS + 1];
+    final long[] pushLatencies = new long[LATENCY_BUCKETS];
+
+    public DecoderMetrics() {
+    }
+
+    public DecoderMetrics(DecoderMetrics other) {
+        set(other);
+    }
+
+    /**
+     * Copy the counters of another instance, without allocation
+     * @param other Source counters
+     */
+    public void set(DecoderMetrics other) {
+        samplesProcessed = other.samplesProcessed;
+        triggerStageNanos = other.triggerStageNanos;
+        symbolStageNanos = other.symbolStageNanos;
+        triggersFired = other.triggersFired;
+        droppedTriggers = other.droppedTriggers;
+        headerCrcFailures = other.headerCrcFailures;
+        headerReedSolomonFailures = other.headerReedSolomonFailures;
+        payloadCrcFailures = other.payloadCrcFailures;
+        payloadReedSolomonFailures = other.payloadReedSolomonFailures;
+        decodedMessages = other.decodedMessages;
+        lastPayloadDelay = other.lastPayloadDelay;
+        totalPayloadDelay = other.totalPayloadDelay;
+        maximumPayloadDelay = other.maximumPayloadDelay;
+        System.arraycopy(other.blockCorrections, 0, blockCorrections, 0, blockCorrections.length);
+        System.arraycopy(other.pushLatencies, 0, pushLatencies, 0, pushLatencies.length);
+    }
+
+    public void reset() {
+        samplesProcessed = 0;
+        triggerStageNanos = 0;
+        symbolStageNanos = 0;
+        triggersFired = 0;
+        droppedTriggers = 0;
+        headerCrcFailures = 0;
+        headerReedSolomonFailures = 0;
+        payloadCrcFailures = 0;
+        payloadReedSolomonFailures = 0;
+        decodedMessages = 0;
+        lastPayloadDelay = -1;
+        totalPayloadDelay = 0;
+        maximumPayloadDelay = 0;
+        Arrays.fill(blockCorrections, 0);
+        Arrays.fill(pushLatencies, 0);
+    }
+
+    void addBlockCorrections(int[] blockErrors, int numberOfBlocks) {
+        for(int blockId = 0; blockId < numberOfBlocks; blockId++) {
+            blockCorrections[Math.min(MAXIMUM_BLOCK_CORRECTIONS, blockErrors[blockId])]++;
+        }
+    }
+
+    void addPayloadDelay(long delay) {
+        decodedMessages++;
+        lastPayloadDelay = delay;
+        totalPayloadDelay += delay;
+        maximumPayloadDelay = Math.max(maximumPayloadDelay, delay);
+    }
+
+    void addPushLatency(long nanos) {
+        pushLatencies[Math.min(LATENCY_BUCKETS - 1, 63 - Long.numberOfLeadingZeros(Math.max(1, nanos)))]++;
+    }
+
+    /**
+     * @return Number of received samples, before decimation
+     */
+    public long getSamplesProcessed() {
+        return samplesProcessed;
+    }
+
+    /**
+     * Stage durations are recorded only if enabled with {@link QRTone#setStageTimers(boolean)}
+     * @return Time spent in the trigger analysis, in nanoseconds
+     */
+    public long getTriggerStageNanos() {
+        return triggerStageNanos;
+    }
+
+    /**
+     * Stage durations are recorded only if enabled with {@link QRTone#setStageTimers(boolean)}
+     * @return Time spent in the analysis of the symbols and the error correction, in nanoseconds
+     */
+    public long getSymbolStageNanos() {
+        return symbolStageNanos;
+    }
+
+    /**
+     * @param sampleRate Sampling rate of the received samples in Hz
+     * @return Duration of the processed audio divided by the processing time, the decoder is real time if greater
+     * than 1. Infinite if nothing has been processed or if the stage timers are not enabled
+     */
+    public double getRealTimeFactor(double sampleRate) {
+        final long nanos = triggerStageNanos + symbolStageNanos;
+        if(nanos == 0) {
+            return Double.POSITIVE_INFINITY;
+        }
+        return (samplesProcessed / sampleRate) / (nanos / 1e9);
+    }
+
+    /**
+     * @return Number of messages found by the trigger analyzer whose decoding has started
+     */
+    public long getTriggersFired() {
+        return triggersFired;
+    }
+
+    /**
+     * @return Number of messages found by the trigger analyzer and ignored because all symbol parsers were busy
+     */
+    public long getDroppedTriggers() {
+        return droppedTriggers;
+    }
+
+    /**
+     * @return Triggers abandoned because the header has been corrected but does not match its CRC
+     */
+    public long getHeaderCrcFailures() {
+        return headerCrcFailures;
+    }
+
+    /**
+     * @return Triggers abandoned because the header has too many errors to be corrected
+     */
+    public long getHeaderReedSolomonFailures() {
+        return headerReedSolomonFailures;
+    }
+
+    /**
+     * @return Messages dropped because the payload has been corrected but does not match its CRC
+     */
+    public long getPayloadCrcFailures() {
+        return payloadCrcFailures;
+    }
+
+    /**
+     * @return Messages dropped because a block of the payload has too many errors to be corrected
+     */
+    public long getPayloadReedSolomonFailures() {
+        return payloadReedSolomonFailures;
+    }
+
+    /**
+     * @return Number of decoded payloads
+     */
+    public long getDecodedMessages() {
+        return decodedMessages;
+    }
+
+    /**
+     * @param fixedErrors Number of symbols fixed in a block, the last index counts the blocks with
+     * {@link #MAXIMUM_BLOCK_CORRECTIONS} or more fixed symbols
+     * @return Number of decoded header and payload blocks with this number of fixed symbols
+     */
+    public long getBlockCorrections(int fixedErrors) {
+        return blockCorrections[fixedErrors];
+    }
+
+    /**
+     * @return Number of received samples between the trigger and the delivery of the last decoded payload,
+     * -1 if no payload has been decoded
+     */
+    public long getLastPayloadDelay() {
+        return lastPayloadDelay;
+    }
+
+    /**
+     * @return Average number of received samples between the trigger and the delivery of the payload
+     */
+    public double getMeanPayloadDelay() {
+        return decodedMessages == 0 ? 0 : totalPayloadDelay / (double) decodedMessages;
+    }
+
+    public long getMaximumPayloadDelay() {
+        return maximumPayloadDelay;
+    }
+
+    /**
+     * Push latencies are recorded only if enabled with {@link QRTone#setPushLatencyHistogram(boolean)}
+     * @param bucket Histogram bucket in [0, {@link #LATENCY_BUCKETS}[
+     * @return Number of pushSamples calls that took from 2^bucket to 2^(bucket+1) nanoseconds
+     */
+    public long getPushLatencyCount(int bucket) {
+        return pushLatencies[bucket];
+    }
+
+    /**
+     * @return Number of pushSamples calls recorded in the latency histogram
+     */
+    public long getPushCount() {
+        long count = 0;
+        for(long bucketCount : pushLatencies) {
+            count += bucketCount;
+        }
+        return count;
+    }
+
+    /**
+     * @param percentile Percentile in [0, 1]
+     * @return Upper bound in nanoseconds of the histogram bucket containing the percentile, 0 if no push has been
+     * recorded
+     */
+    public long getPushLatencyPercentile(double percentile) {
+        final long count = getPushCount();
+        if(count == 0) {
+            return 0;
+        }
+        final long rank = Math.max(1, (long)Math.ceil(percentile * count));
+        long cumulated = 0;
+        for(int bucket = 0; bucket < LATENCY_BUCKETS - 1; bucket++) {
+            cumulated += pushLatencies[bucket];
+            if(cumulated >= rank) {
+                return 1L << (bucket + 1);
+            }
+        }
+        return Long.MAX_VALUE;
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * BSD 3-Clause License
+ *
+ * Copyright (c) Unité Mixte de Recherche en Acoustique Environnementale (univ-gustave-eiffel)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package org.noise_planet.qrtone;
+
+import java.util.Arrays;
+
+/**
+ * Analyze all tone frequencies with a single real FFT of the Hann windowed center of the word.
+ * Tone frequencies are not aligned on FFT bins, the level of a tone is obtained from the quadratic interpolation of
+ * the levels of the three closest bins.
+ */
+public class FFTToneAnalyzer implements ToneAnalyzer {
+    private final RealFFT fft;
+    private final double[] frame;
+    private final double[] spectrum;
+    private final double[] hannWindowCache;
+    private final int windowStart;
+    private final int windowLength;
+    // Fractional FFT bin of each frequency
+    private final double[] frequencyBins;
+    // Convert FFT magnitude into RMS level
+    private final double rmsFactor;
+
+    /**
+     * @param sampleRate Sampling rate in Hz
+     * @param frequencies Tone frequencies in Hz
+     * @param windowLength Analysis window length in samples, centered on the word
+     * @param wordLength Word length in samples
+     */
+    public FFTToneAnalyzer(double sampleRate, double[] frequencies, int windowLength, int wordLength) {
+        this.windowLength = windowLength;
+        this.windowStart = wordLength / 2 - windowLength / 2;
+        int fftSize = Math.max(4, Integer.highestOneBit(windowLength));
+        if(fftSize < windowLength) {
+            fftSize <<= 1;
+        }
+        fft = new RealFFT(fftSize);
+        frame = new double[fftSize];
+        spectrum = new double[fftSize + 2];
+        hannWindowCache = new double[windowLength];
+        for(int i=0; i < windowLength; i++) {
+            hannWindowCache[i] = 0.5 - 0.5 * Math.cos((QRTone.M2PI * i) / (windowLength - 1));
+        }
+        frequencyBins = new double[frequencies.length];
+        for(int idfreq = 0; idfreq < frequencies.length; idfreq++) {
+            frequencyBins[idfreq] = frequencies[idfreq] * fftSize / sampleRate;
+            if(Math.round(frequencyBins[idfreq]) < 1 || Math.round(frequencyBins[idfreq]) >= fftSize / 2) {
+                throw new IllegalArgumentException("Frequency " + frequencies[idfreq] + " Hz is out of FFT range");
+            }
+        }
+        rmsFactor = Math.sqrt(2) / windowLength;
+    }
+
+    private FFTToneAnalyzer(FFTToneAnalyzer other) {
+        // The FFT and the spectrum are work buffers, duplicated analyzers must be used by the same thread
+        fft = other.fft;
+        spectrum = other.spectrum;
+        hannWindowCache = other.hannWindowCache;
+        windowStart = other.windowStart;
+        windowLength = other.windowLength;
+        frequencyBins = other.frequencyBins;
+        rmsFactor = other.rmsFactor;
+        frame = new double[other.frame.length];
+    }
+
+    @Override
+    public FFTToneAnalyzer duplicate() {
+        return new FFTToneAnalyzer(this);
+    }
+
+    public int getWindowLength() {
+        return windowLength;
+    }
+
+    @Override
+    public void processSamples(float[] samples, int from, int to, int wordCursor) {
+        final int start = Math.max(wordCursor, windowStart);
+        final int end = Math.min(wordCursor + to - from, windowStart + windowLength);
+        for(int i = start; i < end; i++) {
+            frame[i - windowStart] = samples[from + i - wordCursor] * hannWindowCache[i - windowStart];
+        }
+    }
+
+    @Override
+    public void processSamples(short[] samples, int from, int to, int wordCursor) {
+        final int start = Math.max(wordCursor, windowStart);
+        final int end = Math.min(wordCursor + to - from, windowStart + windowLength);
+        for(int i = start; i < end; i++) {
+            frame[i - windowStart] = samples[from + i - wordCursor] / FixedPoint.PCM_SCALE * hannWindowCache[i - windowStart];
+        }
+    }
+
+    private double binLevel(int bin) {
+        final double r = spectrum[2 * bin];
+        final double i = spectrum[2 * bin + 1];
+        return 10 * Math.log10(Math.max(Double.MIN_NORMAL, (r * r + i * i) * rmsFactor * rmsFactor));
+    }
+
+    @Override
+    public void computeSpl(double[] spl) {
+        fft.forward(frame, spectrum);
+        for(int idfreq = 0; idfreq < frequencyBins.length; idfreq++) {
+            final int bin = (int)Math.round(frequencyBins[idfreq]);
+            final double delta = frequencyBins[idfreq] - bin;
+            final double p0 = binLevel(bin - 1);
+            final double p1 = binLevel(bin);
+            final double p2 = binLevel(bin + 1);
+            // Parabola passing through the three closest bins
+            spl[idfreq] = p1 + 0.5 * (p2 - p0) * delta + 0.5 * (p0 - 2 * p1 + p2) * delta * delta;
+        }
+        reset();
+    }
+
+    @Override
+    public void reset() {
+        Arrays.fill(frame, 0);
+    }
+}
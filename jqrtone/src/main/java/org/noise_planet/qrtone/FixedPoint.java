@@ -0,0 +1,141 @@
+/*
+ * BSD 3-Clause License
+ *
+ * Copyright (c) Unité Mixte de Recherche en Acoustique Environnementale (univ-gustave-eiffel)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+
+package org.noise_planet.qrtone;
+
+/**
+ * Fixed point arithmetic of the Goertzel filters working on 16 bits PCM samples.
+ *
+ * Filter inputs are the PCM samples scaled by 2^GUARD_BITS, so the rounding errors of the window and of the
+ * recursion are small fractions of the PCM quantization step. Filter states are 64 bits integers, the number of
+ * fractional bits of each filter coefficient is chosen so that the product of the coefficient by the largest
+ * reachable state can not overflow.
+ */
+final class FixedPoint {
+    // Fractional bits of the filter inputs, relative to the PCM quantization step
+    static final int GUARD_BITS = 8;
+    // Fractional bits of the window weights
+    static final int WINDOW_BITS = 15;
+    static final int MAXIMUM_COEFFICIENT_BITS = 30;
+    // Maximum phase error in radians accumulated over a window because of the rounding of the coefficient
+    static final double MAXIMUM_PHASE_DRIFT = 0.01;
+    // Float samples in [-1, 1] are 16 bits PCM samples divided by this value
+    static final float PCM_SCALE = Short.MAX_VALUE;
+    // Convert a filter state into the scale of the float samples
+    static final double STATE_SCALE = 1.0 / (PCM_SCALE * (1 << GUARD_BITS));
+
+    private FixedPoint() {
+    }
+
+    /**
+     * @param sample Float sample in [-1, 1]
+     * @return Nearest 16 bits PCM sample, clipped
+     */
+    static short toPcm(float sample) {
+        return (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, Math.round(sample * PCM_SCALE)));
+    }
+
+    /**
+     * @param omega Filter frequency in radians per sample
+     * @param windowSize Number of samples accumulated by the filter before a reset
+     * @return Maximum number of fractional bits of the coefficient 2cos(omega)
+     */
+    static int coefficientBits(double omega, int windowSize) {
+        // |s[n]| <= sum |x[k]| |sin((n - k + 1) omega) / sin(omega)| <= N max|x| min(N, 1 / |sin(omega)|)
+        final double gain = Math.min(windowSize, 1 / Math.abs(Math.sin(omega)));
+        final double maximumState = windowSize * (double) (1 << (15 + GUARD_BITS)) * gain;
+        // Including the sign bit
+        final int stateBits = (int) Math.ceil(Math.log(maximumState + 1) / Math.log(2)) + 1;
+        // |coefficient| < 2^(bits + 1) so the product is lower than 2^62
+        return Math.min(MAXIMUM_COEFFICIENT_BITS, 62 - stateBits);
+    }
+
+    /**
+     * A single precision for all filters keeps the shift of the recursion constant
+     * @param omega Filter frequencies in radians per sample
+     * @param windowSizes Number of samples accumulated by each filter before a reset
+     * @return Number of fractional bits of the coefficients, shared by all filters
+     * @throws IllegalArgumentException If the filters can not be precise enough
+     */
+    static int coefficientBits(double[] omega, int[] windowSizes) {
+        int bits = MAXIMUM_COEFFICIENT_BITS;
+        for(int i = 0; i < omega.length; i++) {
+            bits = Math.min(bits, coefficientBits(omega[i], windowSizes[i]));
+        }
+        for(int i = 0; i < omega.length; i++) {
+            // Rounding 2cos(w) to 2^-(bits + 1) moves the frequency by up to 2^-(bits + 2) / |sin(w)|
+            if(windowSizes[i] * Math.scalb(1.0, -(bits + 2)) / Math.abs(Math.sin(omega[i])) > MAXIMUM_PHASE_DRIFT) {
+                throw new IllegalArgumentException("Window of " + windowSizes[i] + " samples is too long for fixed " +
+                        "point analysis at " + omega[i] + " rad/sample");
+            }
+        }
+        return bits;
+    }
+
+    /**
+     * @param omega Filter frequency in radians per sample
+     * @param bits Number of fractional bits
+     * @return 2cos(omega) in fixed point
+     */
+    static long coefficient(double omega, int bits) {
+        return Math.round(2 * Math.cos(omega) * (1L << bits));
+    }
+
+    /**
+     * @param coefficient Fixed point coefficient
+     * @param state Filter state
+     * @param bits Number of fractional bits of the coefficient
+     * @return coefficient * state rounded to the nearest state unit
+     */
+    static long multiply(long coefficient, long state, int bits) {
+        return (coefficient * state + (1L << (bits - 1))) >> bits;
+    }
+
+    /**
+     * @param sample 16 bits PCM sample
+     * @param weight Window weight with {@link #WINDOW_BITS} fractional bits
+     * @return Filter input, windowed sample with {@link #GUARD_BITS} fractional bits
+     */
+    static int window(int sample, int weight) {
+        return (sample * weight + (1 << (WINDOW_BITS - GUARD_BITS - 1))) >> (WINDOW_BITS - GUARD_BITS);
+    }
+
+    /**
+     * @param weight Window weight in [0, 1]
+     * @return Window weight with {@link #WINDOW_BITS} fractional bits
+     */
+    static int toWindowWeight(double weight) {
+        return (int) Math.round(weight * (1 << WINDOW_BITS));
+    }
+}
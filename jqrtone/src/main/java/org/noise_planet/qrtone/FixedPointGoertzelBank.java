@@ -0,0 +1,243 @@
+/*
+ * BSD 3-Clause License
+ *
+ * Copyright (c) Unité Mixte de Recherche en Acoustique Environnementale (univ-gustave-eiffel)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+
+package org.noise_planet.qrtone;
+
+/**
+ * Same analysis as {@link GoertzelBank} in integer arithmetic, for 16 bits PCM samples. Float samples are rounded to
+ * 16 bits PCM before the analysis.
+ *
+ * The Hann weights are stored with 15 fractional bits, the windowed samples with 8 fractional bits and the filter
+ * states in 64 bits integers. Compared with {@link GoertzelBank} fed with the same 16 bits samples, the RMS level
+ * of a tone of angular frequency w (radians per sample) differs by at most:
+ * <ul>
+ * <li>2^-14 times the level, because of the rounding of the Hann weights</li>
+ * <li>2 sqrt(2) / (256 |sin(w)|) quantization steps, because of the rounding of the windowed samples and of each
+ * step of the recursion. For the audible configuration at 44.1 kHz this is below -115 dBFS.</li>
+ * </ul>
+ * The rounding of the filter coefficients is chosen to shift the phase by less than 0.01 radians over the window,
+ * the constructor rejects frequencies too close to 0 or to the Nyquist frequency to meet this limit.
+ */
+public class FixedPointGoertzelBank implements ToneAnalyzer {
+    // Float samples are converted by chunks of this size
+    private static final int CONVERSION_BUFFER_LENGTH = 256;
+    // Frequency index of each bin
+    private final int[] frequencyIndex;
+    private final int[] windowStart;
+    private final int[] windowEnd;
+    private final int[] windowSize;
+    // 2cos(w) with coefficientBits fractional bits
+    private final long[] coefficient;
+    private final int coefficientBits;
+    private final double[] cosPikTerm;
+    private final double[] sinPikTerm;
+    private final long[] s1;
+    private final long[] s2;
+    // Hann window shared by all bins, null if window sizes are not all equal
+    private final int[] sharedHannWindow;
+    // Hann window weight of each bin for each sample of the largest window (sample major), null if the window
+    // is shared. Zero outside the window of the bin.
+    private final int[] hannWeights;
+    private final short[] conversionBuffer = new short[CONVERSION_BUFFER_LENGTH];
+
+    /**
+     * @param sampleRate Sampling rate in Hz
+     * @param frequencies Tone frequencies in Hz
+     * @param windowSizes Analysis window length of each frequency
+     * @param wordLength Word length in samples
+     */
+    public FixedPointGoertzelBank(double sampleRate, double[] frequencies, int[] windowSizes, int wordLength) {
+        final int binCount = frequencies.length;
+        frequencyIndex = new int[binCount];
+        windowStart = new int[binCount];
+        windowEnd = new int[binCount];
+        windowSize = new int[binCount];
+        coefficient = new long[binCount];
+        cosPikTerm = new double[binCount];
+        sinPikTerm = new double[binCount];
+        s1 = new long[binCount];
+        s2 = new long[binCount];
+        // Sort bins by decreasing window size (insertion sort, stable)
+        for(int idfreq = 0; idfreq < binCount; idfreq++) {
+            int bin = idfreq;
+            while(bin > 0 && windowSizes[frequencyIndex[bin - 1]] < windowSizes[idfreq]) {
+                frequencyIndex[bin] = frequencyIndex[bin - 1];
+                bin--;
+            }
+            frequencyIndex[bin] = idfreq;
+        }
+        boolean sameWindowSize = true;
+        final double[] pikTerms = new double[binCount];
+        for(int bin = 0; bin < binCount; bin++) {
+            final int idfreq = frequencyIndex[bin];
+            if(windowSizes[idfreq] < 2 || windowSizes[idfreq] > wordLength) {
+                throw new IllegalArgumentException("Window size must be in [2, wordLength]");
+            }
+            // Windows are centered on the word, a smaller window is always included in a larger one
+            windowSize[bin] = windowSizes[idfreq];
+            windowStart[bin] = wordLength / 2 - windowSize[bin] / 2;
+            windowEnd[bin] = windowStart[bin] + windowSize[bin];
+            pikTerms[bin] = QRTone.M2PI * frequencies[idfreq] / sampleRate;
+            cosPikTerm[bin] = Math.cos(pikTerms[bin]);
+            sinPikTerm[bin] = Math.sin(pikTerms[bin]);
+            sameWindowSize &= windowSize[bin] == windowSize[0];
+        }
+        coefficientBits = FixedPoint.coefficientBits(pikTerms, windowSize);
+        for(int bin = 0; bin < binCount; bin++) {
+            coefficient[bin] = FixedPoint.coefficient(pikTerms[bin], coefficientBits);
+        }
+        if(sameWindowSize && binCount > 0) {
+            sharedHannWindow = new int[windowSize[0]];
+            for(int i = 0; i < sharedHannWindow.length; i++) {
+                sharedHannWindow[i] = FixedPoint.toWindowWeight(0.5 - 0.5 * Math.cos((QRTone.M2PI * i) / (windowSize[0] - 1)));
+            }
+            hannWeights = null;
+        } else {
+            sharedHannWindow = null;
+            hannWeights = new int[windowSize[0] * binCount];
+            for(int bin = 0; bin < binCount; bin++) {
+                final int shift = windowStart[bin] - windowStart[0];
+                for(int i = 0; i < windowSize[bin]; i++) {
+                    hannWeights[(i + shift) * binCount + bin] =
+                            FixedPoint.toWindowWeight(0.5 - 0.5 * Math.cos((QRTone.M2PI * i) / (windowSize[bin] - 1)));
+                }
+            }
+        }
+        reset();
+    }
+
+    private FixedPointGoertzelBank(FixedPointGoertzelBank other) {
+        frequencyIndex = other.frequencyIndex;
+        windowStart = other.windowStart;
+        windowEnd = other.windowEnd;
+        windowSize = other.windowSize;
+        coefficient = other.coefficient;
+        coefficientBits = other.coefficientBits;
+        cosPikTerm = other.cosPikTerm;
+        sinPikTerm = other.sinPikTerm;
+        sharedHannWindow = other.sharedHannWindow;
+        hannWeights = other.hannWeights;
+        s1 = new long[other.s1.length];
+        s2 = new long[other.s2.length];
+    }
+
+    @Override
+    public FixedPointGoertzelBank duplicate() {
+        return new FixedPointGoertzelBank(this);
+    }
+
+    @Override
+    public void processSamples(float[] samples, int from, int to, int wordCursor) {
+        for(int cursor = from; cursor < to; cursor += CONVERSION_BUFFER_LENGTH) {
+            final int length = Math.min(CONVERSION_BUFFER_LENGTH, to - cursor);
+            for(int i = 0; i < length; i++) {
+                conversionBuffer[i] = FixedPoint.toPcm(samples[cursor + i]);
+            }
+            processSamples(conversionBuffer, 0, length, wordCursor + cursor - from);
+        }
+    }
+
+    @Override
+    public void processSamples(short[] samples, int from, int to, int wordCursor) {
+        final int wordCursorEnd = wordCursor + to - from;
+        int cursor = wordCursor;
+        while(cursor < wordCursorEnd) {
+            // Find the number of bins analysing this sample and the next sample where this number changes
+            int activeBins = 0;
+            int segmentEnd = wordCursorEnd;
+            for(int bin = 0; bin < windowStart.length; bin++) {
+                if(windowStart[bin] > cursor) {
+                    segmentEnd = Math.min(segmentEnd, windowStart[bin]);
+                } else if(windowEnd[bin] > cursor) {
+                    segmentEnd = Math.min(segmentEnd, windowEnd[bin]);
+                    activeBins = bin + 1;
+                }
+            }
+            final int offset = from - wordCursor;
+            if(activeBins > 0) {
+                if(sharedHannWindow != null) {
+                    processSharedWindow(samples, cursor + offset, segmentEnd + offset,
+                            cursor - windowStart[0], activeBins);
+                } else {
+                    processWindows(samples, cursor + offset, segmentEnd + offset, cursor - windowStart[0], activeBins);
+                }
+            }
+            cursor = segmentEnd;
+        }
+    }
+
+    private void processSharedWindow(short[] samples, int from, int to, int windowCursor, int activeBins) {
+        for(int i = from; i < to; i++) {
+            final int sample = FixedPoint.window(samples[i], sharedHannWindow[windowCursor++]);
+            for(int bin = 0; bin < activeBins; bin++) {
+                final long s0 = sample + FixedPoint.multiply(coefficient[bin], s1[bin], coefficientBits) - s2[bin];
+                s2[bin] = s1[bin];
+                s1[bin] = s0;
+            }
+        }
+    }
+
+    private void processWindows(short[] samples, int from, int to, int windowCursor, int activeBins) {
+        int weightIndex = windowCursor * s1.length;
+        for(int i = from; i < to; i++) {
+            final int sample = samples[i];
+            for(int bin = 0; bin < activeBins; bin++) {
+                final long s0 = FixedPoint.window(sample, hannWeights[weightIndex + bin]) +
+                        FixedPoint.multiply(coefficient[bin], s1[bin], coefficientBits) - s2[bin];
+                s2[bin] = s1[bin];
+                s1[bin] = s0;
+            }
+            weightIndex += s1.length;
+        }
+    }
+
+    @Override
+    public void computeSpl(double[] spl) {
+        for(int bin = 0; bin < s1.length; bin++) {
+            // The last sample of the Hann window is zero, y = s[N-1] - e^(-i*w) s[N-2]
+            final double yr = (s1[bin] - cosPikTerm[bin] * s2[bin]) * FixedPoint.STATE_SCALE;
+            final double yi = sinPikTerm[bin] * s2[bin] * FixedPoint.STATE_SCALE;
+            spl[frequencyIndex[bin]] = 20 * Math.log10(Math.sqrt((yr * yr + yi * yi) * 2) / windowSize[bin]);
+        }
+        reset();
+    }
+
+    @Override
+    public void reset() {
+        for(int bin = 0; bin < s1.length; bin++) {
+            s1[bin] = 0;
+            s2[bin] = 0;
+        }
+    }
+}
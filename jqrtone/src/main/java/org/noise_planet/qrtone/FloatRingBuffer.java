@@ -0,0 +1,203 @@
+/*
+ * BSD 3-Clause License
+ *
+ * Copyright (c) Unité Mixte de Recherche en Acoustique Environnementale (univ-gustave-eiffel)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+
+package org.noise_planet.qrtone;
+
+/**
+ * Keep the last values of one or more channels in a single float array, without boxing and without moving elements
+ * at each insertion. The values of all channels of an insertion are stored next to each other.
+ */
+public class FloatRingBuffer {
+    private final float[] values;
+    private final int channels;
+    private final int capacity;
+    // Row of the next insertion
+    private int cursor = 0;
+    private int inserted = 0;
+
+    /**
+     * @param capacity Maximum number of kept values
+     */
+    public FloatRingBuffer(int capacity) {
+        this(1, capacity);
+    }
+
+    /**
+     * @param channels Number of values of each insertion
+     * @param capacity Maximum number of kept insertions
+     */
+    public FloatRingBuffer(int channels, int capacity) {
+        if(channels < 1 || capacity < 1) {
+            throw new IllegalArgumentException("Channels and capacity must be strictly positive");
+        }
+        this.channels = channels;
+        this.capacity = capacity;
+        values = new float[channels * capacity];
+    }
+
+    public int getChannels() {
+        return channels;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return Number of kept insertions
+     */
+    public int size() {
+        return inserted;
+    }
+
+    public void clear() {
+        cursor = 0;
+        inserted = 0;
+    }
+
+    /**
+     * @param index Index of the insertion, 0 is the oldest
+     * @return Index of the first channel value in values
+     */
+    private int getOffset(int index) {
+        int row = cursor - inserted + index;
+        if (row < 0) {
+            row += capacity;
+        }
+        return row * channels;
+    }
+
+    /**
+     * Add a value on a single channel buffer
+     */
+    public void addFloat(float value) {
+        values[cursor * channels] = value;
+        next();
+    }
+
+    /**
+     * Add a value for each channel
+     * @param row Values of each channel, converted to float
+     */
+    public void addRow(double[] row) {
+        final int offset = cursor * channels;
+        for(int channel = 0; channel < channels; channel++) {
+            values[offset + channel] = (float)row[channel];
+        }
+        next();
+    }
+
+    private void next() {
+        cursor += 1;
+        if(cursor == capacity) {
+            cursor = 0;
+        }
+        inserted = Math.min(capacity, inserted + 1);
+    }
+
+    /**
+     * @param index Index, 0 is the oldest value
+     * @return Value of the first channel
+     */
+    public float getFloat(int index) {
+        return values[getOffset(index)];
+    }
+
+    /**
+     * @param channel Channel index
+     * @param index Index, 0 is the oldest value
+     * @return Value of the channel
+     */
+    public float getFloat(int channel, int index) {
+        return values[getOffset(index) + channel];
+    }
+
+    /**
+     * Replace a value
+     * @param channel Channel index
+     * @param index Index, 0 is the oldest value
+     * @param value New value
+     */
+    public void setFloat(int channel, int index, float value) {
+        values[getOffset(index) + channel] = value;
+    }
+
+    /**
+     * @return Last value of the first channel, or NaN if the buffer is empty
+     */
+    public float lastFloat() {
+        return lastFloat(0);
+    }
+
+    /**
+     * @param channel Channel index
+     * @return Last value of the channel, or NaN if the buffer is empty
+     */
+    public float lastFloat(int channel) {
+        if(inserted == 0) {
+            return Float.NaN;
+        }
+        return getFloat(channel, inserted - 1);
+    }
+
+    /**
+     * Copy the values of the first channel, from the oldest to the newest
+     * @param destination Destination array, at least {@link #size()} long
+     * @return Number of copied values
+     */
+    public int copyTo(float[] destination) {
+        return copyTo(0, destination);
+    }
+
+    /**
+     * Copy the values of a channel, from the oldest to the newest
+     * @param channel Channel index
+     * @param destination Destination array, at least {@link #size()} long
+     * @return Number of copied values
+     */
+    public int copyTo(int channel, float[] destination) {
+        final int first = cursor - inserted < 0 ? cursor - inserted + capacity : cursor - inserted;
+        if(channels == 1) {
+            final int firstPart = Math.min(inserted, capacity - first);
+            System.arraycopy(values, first, destination, 0, firstPart);
+            System.arraycopy(values, 0, destination, firstPart, inserted - firstPart);
+        } else {
+            for(int index = 0; index < inserted; index++) {
+                final int row = first + index < capacity ? first + index : first + index - capacity;
+                destination[index] = values[row * channels + channel];
+            }
+        }
+        return inserted;
+    }
+}
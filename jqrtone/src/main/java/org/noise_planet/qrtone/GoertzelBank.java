@@ -0,0 +1,225 @@
+/*
+ * BSD 3-Clause License
+ *
+ * Copyright (c) Unité Mixte de Recherche en Acoustique Environnementale (univ-gustave-eiffel)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package org.noise_planet.qrtone;
+
+/**
+ * Analyze all tone frequencies with Goertzel filters centered on the word, updated together for each sample.
+ * The states of all filters are kept in primitive arrays, the bins are sorted by decreasing window size so the
+ * filters covering a sample are always the first ones of the arrays.
+ * If all frequencies have the same window size, the Hann window is applied once per sample for all filters.
+ * Otherwise the Hann weights of all filters are read from a table stored in the same order than the filters.
+ */
+public class GoertzelBank implements ToneAnalyzer {
+    // 16 bits samples are converted by chunks of this size
+    private static final int CONVERSION_BUFFER_LENGTH = 256;
+    // Frequency index of each bin
+    private final int[] frequencyIndex;
+    private final int[] windowStart;
+    private final int[] windowEnd;
+    private final int[] windowSize;
+    private final double[] cosPikTerm2;
+    private final double[] cosPikTerm;
+    private final double[] sinPikTerm;
+    private final double[] s1;
+    private final double[] s2;
+    // Hann window shared by all bins, null if window sizes are not all equal
+    private final double[] sharedHannWindow;
+    // Hann window weight of each bin for each sample of the largest window (sample major), null if the window
+    // is shared. Zero outside the window of the bin.
+    private final float[] hannWeights;
+    private final float[] conversionBuffer = new float[CONVERSION_BUFFER_LENGTH];
+
+    /**
+     * @param sampleRate Sampling rate in Hz
+     * @param frequencies Tone frequencies in Hz
+     * @param windowSizes Analysis window length of each frequency
+     * @param wordLength Word length in samples
+     */
+    public GoertzelBank(double sampleRate, double[] frequencies, int[] windowSizes, int wordLength) {
+        final int binCount = frequencies.length;
+        frequencyIndex = new int[binCount];
+        windowStart = new int[binCount];
+        windowEnd = new int[binCount];
+        windowSize = new int[binCount];
+        cosPikTerm2 = new double[binCount];
+        cosPikTerm = new double[binCount];
+        sinPikTerm = new double[binCount];
+        s1 = new double[binCount];
+        s2 = new double[binCount];
+        // Sort bins by decreasing window size (insertion sort, stable)
+        for(int idfreq = 0; idfreq < binCount; idfreq++) {
+            int bin = idfreq;
+            while(bin > 0 && windowSizes[frequencyIndex[bin - 1]] < windowSizes[idfreq]) {
+                frequencyIndex[bin] = frequencyIndex[bin - 1];
+                bin--;
+            }
+            frequencyIndex[bin] = idfreq;
+        }
+        boolean sameWindowSize = true;
+        for(int bin = 0; bin < binCount; bin++) {
+            final int idfreq = frequencyIndex[bin];
+            if(windowSizes[idfreq] < 2 || windowSizes[idfreq] > wordLength) {
+                throw new IllegalArgumentException("Window size must be in [2, wordLength]");
+            }
+            // Windows are centered on the word, a smaller window is always included in a larger one
+            windowSize[bin] = windowSizes[idfreq];
+            windowStart[bin] = wordLength / 2 - windowSize[bin] / 2;
+            windowEnd[bin] = windowStart[bin] + windowSize[bin];
+            final double pikTerm = QRTone.M2PI * frequencies[idfreq] / sampleRate;
+            cosPikTerm2[bin] = 2 * Math.cos(pikTerm);
+            cosPikTerm[bin] = Math.cos(pikTerm);
+            sinPikTerm[bin] = Math.sin(pikTerm);
+            sameWindowSize &= windowSize[bin] == windowSize[0];
+        }
+        if(sameWindowSize && binCount > 0) {
+            sharedHannWindow = new double[windowSize[0]];
+            for(int i = 0; i < sharedHannWindow.length; i++) {
+                sharedHannWindow[i] = 0.5 - 0.5 * Math.cos((QRTone.M2PI * i) / (windowSize[0] - 1));
+            }
+            hannWeights = null;
+        } else {
+            sharedHannWindow = null;
+            hannWeights = new float[windowSize[0] * binCount];
+            for(int bin = 0; bin < binCount; bin++) {
+                final int shift = windowStart[bin] - windowStart[0];
+                for(int i = 0; i < windowSize[bin]; i++) {
+                    hannWeights[(i + shift) * binCount + bin] =
+                            (float)(0.5 - 0.5 * Math.cos((QRTone.M2PI * i) / (windowSize[bin] - 1)));
+                }
+            }
+        }
+        reset();
+    }
+
+    private GoertzelBank(GoertzelBank other) {
+        frequencyIndex = other.frequencyIndex;
+        windowStart = other.windowStart;
+        windowEnd = other.windowEnd;
+        windowSize = other.windowSize;
+        cosPikTerm2 = other.cosPikTerm2;
+        cosPikTerm = other.cosPikTerm;
+        sinPikTerm = other.sinPikTerm;
+        sharedHannWindow = other.sharedHannWindow;
+        hannWeights = other.hannWeights;
+        s1 = new double[other.s1.length];
+        s2 = new double[other.s2.length];
+    }
+
+    @Override
+    public GoertzelBank duplicate() {
+        return new GoertzelBank(this);
+    }
+
+    @Override
+    public void processSamples(float[] samples, int from, int to, int wordCursor) {
+        final int wordCursorEnd = wordCursor + to - from;
+        int cursor = wordCursor;
+        while(cursor < wordCursorEnd) {
+            // Find the number of bins analysing this sample and the next sample where this number changes
+            int activeBins = 0;
+            int segmentEnd = wordCursorEnd;
+            for(int bin = 0; bin < windowStart.length; bin++) {
+                if(windowStart[bin] > cursor) {
+                    segmentEnd = Math.min(segmentEnd, windowStart[bin]);
+                } else if(windowEnd[bin] > cursor) {
+                    segmentEnd = Math.min(segmentEnd, windowEnd[bin]);
+                    activeBins = bin + 1;
+                }
+            }
+            final int offset = from - wordCursor;
+            if(activeBins > 0) {
+                if(sharedHannWindow != null) {
+                    processSharedWindow(samples, cursor + offset, segmentEnd + offset,
+                            cursor - windowStart[0], activeBins);
+                } else {
+                    processWindows(samples, cursor + offset, segmentEnd + offset, cursor - windowStart[0], activeBins);
+                }
+            }
+            cursor = segmentEnd;
+        }
+    }
+
+    @Override
+    public void processSamples(short[] samples, int from, int to, int wordCursor) {
+        for(int cursor = from; cursor < to; cursor += CONVERSION_BUFFER_LENGTH) {
+            final int length = Math.min(CONVERSION_BUFFER_LENGTH, to - cursor);
+            for(int i = 0; i < length; i++) {
+                conversionBuffer[i] = samples[cursor + i] / FixedPoint.PCM_SCALE;
+            }
+            processSamples(conversionBuffer, 0, length, wordCursor + cursor - from);
+        }
+    }
+
+    private void processSharedWindow(float[] samples, int from, int to, int windowCursor, int activeBins) {
+        for(int i = from; i < to; i++) {
+            final double sample = samples[i] * sharedHannWindow[windowCursor++];
+            for(int bin = 0; bin < activeBins; bin++) {
+                final double s0 = sample + cosPikTerm2[bin] * s1[bin] - s2[bin];
+                s2[bin] = s1[bin];
+                s1[bin] = s0;
+            }
+        }
+    }
+
+    private void processWindows(float[] samples, int from, int to, int windowCursor, int activeBins) {
+        int weightIndex = windowCursor * s1.length;
+        for(int i = from; i < to; i++) {
+            final double sample = samples[i];
+            for(int bin = 0; bin < activeBins; bin++) {
+                final double s0 = sample * hannWeights[weightIndex + bin] + cosPikTerm2[bin] * s1[bin] - s2[bin];
+                s2[bin] = s1[bin];
+                s1[bin] = s0;
+            }
+            weightIndex += s1.length;
+        }
+    }
+
+    @Override
+    public void computeSpl(double[] spl) {
+        for(int bin = 0; bin < s1.length; bin++) {
+            // The last sample of the Hann window is zero, y = s[N-1] - e^(-i*w) s[N-2]
+            final double yr = s1[bin] - cosPikTerm[bin] * s2[bin];
+            final double yi = sinPikTerm[bin] * s2[bin];
+            spl[frequencyIndex[bin]] = 20 * Math.log10(Math.sqrt((yr * yr + yi * yi) * 2) / windowSize[bin]);
+        }
+        reset();
+    }
+
+    @Override
+    public void reset() {
+        for(int bin = 0; bin < s1.length; bin++) {
+            s1[bin] = 0;
+            s2[bin] = 0;
+        }
+    }
+}
@@ -21,17 +21,44 @@ public class Header {
         }
         payloadSymbolsSize = blockSymbolsSize - blockECCSymbols;
         payloadByteSize = payloadSymbolsSize / 2;
-        numberOfBlocks = (int)Math.ceil(((length + crcLength) * 2) / (double)payloadSymbolsSize);
-        numberOfSymbols = numberOfBlocks * blockECCSymbols + ( length + crcLength) * 2;
+        numberOfBlocks = getNumberOfBlocks(length + crcLength, payloadSymbolsSize);
+        numberOfSymbols = getNumberOfSymbols(length, blockSymbolsSize, blockECCSymbols, crc);
         this.crc = crc;
     }
 
+    static int getNumberOfBlocks(int length, int payloadSymbolsSize) {
+        return (int)Math.ceil((length * 2) / (double)payloadSymbolsSize);
+    }
+
+    /**
+     * @param length Payload length in bytes
+     * @param blockSymbolsSize Number of symbols of a block
+     * @param blockECCSymbols Number of parity symbols of a block
+     * @param crc Payload is followed by a CRC16
+     * @return Number of symbols of the encoded payload
+     */
+    static int getNumberOfSymbols(int length, int blockSymbolsSize, int blockECCSymbols, boolean crc) {
+        final int crcLength = crc ? QRTone.CRC_BYTE_LENGTH : 0;
+        return getNumberOfBlocks(length + crcLength, blockSymbolsSize - blockECCSymbols) * blockECCSymbols + (length + crcLength) * 2;
+    }
+
     public byte[] encodeHeader() {
+        byte[] header = new byte[QRTone.HEADER_SIZE];
+        encodeHeader(length, eccLevel, crc, header);
+        return header;
+    }
+
+    /**
+     * Generate header bytes
+     * @param length Payload length in bytes
+     * @param eccLevel Payload error correction level
+     * @param crc Payload is followed by a CRC16
+     * @param header Receive the {@link QRTone#HEADER_SIZE} header bytes
+     */
+    static void encodeHeader(int length, Configuration.ECC_LEVEL eccLevel, boolean crc, byte[] header) {
         if(length > QRTone.MAX_PAYLOAD_LENGTH) {
             throw new IllegalArgumentException(String.format("Payload length cannot be superior than %d bytes", QRTone.MAX_PAYLOAD_LENGTH));
         }
-        // Generate header
-        byte[] header = new byte[QRTone.HEADER_SIZE];
         // Payload length
         header[0] = (byte)(length & 0xFF);
         // ECC level
@@ -41,7 +68,6 @@ public class Header {
             header[1] = (byte) (header[1] | 0x01 << 3);
         }
         header[2] = QRTone.crc8(header, 0, QRTone.HEADER_SIZE - 1);
-        return header;
     }
 
     public static Header decodeHeader(byte[] data) {
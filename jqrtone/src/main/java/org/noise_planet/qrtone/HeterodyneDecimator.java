@@ -0,0 +1,221 @@
+/*
+ * BSD 3-Clause License
+ *
+ * Copyright (c) Unité Mixte de Recherche en Acoustique Environnementale (univ-gustave-eiffel)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+
+package org.noise_planet.qrtone;
+
+/**
+ * Move the band of the tone frequencies around a quarter of a lower sampling rate.
+ *
+ * The samples are multiplied by a complex oscillator at the center of the band, the in-phase and quadrature
+ * channels are low-pass filtered and decimated by a cascaded integrator-comb (CIC) filter, then the complex signal
+ * is shifted back to a real signal centered on a quarter of the decimated sampling rate. Unlike a real mixer, the
+ * frequencies below the oscillator do not fold into the band.
+ *
+ * A tone of frequency f is found at f + {@link #getFrequencyShift()} and its level is multiplied by
+ * {@link #getGain(double)}. The CIC integrators use 64 bits integers that can wrap around without error.
+ */
+final class HeterodyneDecimator {
+    static final int ORDER = 4;
+    // The band must be within +-MAXIMUM_BAND_RATIO * outputSampleRate around the oscillator frequency, the CIC
+    // filter attenuates this edge by 2.3 dB and the aliases of the band by more than 50 dB
+    static final double MAXIMUM_BAND_RATIO = 0.2;
+    private static final int OSCILLATOR_TABLE_LENGTH = 4096;
+    private static final float[] COSINE = new float[OSCILLATOR_TABLE_LENGTH];
+    private static final float[] SINE = new float[OSCILLATOR_TABLE_LENGTH];
+    // Fixed point scale of the CIC inputs
+    private static final double INPUT_SCALE = 1 << 24;
+
+    static {
+        for(int i = 0; i < OSCILLATOR_TABLE_LENGTH; i++) {
+            COSINE[i] = (float)Math.cos(QRTone.M2PI * i / OSCILLATOR_TABLE_LENGTH);
+            SINE[i] = (float)Math.sin(QRTone.M2PI * i / OSCILLATOR_TABLE_LENGTH);
+        }
+    }
+
+    private final double sampleRate;
+    private final int factor;
+    private final double oscillatorFrequency;
+    private final int oscillatorStep;
+    // The complex channels are added and scaled back to the input level
+    private final double outputScale;
+    private final long[] integratorI = new long[ORDER];
+    private final long[] integratorQ = new long[ORDER];
+    private final long[] combI = new long[ORDER];
+    private final long[] combQ = new long[ORDER];
+    private int oscillatorPhase = 0;
+    private int decimationPhase = 0;
+    private int outputPhase = 0;
+
+    /**
+     * @param sampleRate Input sampling rate in Hz
+     * @param factor Decimation factor
+     * @param lowFrequency Lowest frequency of the band in Hz
+     * @param highFrequency Highest frequency of the band in Hz
+     */
+    HeterodyneDecimator(double sampleRate, int factor, double lowFrequency, double highFrequency) {
+        if(factor < 2) {
+            throw new IllegalArgumentException("Decimation factor must be greater than 1");
+        }
+        this.sampleRate = sampleRate;
+        this.factor = factor;
+        oscillatorStep = (int)Math.round((lowFrequency + highFrequency) / 2 / sampleRate * OSCILLATOR_TABLE_LENGTH);
+        oscillatorFrequency = oscillatorStep * sampleRate / OSCILLATOR_TABLE_LENGTH;
+        final double maximumDeviation = MAXIMUM_BAND_RATIO * getOutputSampleRate();
+        if(highFrequency - oscillatorFrequency > maximumDeviation ||
+                oscillatorFrequency - lowFrequency > maximumDeviation) {
+            throw new IllegalArgumentException("Band [" + lowFrequency + " Hz, " + highFrequency + " Hz] is too " +
+                    "large for a decimation by " + factor + " of " + sampleRate + " Hz");
+        }
+        outputScale = 2 / (INPUT_SCALE * Math.pow(factor, ORDER));
+    }
+
+    int getFactor() {
+        return factor;
+    }
+
+    double getOutputSampleRate() {
+        return sampleRate / factor;
+    }
+
+    /**
+     * @return Frequency to add to an input frequency to get the output frequency, in Hz
+     */
+    double getFrequencyShift() {
+        return getOutputSampleRate() / 4 - oscillatorFrequency;
+    }
+
+    /**
+     * @param frequency Input frequency in Hz
+     * @return Amplitude gain of the CIC filter for this frequency
+     */
+    double getGain(double frequency) {
+        final double x = Math.PI * (frequency - oscillatorFrequency) / sampleRate;
+        if(Math.abs(x) < 1e-12) {
+            return 1;
+        }
+        return Math.pow(Math.abs(Math.sin(x * factor) / (factor * Math.sin(x))), ORDER);
+    }
+
+    /**
+     * @param outputIndex Index of an output sample
+     * @return Index of the input sample at the center of the impulse response of this output sample
+     */
+    long toInputIndex(long outputIndex) {
+        return outputIndex * factor + (factor - 1) - (ORDER * (factor - 1)) / 2;
+    }
+
+    /**
+     * @param samples Input samples
+     * @param from First sample index
+     * @param to Excluded last sample index
+     * @param output Receive the decimated samples, must hold at least (to - from) / factor + 1 samples
+     * @return Number of decimated samples written in output
+     */
+    int process(float[] samples, int from, int to, float[] output) {
+        int written = 0;
+        for(int i = from; i < to; i++) {
+            written = push(samples[i] * INPUT_SCALE, output, written);
+        }
+        return written;
+    }
+
+    /**
+     * @param samples Input samples, 16 bits PCM
+     * @param from First sample index
+     * @param to Excluded last sample index
+     * @param output Receive the decimated samples, must hold at least (to - from) / factor + 1 samples
+     * @return Number of decimated samples written in output
+     */
+    int process(short[] samples, int from, int to, float[] output) {
+        final double scale = INPUT_SCALE / FixedPoint.PCM_SCALE;
+        int written = 0;
+        for(int i = from; i < to; i++) {
+            written = push(samples[i] * scale, output, written);
+        }
+        return written;
+    }
+
+    private int push(double sample, float[] output, int written) {
+        long inputI = (long)(sample * COSINE[oscillatorPhase]);
+        long inputQ = -(long)(sample * SINE[oscillatorPhase]);
+        oscillatorPhase = (oscillatorPhase + oscillatorStep) & (OSCILLATOR_TABLE_LENGTH - 1);
+        for(int stage = 0; stage < ORDER; stage++) {
+            inputI = integratorI[stage] += inputI;
+            inputQ = integratorQ[stage] += inputQ;
+        }
+        if(++decimationPhase == factor) {
+            decimationPhase = 0;
+            final double i = comb(inputI, combI) * outputScale;
+            final double q = comb(inputQ, combQ) * outputScale;
+            // Real part of (i + jq) e^(j pi n / 2)
+            switch (outputPhase) {
+                case 0:
+                    output[written] = (float) i;
+                    break;
+                case 1:
+                    output[written] = (float) -q;
+                    break;
+                case 2:
+                    output[written] = (float) -i;
+                    break;
+                default:
+                    output[written] = (float) q;
+            }
+            outputPhase = (outputPhase + 1) & 3;
+            written++;
+        }
+        return written;
+    }
+
+    private static long comb(long value, long[] delay) {
+        for(int stage = 0; stage < ORDER; stage++) {
+            final long previous = delay[stage];
+            delay[stage] = value;
+            value -= previous;
+        }
+        return value;
+    }
+
+    void reset() {
+        for(int stage = 0; stage < ORDER; stage++) {
+            integratorI[stage] = 0;
+            integratorQ[stage] = 0;
+            combI[stage] = 0;
+            combQ[stage] = 0;
+        }
+        oscillatorPhase = 0;
+        decimationPhase = 0;
+        outputPhase = 0;
+    }
+}
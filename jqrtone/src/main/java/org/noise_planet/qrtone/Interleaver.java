@@ -0,0 +1,162 @@
+/*
+ * BSD 3-Clause License
+ *
+ * Copyright (c) Unité Mixte de Recherche en Acoustique Environnementale (univ-gustave-eiffel)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package org.noise_planet.qrtone;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Permutation of the symbols of a message. The symbols of a block are spread over the message, so a burst of
+ * errors is shared between the blocks. Permutation tables are cached per message length and block size, and
+ * applied in place by following the cycles of the permutation.
+ */
+final class Interleaver {
+    // Longest message, the maximum payload with CRC at the highest error correction level
+    static final int MAXIMUM_CACHED_LENGTH = Header.getNumberOfSymbols(QRTone.MAX_PAYLOAD_LENGTH,
+            Configuration.getTotalSymbolsForEcc(Configuration.ECC_LEVEL.ECC_H),
+            Configuration.getEccSymbolsForEcc(Configuration.ECC_LEVEL.ECC_H), true);
+    // Cached permutations indexed by block size then length, lookups must not allocate
+    private static final AtomicReferenceArray<AtomicReferenceArray<Interleaver>> CACHE =
+            new AtomicReferenceArray<AtomicReferenceArray<Interleaver>>(ReedSolomonGF16.MAXIMUM_CODE_WORD_LENGTH + 1);
+    // Index in block order of each transmitted symbol
+    private final int[] blockIndex;
+    // First index of each cycle of the permutation, fixed points excluded
+    private final int[] cycles;
+
+    private Interleaver(int length, int blockSize) {
+        blockIndex = new int[length];
+        int insertionCursor = 0;
+        for(int j = 0; j < blockSize; j++) {
+            for(int cursor = j; cursor < length; cursor += blockSize) {
+                blockIndex[insertionCursor++] = cursor;
+            }
+        }
+        boolean[] visited = new boolean[length];
+        int[] cycleStarts = new int[length];
+        int cycleCount = 0;
+        for(int i = 0; i < length; i++) {
+            if(!visited[i] && blockIndex[i] != i) {
+                cycleStarts[cycleCount++] = i;
+                for(int k = i; !visited[k]; k = blockIndex[k]) {
+                    visited[k] = true;
+                }
+            }
+        }
+        cycles = new int[cycleCount];
+        System.arraycopy(cycleStarts, 0, cycles, 0, cycleCount);
+    }
+
+    /**
+     * @param length Number of symbols of the message
+     * @param blockSize Number of symbols of a block
+     * @return Shared permutation
+     */
+    static Interleaver getInterleaver(int length, int blockSize) {
+        if(blockSize <= 0 || blockSize >= CACHE.length() || length > MAXIMUM_CACHED_LENGTH) {
+            return new Interleaver(length, blockSize);
+        }
+        AtomicReferenceArray<Interleaver> interleavers = CACHE.get(blockSize);
+        if(interleavers == null) {
+            CACHE.compareAndSet(blockSize, null, new AtomicReferenceArray<Interleaver>(MAXIMUM_CACHED_LENGTH + 1));
+            interleavers = CACHE.get(blockSize);
+        }
+        Interleaver interleaver = interleavers.get(length);
+        if(interleaver == null) {
+            interleavers.compareAndSet(length, null, new Interleaver(length, blockSize));
+            interleaver = interleavers.get(length);
+        }
+        return interleaver;
+    }
+
+    int getLength() {
+        return blockIndex.length;
+    }
+
+    /**
+     * @param transmittedIndex Position of the symbol in the message
+     * @return Position of the symbol in block order
+     */
+    int getBlockIndex(int transmittedIndex) {
+        return blockIndex[transmittedIndex];
+    }
+
+    /**
+     * Move symbols in block order to their transmitted position
+     * @param data Symbols
+     */
+    void interleave(byte[] data) {
+        for(int start : cycles) {
+            final byte first = data[start];
+            int k = start;
+            for(int next = blockIndex[k]; next != start; next = blockIndex[k]) {
+                data[k] = data[next];
+                k = next;
+            }
+            data[k] = first;
+        }
+    }
+
+    /**
+     * Move transmitted symbols to their position in block order
+     * @param data Symbols
+     */
+    void deinterleave(byte[] data) {
+        for(int start : cycles) {
+            byte carried = data[start];
+            int k = start;
+            do {
+                k = blockIndex[k];
+                final byte moved = data[k];
+                data[k] = carried;
+                carried = moved;
+            } while (k != start);
+        }
+    }
+
+    /**
+     * Move values of transmitted symbols to their position in block order
+     * @param data Symbols values
+     */
+    void deinterleave(float[] data) {
+        for(int start : cycles) {
+            float carried = data[start];
+            int k = start;
+            do {
+                k = blockIndex[k];
+                final float moved = data[k];
+                data[k] = carried;
+                carried = moved;
+            } while (k != start);
+        }
+    }
+}
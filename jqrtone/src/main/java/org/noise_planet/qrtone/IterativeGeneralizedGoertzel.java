@@ -52,6 +52,11 @@ public class IterativeGeneralizedGoertzel {
     private double s2 = 0.;
     private double cosPikTerm2;
     private double pikTerm;
+    // e^(-i*pikTerm) and e^(-i*pikTerm*(windowSize-1))
+    private final double cosPikTerm;
+    private final double sinPikTerm;
+    private final double cosPikTermEnd;
+    private final double sinPikTermEnd;
     private float lastSample = 0;
     private double sampleRate;
     private int windowSize;
@@ -71,6 +76,10 @@ public class IterativeGeneralizedGoertzel {
         double samplingRateFactor = windowSize / sampleRate;
         pikTerm = M2PI * (frequency * samplingRateFactor) / windowSize;
         cosPikTerm2 = Math.cos(pikTerm) * 2.0;
+        cosPikTerm = Math.cos(pikTerm);
+        sinPikTerm = Math.sin(pikTerm);
+        cosPikTermEnd = Math.cos(pikTerm * (windowSize - 1.));
+        sinPikTermEnd = Math.sin(pikTerm * (windowSize - 1.));
         if(hannWindow) {
             hannWindowCache = new float[windowSize / 2 + 1];
             for(int i=0; i < hannWindowCache.length; i++) {
@@ -129,29 +138,40 @@ public class IterativeGeneralizedGoertzel {
         return this;
     }
     public GoertzelResult computeRMS(boolean computePhase) {
+        double[] result = new double[2];
+        computeRMS(computePhase, result);
+        return new GoertzelResult(result[0], result[1]);
+    }
+
+    /**
+     * Compute the RMS without allocation, then reset the state for the next window
+     * @param computePhase If false the phase is set to 0
+     * @param result Array of length 2 that receives the rms at index 0 and the phase at index 1
+     */
+    public void computeRMS(boolean computePhase, double[] result) {
         if(processedSamples != windowSize) {
             throw new IllegalStateException("Not enough processed samples");
         }
-        final Complex cc = new Complex(pikTerm, 0).exp();
-
         // final computations
         s0 = lastSample + cosPikTerm2 * s1 - s2;
 
         // complex multiplication substituting the last iteration
-        // and correcting the phase for (potentially) non - integer valued
-        // frequencies at the same time
-        Complex parta = new Complex(s0, 0).sub(new Complex(s1, 0).mul(cc));
-        Complex partb = new Complex(pikTerm * (windowSize - 1.), 0).exp();
-        Complex y = parta.mul(partb);
+        // (s0 - s1 * e^(-i*pikTerm))
+        final double partaR = s0 - s1 * cosPikTerm;
+        final double partaI = s1 * sinPikTerm;
 
-        double rms = Math.sqrt((y.r * y.r  + y.i * y.i) * 2) / windowSize;
+        // e^(-i*pikTerm*(windowSize-1)) is of unit modulus, it only corrects the phase for
+        // (potentially) non - integer valued frequencies
+        result[0] = Math.sqrt((partaR * partaR + partaI * partaI) * 2) / windowSize;
 
-        double phase = 0;
         if(computePhase) {
-            phase = Math.atan2(y.i, y.r);
+            final double yR = partaR * cosPikTermEnd + partaI * sinPikTermEnd;
+            final double yI = partaI * cosPikTermEnd - partaR * sinPikTermEnd;
+            result[1] = Math.atan2(yI, yR);
+        } else {
+            result[1] = 0;
         }
         reset();
-        return new GoertzelResult(rms, phase);
     }
 
     public static class GoertzelResult {
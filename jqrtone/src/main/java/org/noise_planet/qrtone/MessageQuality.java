@@ -0,0 +1,241 @@
+/*
+ * BSD 3-Clause License
+ *
+ * Copyright (c) Unité Mixte de Recherche en Acoustique Environnementale (univ-gustave-eiffel)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+
+package org.noise_planet.qrtone;
+
+/**
+ * Signal quality of a decoded or dropped message, see {@link QRTone#getMessageQuality()}.
+ * Symbols are in block order: the payload symbols of each block are followed by its parity symbols. If the header
+ * can't be decoded the report contains the header symbols, otherwise it contains the payload symbols.
+ * Arrays are allocated for the longest message, the report is filled without allocation.
+ */
+public class MessageQuality {
+    /**
+     * Floor in dB of the symbol levels and of the noise level, a silent word or a digital silence is reported at this
+     * level instead of -Infinity so the mean and the minimum signal to noise ratio stay finite. It is below the
+     * quantization noise of 24 bits PCM samples
+     */
+    public static final double MINIMUM_LEVEL = -150;
+    private static final int MAXIMUM_SYMBOLS;
+    private static final int MAXIMUM_BLOCKS;
+    static {
+        int maximumSymbols = QRTone.HEADER_SYMBOLS;
+        int maximumBlocks = 1;
+        for(Configuration.ECC_LEVEL eccLevel : Configuration.ECC_LEVEL.values()) {
+            final int blockSymbolsSize = Configuration.getTotalSymbolsForEcc(eccLevel);
+            final int symbols = Header.getNumberOfSymbols(QRTone.MAX_PAYLOAD_LENGTH, blockSymbolsSize,
+                    Configuration.getEccSymbolsForEcc(eccLevel), true);
+            maximumSymbols = Math.max(maximumSymbols, symbols);
+            maximumBlocks = Math.max(maximumBlocks, (symbols + blockSymbolsSize - 1) / blockSymbolsSize);
+        }
+        MAXIMUM_SYMBOLS = maximumSymbols;
+        MAXIMUM_BLOCKS = maximumBlocks;
+    }
+    final float[] symbolMargins = new float[MAXIMUM_SYMBOLS];
+    final float[] symbolLevels = new float[MAXIMUM_SYMBOLS];
+    final int[] blockErrors = new int[MAXIMUM_BLOCKS];
+    int symbolCount = 0;
+    int blockCount = 0;
+    boolean headerDecoded = false;
+    boolean decoded = false;
+    Configuration.ECC_LEVEL eccLevel = null;
+    double noiseLevel = 0;
+    long sampleIndex = -1;
+    long timingOffset = 0;
+
+    public MessageQuality() {
+    }
+
+    public MessageQuality(MessageQuality other) {
+        set(other);
+    }
+
+    /**
+     * Copy another report, without allocation
+     * @param other Source report
+     */
+    public void set(MessageQuality other) {
+        System.arraycopy(other.symbolMargins, 0, symbolMargins, 0, other.symbolCount);
+        System.arraycopy(other.symbolLevels, 0, symbolLevels, 0, other.symbolCount);
+        System.arraycopy(other.blockErrors, 0, blockErrors, 0, other.blockCount);
+        symbolCount = other.symbolCount;
+        blockCount = other.blockCount;
+        headerDecoded = other.headerDecoded;
+        decoded = other.decoded;
+        eccLevel = other.eccLevel;
+        noiseLevel = other.noiseLevel;
+        sampleIndex = other.sampleIndex;
+        timingOffset = other.timingOffset;
+    }
+
+    /**
+     * @return True if the header has been decoded, the report contains the payload symbols
+     */
+    public boolean isHeaderDecoded() {
+        return headerDecoded;
+    }
+
+    /**
+     * @return True if the payload has been decoded
+     */
+    public boolean isDecoded() {
+        return decoded;
+    }
+
+    /**
+     * @return Error correction level of the payload, null if the header can't be decoded
+     */
+    public Configuration.ECC_LEVEL getEccLevel() {
+        return eccLevel;
+    }
+
+    public int getSymbolCount() {
+        return symbolCount;
+    }
+
+    /**
+     * @param symbolIndex Symbol index in block order
+     * @return Difference in dB between the best and the second best tone of the symbol
+     */
+    public float getSymbolMargin(int symbolIndex) {
+        checkSymbolIndex(symbolIndex);
+        return symbolMargins[symbolIndex];
+    }
+
+    /**
+     * @param symbolIndex Symbol index in block order
+     * @return Level in dB of the best tone of the symbol, not lower than {@link #MINIMUM_LEVEL}
+     */
+    public float getSymbolLevel(int symbolIndex) {
+        checkSymbolIndex(symbolIndex);
+        return symbolLevels[symbolIndex];
+    }
+
+    /**
+     * @param symbolIndex Symbol index in block order
+     * @return Difference in dB between the level of the best tone of the symbol and the background noise
+     */
+    public double getSymbolSnr(int symbolIndex) {
+        return getSymbolLevel(symbolIndex) - noiseLevel;
+    }
+
+    private void checkSymbolIndex(int symbolIndex) {
+        if(symbolIndex < 0 || symbolIndex >= symbolCount) {
+            throw new IndexOutOfBoundsException("Symbol " + symbolIndex + " of " + symbolCount);
+        }
+    }
+
+    /**
+     * @return Lowest difference in dB between the best and the second best tone of a symbol
+     */
+    public double getMinimumMargin() {
+        double minimum = Double.POSITIVE_INFINITY;
+        for(int i = 0; i < symbolCount; i++) {
+            minimum = Math.min(minimum, symbolMargins[i]);
+        }
+        return minimum;
+    }
+
+    public double getMeanMargin() {
+        double sum = 0;
+        for(int i = 0; i < symbolCount; i++) {
+            sum += symbolMargins[i];
+        }
+        return symbolCount == 0 ? 0 : sum / symbolCount;
+    }
+
+    /**
+     * @return Lowest signal to noise ratio of a symbol in dB
+     */
+    public double getMinimumSnr() {
+        double minimum = Double.POSITIVE_INFINITY;
+        for(int i = 0; i < symbolCount; i++) {
+            minimum = Math.min(minimum, symbolLevels[i]);
+        }
+        return minimum - noiseLevel;
+    }
+
+    /**
+     * @return Mean signal to noise ratio of the symbols in dB
+     */
+    public double getMeanSnr() {
+        double sum = 0;
+        for(int i = 0; i < symbolCount; i++) {
+            sum += symbolLevels[i];
+        }
+        return symbolCount == 0 ? 0 : sum / symbolCount - noiseLevel;
+    }
+
+    /**
+     * @return Background noise level in dB evaluated by the trigger analyzer when the message has been found, not
+     * lower than {@link #MINIMUM_LEVEL}
+     */
+    public double getNoiseLevel() {
+        return noiseLevel;
+    }
+
+    /**
+     * @return Number of Reed-Solomon blocks
+     */
+    public int getBlockCount() {
+        return blockCount;
+    }
+
+    /**
+     * @param blockIndex Block index
+     * @return Number of symbols fixed in the block, {@link ReedSolomonGF16#DECODE_FAILED} if the block can't be
+     * corrected. The blocks following a failed block are not evaluated and report 0
+     */
+    public int getBlockErrors(int blockIndex) {
+        if(blockIndex < 0 || blockIndex >= blockCount) {
+            throw new IndexOutOfBoundsException("Block " + blockIndex + " of " + blockCount);
+        }
+        return blockErrors[blockIndex];
+    }
+
+    /**
+     * @return Location of the first sample of the message, in received samples
+     */
+    public long getSampleIndex() {
+        return sampleIndex;
+    }
+
+    /**
+     * @return Correction in received samples applied by the trigger analyzer to the analysis window grid to locate
+     * the first tone, from the interpolation of the peak level of the gate tone
+     */
+    public long getTimingOffset() {
+        return timingOffset;
+    }
+}
@@ -33,6 +33,7 @@
 package org.noise_planet.qrtone;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
@@ -49,22 +50,61 @@ public class PeakFinder {
     private double oldVal = Double.NEGATIVE_INFINITY;
     private long oldIndex = 0;
     boolean added = false;
+    private boolean hasLastPeak = false;
+    private long lastPeakIndex = 0;
+    private double lastPeakValue = 0;
     private Element lastPeak = null;
     private int increaseCount = 0;
     private int decreaseCount = 0;
     private int minIncreaseCount = -1;
     private int minDecreaseCount = -1;
 
+    /**
+     * @return Last found peak, or null if there is none. The element is created only on the first call following
+     * a new peak.
+     */
     public Element getLastPeak() {
+        if(!hasLastPeak) {
+            return null;
+        }
+        if(lastPeak == null) {
+            lastPeak = new Element(lastPeakIndex, lastPeakValue);
+        }
         return lastPeak;
     }
 
+    /**
+     * @return Index of the last found peak, only valid if {@link #add(long, double)} returned true
+     */
+    public long getLastPeakIndex() {
+        return lastPeakIndex;
+    }
+
+    /**
+     * @return Value of the last found peak, only valid if {@link #add(long, double)} returned true
+     */
+    public double getLastPeakValue() {
+        return lastPeakValue;
+    }
+
+    private void setLastPeak(long index, double value) {
+        hasLastPeak = true;
+        lastPeakIndex = index;
+        lastPeakValue = value;
+        lastPeak = null;
+    }
+
+    private void clearLastPeak() {
+        hasLastPeak = false;
+        lastPeak = null;
+    }
+
     public void reset() {
         increase = true;
         oldVal = Double.MIN_VALUE;
         oldIndex = 0;
         added = false;
-        lastPeak = null;
+        clearLastPeak();
         increaseCount = 0;
         decreaseCount = 0;
         minIncreaseCount = -1;
@@ -99,13 +139,18 @@ public class PeakFinder {
         this.minDecreaseCount = minDecreaseCount;
     }
 
-    public boolean add(Long index, double value) {
+    /**
+     * @param index Value index
+     * @param value Value
+     * @return True if a peak has been found, see {@link #getLastPeakIndex()} and {@link #getLastPeakValue()}
+     */
+    public boolean add(long index, double value) {
         boolean ret = false;
         double diff = value - oldVal;
         // Detect switch from increase to decrease/stall
         if(diff <= 0 && increase) {
             if(increaseCount >= minIncreaseCount) {
-                lastPeak = new Element(oldIndex, oldVal);
+                setLastPeak(oldIndex, oldVal);
                 added = true;
                 if(minDecreaseCount <= 1 ) {
                     ret = true;
@@ -114,7 +159,7 @@ public class PeakFinder {
         } else if(diff > 0 && !increase) {
             // Detect switch from decreasing to increase
             if(added && minDecreaseCount != -1 && decreaseCount < minDecreaseCount) {
-                lastPeak = null;
+                clearLastPeak();
                 added = false;
             }
         }
@@ -138,27 +183,64 @@ public class PeakFinder {
 
     /**
      * Remove peaks where distance to other peaks are less than provided argument
+     * The highest peaks are kept first, a peak is removed if a kept peak is not farther than minWidth.
+     * Kept peaks are counted by rank of index in a Fenwick tree, the complexity is O(n log n).
      * @param minWidth Minium width in index
      */
     public static List<Element> filter(List<Element> peaks, int minWidth) {
         // Sort peaks by value
         List<Element> sortedPeaks = new ArrayList<>(peaks);
         Collections.sort(sortedPeaks);
-        for(int i = 0; i < sortedPeaks.size(); i++) {
-            Element topPeak = sortedPeaks.get(i);
-            int j = i + 1;
-            while(j < sortedPeaks.size()) {
-                Element otherPeak = sortedPeaks.get(j);
-                if(Math.abs(otherPeak.index - topPeak.index) <= minWidth) {
-                    sortedPeaks.remove(j);
-                } else {
-                    j += 1;
+        final int count = sortedPeaks.size();
+        long[] sortedIndexes = new long[count];
+        for(int i = 0; i < count; i++) {
+            sortedIndexes[i] = sortedPeaks.get(i).index;
+        }
+        Arrays.sort(sortedIndexes);
+        // keptCount[r] is the Fenwick tree of the number of kept peaks for each rank of index
+        int[] keptCount = new int[count + 1];
+        List<Element> keptPeaks = new ArrayList<>();
+        for(Element peak : sortedPeaks) {
+            final int first = lowerBound(sortedIndexes, peak.index - minWidth);
+            final int last = lowerBound(sortedIndexes, peak.index + minWidth + 1);
+            if(prefixSum(keptCount, last) == prefixSum(keptCount, first)) {
+                keptPeaks.add(peak);
+                for(int rank = lowerBound(sortedIndexes, peak.index) + 1; rank <= count; rank += rank & -rank) {
+                    keptCount[rank]++;
                 }
             }
         }
         // Sort peaks by index
-        Collections.sort(sortedPeaks, new ElementSortByIndex());
-        return sortedPeaks;
+        Collections.sort(keptPeaks, new ElementSortByIndex());
+        return keptPeaks;
+    }
+
+    /**
+     * @return Number of kept peaks with a rank of index lower than rank
+     */
+    private static int prefixSum(int[] tree, int rank) {
+        int sum = 0;
+        for(int i = rank; i > 0; i -= i & -i) {
+            sum += tree[i];
+        }
+        return sum;
+    }
+
+    /**
+     * @return Position of the first value not lower than key
+     */
+    private static int lowerBound(long[] sortedValues, long key) {
+        int low = 0;
+        int high = sortedValues.length;
+        while(low < high) {
+            final int middle = (low + high) >>> 1;
+            if(sortedValues[middle] < key) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
     }
 
     /**
@@ -166,20 +248,152 @@ public class PeakFinder {
      * @param minValue Minium peak value
      */
     public static List<Element> filter(List<Element> peaks, double minValue) {
-        // Sort peaks by value
-        List<Element> filteredPeaks = new ArrayList<>(peaks);
-        int j = 0;
-        while(j < filteredPeaks.size()) {
-            Element peak = filteredPeaks.get(j);
-            if(peak.value < minValue) {
-                filteredPeaks.remove(j);
-            } else {
-                j += 1;
+        List<Element> filteredPeaks = new ArrayList<>(peaks.size());
+        for(Element peak : peaks) {
+            if(peak.value >= minValue) {
+                filteredPeaks.add(peak);
             }
         }
         return filteredPeaks;
     }
 
+    /**
+     * Remove the peaks lower than a minimum value and the peaks that are not the highest within a minimum width,
+     * while the peaks are found.
+     *
+     * Peaks must be added by increasing index. A peak is known to be kept once a peak at minWidth or farther has
+     * been added, or after {@link #finish()}. The pending peaks are stored in a deque of decreasing values: a new peak
+     * removes the lower pending peaks in its width. The deque holds at most minWidth + 1 peaks for distinct integer
+     * indexes, if the capacity is exceeded the oldest pending peak is decided early.
+     *
+     * Unlike {@link #filter(List, int)}, a peak removed by a higher peak still removes the lower peaks in its own
+     * width.
+     * Usage: call {@link #next()} until it returns false after each {@link #add(long, double)}.
+     */
+    public static class StreamFilter {
+        private final int minWidth;
+        private final double minValue;
+        private final long[] indexes;
+        private final double[] values;
+        // True if a higher peak is not farther than minWidth
+        private final boolean[] removed;
+        private int head = 0;
+        private int size = 0;
+        private long lastIndex = Long.MIN_VALUE;
+        private boolean finished = false;
+        // The oldest pending peak has been decided early because the deque was full
+        private boolean overflow = false;
+        private long peakIndex;
+        private double peakValue;
+
+        /**
+         * @param minWidth Minimum width in index
+         * @param minValue Minimum peak value
+         * @param capacity Maximum number of pending peaks
+         */
+        public StreamFilter(int minWidth, double minValue, int capacity) {
+            if(capacity < 1) {
+                throw new IllegalArgumentException("Capacity must be strictly positive");
+            }
+            this.minWidth = minWidth;
+            this.minValue = minValue;
+            indexes = new long[capacity];
+            values = new double[capacity];
+            removed = new boolean[capacity];
+        }
+
+        /**
+         * @param minWidth Minimum width in index
+         * @param minValue Minimum peak value
+         */
+        public StreamFilter(int minWidth, double minValue) {
+            this(minWidth, minValue, minWidth + 1);
+        }
+
+        public void reset() {
+            head = 0;
+            size = 0;
+            lastIndex = Long.MIN_VALUE;
+            finished = false;
+            overflow = false;
+        }
+
+        /**
+         * @param index Peak index, greater than the index of the previous peak
+         * @param value Peak value
+         */
+        public void add(long index, double value) {
+            lastIndex = index;
+            if(value < minValue) {
+                return;
+            }
+            // The lower peaks of the width can not remove other peaks that this one would not remove
+            while(size > 0 && values[tail()] < value && index - indexes[tail()] <= minWidth) {
+                size--;
+            }
+            final boolean isRemoved = size > 0 && index - indexes[tail()] <= minWidth;
+            if(size == indexes.length) {
+                // Decide the oldest peak now
+                peakIndex = indexes[head];
+                peakValue = values[head];
+                overflow = !removed[head];
+                head = (head + 1) % indexes.length;
+                size--;
+            }
+            final int position = (head + size) % indexes.length;
+            indexes[position] = index;
+            values[position] = value;
+            removed[position] = isRemoved;
+            size++;
+        }
+
+        private int tail() {
+            return (head + size - 1) % indexes.length;
+        }
+
+        /**
+         * No more peaks will be added, all pending peaks can be decided
+         */
+        public void finish() {
+            finished = true;
+        }
+
+        /**
+         * @return True if a kept peak is available in {@link #getPeakIndex()} and {@link #getPeakValue()}
+         */
+        public boolean next() {
+            if(overflow) {
+                overflow = false;
+                return true;
+            }
+            while(size > 0 && (finished || lastIndex - indexes[head] >= minWidth)) {
+                final boolean kept = !removed[head];
+                peakIndex = indexes[head];
+                peakValue = values[head];
+                head = (head + 1) % indexes.length;
+                size--;
+                if(kept) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * @return Index of the kept peak, only valid if {@link #next()} returned true
+         */
+        public long getPeakIndex() {
+            return peakIndex;
+        }
+
+        /**
+         * @return Value of the kept peak, only valid if {@link #next()} returned true
+         */
+        public double getPeakValue() {
+            return peakValue;
+        }
+    }
+
     public static class Element implements Comparable<Element> {
         public final long index;
         public final double value;
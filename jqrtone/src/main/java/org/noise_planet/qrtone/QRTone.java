@@ -33,11 +33,12 @@
 
 package org.noise_planet.qrtone;
 
-import com.google.zxing.common.reedsolomon.GenericGF;
-import com.google.zxing.common.reedsolomon.ReedSolomonDecoder;
-import com.google.zxing.common.reedsolomon.ReedSolomonEncoder;
 import com.google.zxing.common.reedsolomon.ReedSolomonException;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
 import java.util.Arrays;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
@@ -48,13 +49,21 @@ public class QRTone {
     // Frequency analysis window width is dependent of analyzed frequencies
     // Tone frequency may be not the expected one, so neighbors tone frequency values are accumulated
     public static final double WINDOW_WIDTH = 0.65;
-    private enum STATE {WAITING_TRIGGER, PARSING_SYMBOLS};
     private static final double TUKEY_ALPHA  = 0.5;
     public static final int CRC_BYTE_LENGTH = 2;
-    private STATE qrToneState = STATE.WAITING_TRIGGER;
-    // TODO RFFT should be more efficient
-    private IterativeGeneralizedGoertzel[] frequencyAnalyzers;
-    private long firstToneSampleIndex = -1;
+    // Default number of messages that can be decoded at the same time
+    public static final int DEFAULT_MAXIMUM_CONCURRENT_MESSAGES = 4;
+    // One parser for each message being decoded, all parsers share the spectral tables
+    private final SymbolParser[] symbolParsers;
+    private final double[] toneLevels = new double[NUM_FREQUENCIES];
+    // Conversion of short samples without allocation
+    private static final int CONVERSION_BUFFER_LENGTH = 1024;
+    private final float[] conversionBuffer = new float[CONVERSION_BUFFER_LENGTH];
+    private final short[] pcmConversionBuffer = new short[CONVERSION_BUFFER_LENGTH];
+    // Analyze 16 bits PCM samples, float samples are rounded to 16 bits
+    private final boolean pcmAnalysis;
+    // Location of the last decoded message
+    private long payloadSampleIndex = -1;
     protected static final int MAX_PAYLOAD_LENGTH = 0xFF;
     // Header size in bytes
     final static int HEADER_SIZE = 3;
@@ -65,6 +74,16 @@ public class QRTone {
     final int wordSilenceLength;
     final double gate1Frequency;
     final double gate2Frequency;
+    // Lengths in analyzed samples, shorter than the generated lengths if the received samples are decimated
+    final int analysisWordLength;
+    final int analysisGateLength;
+    final int analysisWordSilenceLength;
+    // Move the tone frequencies to a lower sampling rate, null if the samples are analyzed at the received rate
+    private final HeterodyneDecimator decimator;
+    private final float[] decimationBuffer;
+    private final short[] decimationPcmBuffer;
+    // Added to the level in dB of each tone to compensate the attenuation of the decimation filter
+    private final double[] toneLevelCorrections;
     private Configuration configuration;
     // DTMF 16*16 frequencies
     public final static int NUM_FREQUENCIES = 32;
@@ -74,22 +93,42 @@ public class QRTone {
     private final double[] frequencyLimits;
     final TriggerAnalyzer triggerAnalyzer;
     byte[] symbolsToDeliver;
-    byte[] symbolsCache;
-    Header headerCache;
+    private final byte[] headerBytes = new byte[HEADER_SIZE];
+    // Symbols of the message before interleaving
+    private byte[] encodingBuffer;
+    // Number of analyzed samples
     private long pushedSamples = 0;
-    private int symbolIndex = 0;
+    // Number of received samples
+    private long receivedSamples = 0;
     private byte[] payload;
     private AtomicInteger fixedErrors = new AtomicInteger(0);
+    private final DecoderMetrics metrics = new DecoderMetrics();
+    private boolean pushLatencyHistogram = false;
+    private boolean stageTimers = false;
+    // Quality of the last decoded or dropped message
+    private final MessageQuality messageQuality = new MessageQuality();
+    private QualityCallback qualityCallback = null;
     // Number of samples generated with getSamples function
     int outputSamples = 0;
-    // Hann/Tukey window for samples generation
-    IterativeHann hannWindow;
-    IterativeTukey tukeyWindow;
-    // Sin for samples generation
-    IterativeTone[] iterativeTones = new IterativeTone[NUM_FREQUENCIES];
+    // Windowed tones for samples generation, computed on the first call to getSamples
+    private SymbolWaveforms symbolWaveforms;
 
     public QRTone(Configuration configuration) {
+        this(configuration, DEFAULT_MAXIMUM_CONCURRENT_MESSAGES);
+    }
+
+    /**
+     * @param configuration Configuration
+     * @param maximumConcurrentMessages Number of messages that can be decoded at the same time. The trigger analysis
+     *                                  continue while messages are decoded, a trigger found while this number of
+     *                                  messages is already being decoded is ignored.
+     */
+    public QRTone(Configuration configuration, int maximumConcurrentMessages) {
+        if(maximumConcurrentMessages < 1) {
+            throw new IllegalArgumentException("At least one message must be decoded at a time");
+        }
         this.configuration = configuration;
+        this.pcmAnalysis = configuration.spectralEngine == Configuration.SPECTRAL_ENGINE.FIXED_POINT;
         this.wordLength = (int)(configuration.sampleRate * configuration.wordTime);
         this.gateLength = (int)(configuration.sampleRate * configuration.gateTime);
         this.wordSilenceLength = (int)(configuration.sampleRate * configuration.wordSilenceTime);
@@ -97,29 +136,75 @@ public class QRTone {
         this.frequencyLimits = configuration.computeFrequencies(NUM_FREQUENCIES, WINDOW_WIDTH);
         gate1Frequency = frequencies[FREQUENCY_ROOT ];
         gate2Frequency = frequencies[FREQUENCY_ROOT + 2];
-        triggerAnalyzer = new TriggerAnalyzer(configuration.sampleRate, gateLength,
-                new double[]{gate1Frequency, gate2Frequency}, Configuration.computeMinimumWindowSize(configuration.sampleRate, gate1Frequency, frequencyLimits[FREQUENCY_ROOT]),
-                configuration.triggerSnr);
-        for(int idFreq = 0; idFreq < NUM_FREQUENCIES; idFreq++) {
-            iterativeTones[idFreq] = new IterativeTone(frequencies[idFreq], configuration.sampleRate);
+        final double analysisSampleRate;
+        final double[] analysisFrequencies;
+        final double[] analysisFrequencyLimits;
+        if(configuration.decimationFactor > 1) {
+            // The band includes the frequency deviation accepted around the first and the last tone
+            decimator = new HeterodyneDecimator(configuration.sampleRate, configuration.decimationFactor,
+                    2 * frequencies[0] - frequencyLimits[0], frequencyLimits[NUM_FREQUENCIES - 1]);
+            analysisSampleRate = decimator.getOutputSampleRate();
+            analysisFrequencies = new double[NUM_FREQUENCIES];
+            analysisFrequencyLimits = new double[NUM_FREQUENCIES];
+            toneLevelCorrections = new double[NUM_FREQUENCIES];
+            for(int idfreq = 0; idfreq < NUM_FREQUENCIES; idfreq++) {
+                analysisFrequencies[idfreq] = frequencies[idfreq] + decimator.getFrequencyShift();
+                analysisFrequencyLimits[idfreq] = frequencyLimits[idfreq] + decimator.getFrequencyShift();
+                toneLevelCorrections[idfreq] = -20 * Math.log10(decimator.getGain(frequencies[idfreq]));
+            }
+            decimationBuffer = new float[CONVERSION_BUFFER_LENGTH / configuration.decimationFactor + 1];
+            decimationPcmBuffer = pcmAnalysis ? new short[decimationBuffer.length] : null;
+        } else {
+            decimator = null;
+            analysisSampleRate = configuration.sampleRate;
+            analysisFrequencies = frequencies;
+            analysisFrequencyLimits = frequencyLimits;
+            toneLevelCorrections = null;
+            decimationBuffer = null;
+            decimationPcmBuffer = null;
+        }
+        this.analysisWordLength = (int)(analysisSampleRate * configuration.wordTime);
+        this.analysisGateLength = (int)(analysisSampleRate * configuration.gateTime);
+        this.analysisWordSilenceLength = (int)(analysisSampleRate * configuration.wordSilenceTime);
+        triggerAnalyzer = new TriggerAnalyzer(analysisSampleRate, analysisGateLength,
+                new double[]{analysisFrequencies[FREQUENCY_ROOT], analysisFrequencies[FREQUENCY_ROOT + 2]},
+                Configuration.computeMinimumWindowSize(analysisSampleRate, analysisFrequencies[FREQUENCY_ROOT],
+                        analysisFrequencyLimits[FREQUENCY_ROOT]), configuration.triggerSnr);
+        int[] toneWindowSizes = new int[NUM_FREQUENCIES];
+        int maxToneWindowSize = 0;
+        for(int idfreq = 0; idfreq < NUM_FREQUENCIES; idfreq++) {
+            toneWindowSizes[idfreq] = Math.min(analysisWordLength, Configuration.computeMinimumWindowSize(analysisSampleRate,
+                    analysisFrequencies[idfreq], analysisFrequencyLimits[idfreq]));
+            maxToneWindowSize = Math.max(maxToneWindowSize, toneWindowSizes[idfreq]);
+        }
+        ToneAnalyzer toneAnalyzer;
+        if(configuration.spectralEngine == Configuration.SPECTRAL_ENGINE.RFFT) {
+            toneAnalyzer = new FFTToneAnalyzer(analysisSampleRate, analysisFrequencies, maxToneWindowSize,
+                    analysisWordLength);
+        } else if(configuration.spectralEngine == Configuration.SPECTRAL_ENGINE.FIXED_POINT) {
+            toneAnalyzer = new FixedPointGoertzelBank(analysisSampleRate, analysisFrequencies, toneWindowSizes,
+                    analysisWordLength);
+        } else {
+            toneAnalyzer = new GoertzelBank(analysisSampleRate, analysisFrequencies, toneWindowSizes,
+                    analysisWordLength);
+        }
+        symbolParsers = new SymbolParser[maximumConcurrentMessages];
+        symbolParsers[0] = new SymbolParser(toneAnalyzer);
+        for(int idParser = 1; idParser < symbolParsers.length; idParser++) {
+            symbolParsers[idParser] = new SymbolParser(toneAnalyzer.duplicate());
         }
-        hannWindow = new IterativeHann(gateLength);
-        tukeyWindow = new IterativeTukey(wordLength, TUKEY_ALPHA);
     }
 
     /**
-     * @return The maximum window length to push in order to not loosing a second queued message
+     * {@link #pushSamples(float[])} accept any buffer length, this value is only a hint of the next analysis boundary
+     * @return The maximum window length before the end of the current analysis window
      */
     public int getMaximumWindowLength() {
-        if(qrToneState == STATE.WAITING_TRIGGER) {
-            return triggerAnalyzer.getMaximumWindowLength();
-        } else {
-            return wordLength + (int) (pushedSamples - getToneLocation());
-        }
+        return getProcessingWindowLength() * configuration.decimationFactor;
     }
 
     public long getPushedSamples() {
-        return pushedSamples;
+        return receivedSamples;
     }
 
     public Configuration getConfiguration() {
@@ -141,48 +226,55 @@ public class QRTone {
     }
 
     static byte[] payloadToSymbols(byte[] payload, final int blockSymbolsSize,final int blockECCSymbols, boolean addCRC) {
-        Header header = new Header(payload.length, blockSymbolsSize, blockECCSymbols, addCRC);
-        if(addCRC) {
-            CRC16 crc16 = new CRC16();
-            for(byte b : payload) {
-                crc16.add(b);
-            }
-            payload = Arrays.copyOf(payload, payload.length + CRC_BYTE_LENGTH);
-            final int res = crc16.crc();
-            payload[payload.length - 2] = (byte)(res >>> 8);
-            payload[payload.length - 1] = (byte)(res & 0xFF);
-        }
-        final int payloadSymbolsSize = header.payloadSymbolsSize;
-        final int payloadByteSize = header.payloadByteSize;
-        final int numberOfBlocks = header.numberOfBlocks;
-        final int numberOfSymbols = header.numberOfSymbols;
+        final int numberOfSymbols = Header.getNumberOfSymbols(payload.length, blockSymbolsSize, blockECCSymbols, addCRC);
         byte[] symbols = new byte[numberOfSymbols];
+        payloadToSymbols(payload, blockSymbolsSize, blockECCSymbols, addCRC, new byte[numberOfSymbols], symbols, 0);
+        return symbols;
+    }
+
+    /**
+     * Convert payload into interleaved symbols, without allocation
+     * @param payload Payload bytes
+     * @param blockSymbolsSize Number of symbols of a block
+     * @param blockECCSymbols Number of parity symbols of a block
+     * @param addCRC Append a CRC16 to the payload
+     * @param work Work buffer, at least {@link Header#getNumberOfSymbols(int, int, int, boolean)} long
+     * @param symbols Receive the symbols
+     * @param symbolsOffset Index of the first symbol in symbols
+     */
+    static void payloadToSymbols(byte[] payload, final int blockSymbolsSize, final int blockECCSymbols, boolean addCRC,
+                                 byte[] work, byte[] symbols, int symbolsOffset) {
+        final int payloadSymbolsSize = blockSymbolsSize - blockECCSymbols;
+        final int payloadByteSize = payloadSymbolsSize / 2;
+        final int length = payload.length + (addCRC ? CRC_BYTE_LENGTH : 0);
+        final int numberOfBlocks = Header.getNumberOfBlocks(length, payloadSymbolsSize);
+        final int numberOfSymbols = Header.getNumberOfSymbols(payload.length, blockSymbolsSize, blockECCSymbols, addCRC);
+        final int crc = addCRC ? crc16(payload, 0, payload.length) : 0;
         for(int blockId = 0; blockId < numberOfBlocks; blockId++) {
-            int[] blockSymbols = new int[blockSymbolsSize];
-            int payloadSize = Math.min(payloadByteSize, payload.length - blockId * payloadByteSize);
+            final int blockStart = blockId * blockSymbolsSize;
+            final int payloadSize = Math.min(payloadByteSize, length - blockId * payloadByteSize);
             for (int i = 0; i < payloadSize; i++) {
+                final int byteIndex = i + blockId * payloadByteSize;
+                final int value;
+                if(byteIndex < payload.length) {
+                    value = payload[byteIndex];
+                } else if(byteIndex == payload.length) {
+                    value = crc >>> 8;
+                } else {
+                    value = crc & 0xFF;
+                }
                 // offset most significant bits to the right without keeping sign
-                blockSymbols[i * 2] = (payload[i + blockId * payloadByteSize] >>> 4) & 0x0F;
+                work[blockStart + i * 2] = (byte)((value >>> 4) & 0x0F);
                 // keep only least significant bits for the second hexadecimal symbol
-                blockSymbols[i * 2 + 1] = payload[i + blockId * payloadByteSize] & 0x0F;
+                work[blockStart + i * 2 + 1] = (byte)(value & 0x0F);
             }
-            // Add ECC parity symbols
-            GenericGF gallois = GenericGF.AZTEC_PARAM;
-            ReedSolomonEncoder encoder = new ReedSolomonEncoder(gallois);
-            encoder.encode(blockSymbols, blockECCSymbols);
-            // Copy data to main symbols
-            arraycopy(blockSymbols, 0, symbols, blockId * blockSymbolsSize, payloadSize * 2);
-            // Copy parity to main symbols
-            arraycopy(blockSymbols, payloadSymbolsSize, symbols, blockId * blockSymbolsSize + payloadSize * 2, blockECCSymbols);
+            // Add ECC parity symbols just after the data symbols, the last block is shortened
+            ReedSolomonGF16.encode(work, blockStart, payloadSize * 2, payloadSymbolsSize - payloadSize * 2, blockECCSymbols);
         }
         // Permute symbols
-        interleaveSymbols(symbols, blockSymbolsSize);
-        return symbols;
-    }
-
-    private static void arraycopy(int[] src, int srcPos, byte[] dest, int destPos, int length) {
-        for(int i=0; i < length; i++) {
-            dest[i+destPos] = (byte) src[i+srcPos];
+        final Interleaver interleaver = Interleaver.getInterleaver(numberOfSymbols, blockSymbolsSize);
+        for(int i = 0; i < numberOfSymbols; i++) {
+            symbols[symbolsOffset + i] = work[interleaver.getBlockIndex(i)];
         }
     }
 
@@ -205,33 +297,149 @@ public class QRTone {
         return payload;
     }
 
+    /**
+     * Decode the payload, on failure retry by erasing the symbols having the lowest margin between the best and the
+     * second best tone.
+     * @param symbols Received symbols, deinterleaved in place
+     * @param symbolMargins Difference in dB between the best and the second best tone of each symbol, deinterleaved
+     *                      in place
+     * @param eccLevel Error correction level
+     * @param hasCRC Payload is followed by a CRC16
+     * @param fixedErrors Incremented by the number of fixed symbols
+     * @return Decoded payload
+     * @throws ReedSolomonException If the payload can't be decoded
+     */
+    static byte[] symbolsToPayload(byte[] symbols, float[] symbolMargins, Configuration.ECC_LEVEL eccLevel, boolean hasCRC, AtomicInteger fixedErrors) throws ReedSolomonException {
+        final Interleaver interleaver = Interleaver.getInterleaver(symbols.length, Configuration.getTotalSymbolsForEcc(eccLevel));
+        interleaver.deinterleave(symbols);
+        if(symbolMargins != null) {
+            interleaver.deinterleave(symbolMargins);
+        }
+        return blockSymbolsToPayload(new ReedSolomonGF16(), symbols, symbolMargins, eccLevel, hasCRC, fixedErrors, null, null);
+    }
+
+    /**
+     * Same as {@link #symbolsToPayload(byte[], float[], Configuration.ECC_LEVEL, boolean, AtomicInteger)} with
+     * symbols already in block order
+     * @param metrics Receive the corrections of each block and the cause of a failure. May be null
+     * @param blockErrors Receive the number of fixed symbols of each block of the last attempt, see
+     *                    {@link #decodeSymbols(ReedSolomonGF16, byte[], float[], int, int, boolean, int, AtomicInteger, int[])}.
+     *                    May be null
+     */
+    static byte[] blockSymbolsToPayload(ReedSolomonGF16 reedSolomon, byte[] symbols, float[] symbolMargins, Configuration.ECC_LEVEL eccLevel, boolean hasCRC, AtomicInteger fixedErrors, DecoderMetrics metrics, int[] blockErrors) throws ReedSolomonException {
+        final int blockSymbolsSize = Configuration.getTotalSymbolsForEcc(eccLevel);
+        final int blockECCSymbols = Configuration.getEccSymbolsForEcc(eccLevel);
+        // Without CRC, keep at least one parity symbol to detect a wrong correction
+        int maximumErasures = hasCRC ? blockECCSymbols : blockECCSymbols - 1;
+        if(symbolMargins == null) {
+            maximumErasures = 0;
+        }
+        final int numberOfBlocks = (symbols.length + blockSymbolsSize - 1) / blockSymbolsSize;
+        if(blockErrors == null) {
+            blockErrors = new int[numberOfBlocks];
+        }
+        boolean crcFailed = false;
+        for(int erasures = 0; erasures <= maximumErasures; erasures++) {
+            AtomicInteger attemptFixedErrors = new AtomicInteger(0);
+            byte[] payload = decodeSymbols(reedSolomon, symbols, symbolMargins, blockSymbolsSize, blockECCSymbols,
+                    hasCRC, erasures, attemptFixedErrors, blockErrors);
+            if(payload != null) {
+                if(fixedErrors != null) {
+                    fixedErrors.addAndGet(attemptFixedErrors.get());
+                }
+                if(metrics != null) {
+                    metrics.addBlockCorrections(blockErrors, numberOfBlocks);
+                }
+                return payload;
+            }
+            if(!hasFailedBlock(blockErrors)) {
+                crcFailed = true;
+            }
+        }
+        DecoderEvents.decodeFailed(false, crcFailed);
+        if(metrics != null) {
+            if(crcFailed) {
+                metrics.payloadCrcFailures++;
+            } else {
+                metrics.payloadReedSolomonFailures++;
+            }
+        }
+        throw new ReedSolomonException("Too many errors");
+    }
+
     static byte[] symbolsToPayload(byte[] symbols, int blockSymbolsSize, int blockECCSymbols, boolean hasCRC, AtomicInteger fixedErrors) throws ReedSolomonException {
+        // Cancel permutation of symbols
+        Interleaver.getInterleaver(symbols.length, blockSymbolsSize).deinterleave(symbols);
+        byte[] payload = decodeSymbols(new ReedSolomonGF16(), symbols, null, blockSymbolsSize, blockECCSymbols, hasCRC, 0, fixedErrors, null);
+        if(payload == null) {
+            throw new ReedSolomonException(hasCRC ? "Too many errors or CRC check failed" : "Too many errors");
+        }
+        return payload;
+    }
+
+    /**
+     * @param reedSolomon Reed-Solomon codec
+     * @param symbols Received symbols in block order, left untouched
+     * @param symbolMargins Confidence of each symbol in block order. May be null if erasures is 0
+     * @param blockSymbolsSize Number of symbols of a block
+     * @param blockECCSymbols Number of parity symbols of a block
+     * @param hasCRC Payload is followed by a CRC16
+     * @param erasures Number of symbols with the lowest margin to erase in each block
+     * @param fixedErrors Incremented by the number of fixed symbols
+     * @param blockErrors Receive the number of fixed symbols of each block, or {@link ReedSolomonGF16#DECODE_FAILED}
+     *                    for the block that can't be corrected. May be null
+     * @return Decoded payload or null if there is too many errors or the CRC does not match
+     */
+    static byte[] decodeSymbols(ReedSolomonGF16 reedSolomon, byte[] symbols, float[] symbolMargins, int blockSymbolsSize, int blockECCSymbols, boolean hasCRC, int erasures, AtomicInteger fixedErrors, int[] blockErrors) {
         final int payloadSymbolsSize = blockSymbolsSize - blockECCSymbols;
         final int payloadByteSize = payloadSymbolsSize / 2;
         final int payloadLength = ((symbols.length / blockSymbolsSize) * payloadSymbolsSize + Math.max(0, symbols.length % blockSymbolsSize - blockECCSymbols)) / 2;
         final int numberOfBlocks = (int)Math.ceil(symbols.length / (double)blockSymbolsSize);
 
-        // Cancel permutation of symbols
-        deinterleaveSymbols(symbols, blockSymbolsSize);
+        float[] blockMargins = null;
+        int[] erasedSymbols = null;
+        if(erasures > 0) {
+            blockMargins = new float[blockSymbolsSize];
+            erasedSymbols = new int[erasures];
+        }
         int offset = 0;
         if(hasCRC) {
             offset = -2;
         }
         byte[] payload = new byte[payloadLength + offset];
+        if(blockErrors != null) {
+            Arrays.fill(blockErrors, 0);
+        }
         int[] crcValue = new int[CRC_BYTE_LENGTH];
         int crcIndex = 0;
+        int[] blockSymbols = new int[blockSymbolsSize];
         for(int blockId = 0; blockId < numberOfBlocks; blockId++) {
-            int[] blockSymbols = new int[blockSymbolsSize];
             int payloadSymbolsLength = Math.min(payloadSymbolsSize, symbols.length - blockECCSymbols - blockId * blockSymbolsSize);
             // Copy payload symbols
             arraycopy(symbols, blockId * blockSymbolsSize, blockSymbols, 0, payloadSymbolsLength);
+            // Padding of the last block
+            Arrays.fill(blockSymbols, payloadSymbolsLength, payloadSymbolsSize, 0);
             // Copy parity symbols
             arraycopy(symbols, blockId * blockSymbolsSize + payloadSymbolsLength, blockSymbols, payloadSymbolsSize, blockECCSymbols);
             // Use Reed-Solomon in order to fix correctable errors
             // Fix symbols thanks to ECC parity symbols
-            GenericGF gallois = GenericGF.AZTEC_PARAM;
-            ReedSolomonDecoder decoder = new ReedSolomonDecoder(gallois);
-            int errors = decoder.decode(blockSymbols, blockECCSymbols);
+            int errors;
+            if(erasures > 0) {
+                // Padding symbols of the last block are known, they can't be erased
+                Arrays.fill(blockMargins, Float.POSITIVE_INFINITY);
+                System.arraycopy(symbolMargins, blockId * blockSymbolsSize, blockMargins, 0, payloadSymbolsLength);
+                System.arraycopy(symbolMargins, blockId * blockSymbolsSize + payloadSymbolsLength, blockMargins, payloadSymbolsSize, blockECCSymbols);
+                int erasuresCount = findLowestMargins(blockMargins, erasedSymbols, Math.min(erasures, payloadSymbolsLength + blockECCSymbols));
+                errors = reedSolomon.decode(blockSymbols, blockECCSymbols, erasedSymbols, erasuresCount);
+            } else {
+                errors = reedSolomon.decode(blockSymbols, blockECCSymbols);
+            }
+            if(blockErrors != null) {
+                blockErrors[blockId] = errors;
+            }
+            if(errors == ReedSolomonGF16.DECODE_FAILED) {
+                return null;
+            }
             if(fixedErrors != null) {
                 fixedErrors.addAndGet(errors);
             }
@@ -251,12 +459,53 @@ public class QRTone {
             storedCRC = storedCRC | crcValue[1];
             // Check if fixed payload+CRC give a correct result
             if(crc16(payload, 0, payload.length) != storedCRC) {
-                throw new ReedSolomonException("CRC check failed");
+                return null;
             }
         }
         return payload;
     }
 
+    private static boolean hasFailedBlock(int[] blockErrors) {
+        for(int errors : blockErrors) {
+            if(errors == ReedSolomonGF16.DECODE_FAILED) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param margins Confidence of symbols, infinite if the symbol must not be selected
+     * @param lowestMargins Receive the indices of the symbols with the lowest margin, in ascending order of margin
+     * @param count Number of indices to find
+     * @return Number of indices written into lowestMargins
+     */
+    private static int findLowestMargins(float[] margins, int[] lowestMargins, int count) {
+        int found = 0;
+        while(found < count) {
+            int lowest = -1;
+            for(int i = 0; i < margins.length; i++) {
+                if(margins[i] < Float.POSITIVE_INFINITY && (lowest == -1 || margins[i] < margins[lowest])) {
+                    boolean selected = false;
+                    for(int j = 0; j < found; j++) {
+                        if(lowestMargins[j] == i) {
+                            selected = true;
+                            break;
+                        }
+                    }
+                    if(!selected) {
+                        lowest = i;
+                    }
+                }
+            }
+            if(lowest == -1) {
+                break;
+            }
+            lowestMargins[found++] = lowest;
+        }
+        return found;
+    }
+
     /**
      * @param eccLevel Error correction level
      * @return Maximum payload length in bytes
@@ -271,16 +520,43 @@ public class QRTone {
      * @return Number of samples of the signal for {@link #getSamples(float[], double)}}
      */
     public int setPayload(byte[] payload, Configuration.ECC_LEVEL eccLevel, boolean addPayloadCRC) {
-        Header header = new Header(payload.length, eccLevel, addPayloadCRC);
-        byte[] headerb = header.encodeHeader();
+        final int blockSymbolsSize = Configuration.getTotalSymbolsForEcc(eccLevel);
+        final int blockECCSymbols = Configuration.getEccSymbolsForEcc(eccLevel);
+        Header.encodeHeader(payload.length, eccLevel, addPayloadCRC, headerBytes);
+        final int payloadSymbols = Header.getNumberOfSymbols(payload.length, blockSymbolsSize, blockECCSymbols, addPayloadCRC);
+        // Reuse buffers while the message length does not change
+        if(symbolsToDeliver == null || symbolsToDeliver.length != HEADER_SYMBOLS + payloadSymbols) {
+            symbolsToDeliver = new byte[HEADER_SYMBOLS + payloadSymbols];
+        }
+        if(encodingBuffer == null || encodingBuffer.length < payloadSymbols) {
+            encodingBuffer = new byte[Math.max(HEADER_SYMBOLS, payloadSymbols)];
+        }
         // Convert bytes to hexadecimal array
-        byte[] headerSymbols = payloadToSymbols(headerb, HEADER_SYMBOLS, HEADER_ECC_SYMBOLS, false);
-        byte[] payloadSymbols = payloadToSymbols(payload, eccLevel, addPayloadCRC);
-        symbolsToDeliver = new byte[headerSymbols.length+payloadSymbols.length];
-        System.arraycopy(headerSymbols, 0, symbolsToDeliver, 0, headerSymbols.length);
-        System.arraycopy(payloadSymbols, 0, symbolsToDeliver, headerSymbols.length, payloadSymbols.length);
+        payloadToSymbols(headerBytes, HEADER_SYMBOLS, HEADER_ECC_SYMBOLS, false, encodingBuffer, symbolsToDeliver, 0);
+        payloadToSymbols(payload, blockSymbolsSize, blockECCSymbols, addPayloadCRC, encodingBuffer, symbolsToDeliver, HEADER_SYMBOLS);
         outputSamples = 0;
-        return 2 * gateLength + (symbolsToDeliver.length / 2) * (wordSilenceLength + wordLength);
+        return getMessageLength(gateLength, wordLength, wordSilenceLength, symbolsToDeliver.length);
+    }
+
+    private static int getMessageLength(int gateLength, int wordLength, int wordSilenceLength, int symbols) {
+        return 2 * gateLength + (symbols / 2) * (wordSilenceLength + wordLength);
+    }
+
+    /**
+     * Airtime of a message, without creating an encoder
+     * @param configuration Configuration
+     * @param payloadLength Payload length in bytes
+     * @param eccLevel Error correction level
+     * @param addPayloadCRC Append a CRC16 to the payload
+     * @return Number of samples returned by {@link #setPayload(byte[], Configuration.ECC_LEVEL, boolean)}
+     */
+    public static int getMessageLength(Configuration configuration, int payloadLength, Configuration.ECC_LEVEL eccLevel,
+                                       boolean addPayloadCRC) {
+        final int payloadSymbols = Header.getNumberOfSymbols(payloadLength, Configuration.getTotalSymbolsForEcc(eccLevel),
+                Configuration.getEccSymbolsForEcc(eccLevel), addPayloadCRC);
+        return getMessageLength((int)(configuration.sampleRate * configuration.gateTime),
+                (int)(configuration.sampleRate * configuration.wordTime),
+                (int)(configuration.sampleRate * configuration.wordSilenceTime), HEADER_SYMBOLS + payloadSymbols);
     }
 
     /**
@@ -290,20 +566,16 @@ public class QRTone {
      * @param power Signal power
      */
     public void getSamples(float[] samples, double power) {
+        if(symbolWaveforms == null) {
+            symbolWaveforms = SymbolWaveforms.getWaveforms(configuration, TUKEY_ALPHA);
+        }
         int writeOffset = 0;
         while(writeOffset < samples.length) {
             if(outputSamples < gateLength * 2) {
                 // On header
                 int done = outputSamples % gateLength;
-                int frequencyIndex = outputSamples < gateLength ? FREQUENCY_ROOT : FREQUENCY_ROOT + 2;
-                if(done == 0) {
-                    iterativeTones[frequencyIndex].reset();
-                    hannWindow.reset();
-                }
                 int stepEnd = Math.min(gateLength - done, samples.length - writeOffset);
-                for (int i = 0; i < stepEnd; i++) {
-                    samples[writeOffset + i] += (float) (iterativeTones[frequencyIndex].next() * hannWindow.next() * power);
-                }
+                symbolWaveforms.addGate(outputSamples < gateLength ? 0 : 1, done, samples, writeOffset, stepEnd, power);
                 writeOffset += stepEnd;
                 outputSamples += stepEnd;
             } else {
@@ -320,18 +592,9 @@ public class QRTone {
                     wordDone -= wordSilenceLength;
                     int firstFreqIndex = symbolsToDeliver[wordIndex];
                     int secondFreqIndex = symbolsToDeliver[wordIndex + 1] + FREQUENCY_ROOT;
-                    if(wordDone == 0) {
-                        iterativeTones[firstFreqIndex].reset();
-                        iterativeTones[secondFreqIndex].reset();
-                        tukeyWindow.reset();
-                    }
                     int stepEnd = Math.min(wordLength - wordDone, samples.length - writeOffset);
-                    double tonePower = power / 2;
-                    for (int i = 0; i < stepEnd; i++) {
-                        final double firstTone = iterativeTones[firstFreqIndex].next() * tonePower;
-                        final double secondTone = iterativeTones[secondFreqIndex].next() * tonePower;
-                        samples[writeOffset + i] += (float) ((firstTone + secondTone) * tukeyWindow.next());
-                    }
+                    symbolWaveforms.addWord(firstFreqIndex, secondFreqIndex, wordDone, samples, writeOffset, stepEnd,
+                            power / 2);
                     writeOffset += stepEnd;
                     outputSamples += stepEnd;
                 } else {
@@ -350,9 +613,7 @@ public class QRTone {
      * @return crc value
      */
     public static byte crc8(byte[] payload, int from, int to) {
-        CRC8 crc8 = new CRC8();
-        crc8.add(payload, from, to);
-        return crc8.crc();
+        return (byte) CRC8.update(0, payload, from, to);
     }
     /**
      * Checksum of bytes (could be used only up to 64 bytes)
@@ -362,37 +623,19 @@ public class QRTone {
      * @return crc value
      */
     public static int crc16(byte[] payload, int from, int to) {
-        CRC16 crc = new CRC16();
-        for(int i = from; i < to; i++) {
-            crc.add(payload[i]);
-        }
-        return crc.crc();
+        return CRC16.update(0, payload, from, to) & 0xFFFF;
     }
 
     public static void interleaveSymbols(byte[] inputData, int blockSize) {
-        byte[] interleavedData = new byte[inputData.length];
-        int insertionCursor = 0;
-        for(int j = 0; j < blockSize; j++) {
-            int cursor = j;
-            while (cursor < inputData.length) {
-                interleavedData[insertionCursor++] = inputData[cursor];
-                cursor += blockSize;
-            }
-        }
-        System.arraycopy(interleavedData, 0, inputData, 0, interleavedData.length);
+        Interleaver.getInterleaver(inputData.length, blockSize).interleave(inputData);
+    }
+
+    public static void deinterleaveSymbols(float[] inputData, int blockSize) {
+        Interleaver.getInterleaver(inputData.length, blockSize).deinterleave(inputData);
     }
 
     public static void deinterleaveSymbols(byte[] inputData, int blockSize) {
-        byte[] interleavedData = new byte[inputData.length];
-        int insertionCursor = 0;
-        for(int j = 0; j < blockSize; j++) {
-            int cursor = j;
-            while (cursor < inputData.length) {
-                interleavedData[cursor] = inputData[insertionCursor++];
-                cursor += blockSize;
-            }
-        }
-        System.arraycopy(interleavedData, 0, inputData, 0, interleavedData.length);
+        Interleaver.getInterleaver(inputData.length, blockSize).deinterleave(inputData);
     }
 
     /**
@@ -469,164 +712,632 @@ public class QRTone {
         return Math.sqrt(sum / signal.length);
     }
 
-    private void feedTriggerAnalyzer(float[] samples, long totalProcessed) {
-        triggerAnalyzer.processSamples(samples, totalProcessed);
+    /**
+     * Start the decoding of a message if the trigger analyzer found one
+     */
+    private void startSymbolParser() {
         if(triggerAnalyzer.getFirstToneLocation() != -1) {
-            qrToneState = STATE.PARSING_SYMBOLS;
-            firstToneSampleIndex = triggerAnalyzer.getFirstToneLocation();
-            frequencyAnalyzers = new IterativeGeneralizedGoertzel[frequencies.length];
-            for(int idfreq = 0; idfreq < frequencies.length; idfreq++) {
-                int window_length = Math.min(wordLength, Configuration.computeMinimumWindowSize(configuration.sampleRate, frequencies[idfreq], frequencyLimits[idfreq]));
-                frequencyAnalyzers[idfreq] = new IterativeGeneralizedGoertzel(configuration.sampleRate, frequencies[idfreq], window_length, true);
+            boolean started = false;
+            for(SymbolParser symbolParser : symbolParsers) {
+                if(!symbolParser.isActive()) {
+                    symbolParser.start(triggerAnalyzer.getFirstToneLocation());
+                    started = true;
+                    break;
+                }
             }
-            symbolsCache = new byte[HEADER_SYMBOLS];
+            if(started) {
+                metrics.triggersFired++;
+            } else {
+                metrics.droppedTriggers++;
+            }
+            // Continue to look for other messages
             triggerAnalyzer.reset();
-            fixedErrors.set(0);
         }
     }
 
-    void cachedSymbolsToHeader() throws ReedSolomonException {
-        byte[] payloads = symbolsToPayload(symbolsCache, HEADER_SYMBOLS, HEADER_ECC_SYMBOLS, false, fixedErrors);
-        headerCache = Header.decodeHeader(payloads);
+    /**
+     * Analyze samples
+     * @param samples Samples. Any length is accepted, the samples are split internally on analysis windows
+     * @return True if a payload has been decoded and can be retrieved with {@link #getPayload()}
+     */
+    public boolean pushSamples(short[] samples) {
+        return pushSamples(samples, 0, samples.length);
+    }
+
+    /**
+     * Analyze a part of a samples array
+     * @param samples Samples, 16 bits signed PCM
+     * @param offset Index of the first sample to analyze
+     * @param length Number of samples to analyze
+     * @return True if a payload has been decoded and can be retrieved with {@link #getPayload()}
+     */
+    public boolean pushSamples(short[] samples, int offset, int length) {
+        checkRange(samples.length, offset, length);
+        final long startTime = startPush();
+        return endPush(startTime, processSamples(samples, offset, offset + length));
     }
 
-    void cachedSymbolsToPayload() throws ReedSolomonException {
-        payload = symbolsToPayload(symbolsCache, headerCache.eccLevel, headerCache.crc, fixedErrors);
+    /**
+     * Analyze samples
+     * @param samples Samples. Any length is accepted, the samples are split internally on analysis windows.
+     *                If more than one message is completed in the same buffer only the last one can be retrieved
+     *                with {@link #getPayload()}
+     * @return True if a payload has been decoded and can be retrieved with {@link #getPayload()}
+     */
+    public boolean pushSamples(float[] samples) {
+        return pushSamples(samples, 0, samples.length);
     }
 
-    private boolean analyzeTones(float[] samples) {
-        // Processed samples in current tone
-        int processedSamples = (int) (pushedSamples - samples.length - getToneLocation());
-        // cursor keep track of tone analysis in provided samples array, cursor start with tone location
-        int cursor = Math.max(0, getToneIndex(samples.length));
-        while (cursor < samples.length) {
-            // Processed samples in current tone taking account of cursor position
-            int toneWindowCursor = processedSamples + cursor;
-            // do not process more than wordLength
-            int cursorIncrement = Math.min(samples.length - cursor, wordLength - toneWindowCursor);
-            for(int idfreq = 0; idfreq < frequencies.length; idfreq++) {
-                int startWindow = wordLength / 2 - frequencyAnalyzers[idfreq].getWindowSize() / 2;
-                int startAnalyze = Math.max(0, startWindow - toneWindowCursor) + cursor;
-                int analyzeLength = Math.min(samples.length - startAnalyze,
-                        frequencyAnalyzers[idfreq].getWindowSize() - frequencyAnalyzers[idfreq].getProcessedSamples());
-                if(analyzeLength > 0 && startAnalyze < samples.length) {
-                    frequencyAnalyzers[idfreq].processSamples(samples, startAnalyze, startAnalyze + analyzeLength);
-                } else {
-                    break;
-                }
-            }
-            if(toneWindowCursor + cursorIncrement == wordLength) {
-                double[] spl = new double[frequencies.length];
-                for(int idfreq = 0; idfreq < frequencies.length; idfreq++) {
-                    double rmsValue = frequencyAnalyzers[idfreq].computeRMS(false).rms;
-                    spl[idfreq] = 20 * Math.log10(rmsValue);
-                }
-                for(int symbolOffset = 0; symbolOffset < 2; symbolOffset++) {
-                    int maxSymbolId = -1;
-                    double maxSymbolGain = Double.NEGATIVE_INFINITY;
-                    for(int idFreq = symbolOffset * FREQUENCY_ROOT; idFreq < (symbolOffset + 1) * FREQUENCY_ROOT; idFreq++) {
-                        double gain = spl[idFreq];
-                        if(gain > maxSymbolGain) {
-                            maxSymbolGain = gain;
-                            maxSymbolId = idFreq;
-                        }
-                    }
-                    symbolsCache[this.symbolIndex * 2 + symbolOffset] = (byte)(maxSymbolId - symbolOffset * FREQUENCY_ROOT);
-                }
-                symbolIndex += 1;
-                processedSamples = (int) (pushedSamples - samples.length - getToneLocation());
-                cursor = Math.max(cursor, getToneIndex(samples.length));
-                if(symbolIndex * 2 == symbolsCache.length) {
-                    if(headerCache == null) {
-                        try {
-                            cachedSymbolsToHeader();
-                            // CRC error
-                            if(headerCache == null) {
-                                reset();
-                                break;
-                            }
-                            symbolsCache = new byte[headerCache.numberOfSymbols];
-                            symbolIndex = 0;
-                            firstToneSampleIndex += (HEADER_SYMBOLS / 2) * (wordLength+wordSilenceLength);
-                        } catch (ReedSolomonException ex) {
-                            // Can't decode payload
-                            reset();
-                            break;
-                        }
-                    } else {
-                        // Decoding complete
-                        try {
-                            cachedSymbolsToPayload();
-                            reset();
-                            return true;
-                        } catch (ReedSolomonException ex) {
-                            // Can't decode payload
-                            reset();
-                            break;
-                        }
-                    }
-                }
-            } else {
-                cursor += cursorIncrement;
+    /**
+     * Analyze a part of a samples array, without copy
+     * @param samples Samples
+     * @param offset Index of the first sample to analyze
+     * @param length Number of samples to analyze
+     * @return True if a payload has been decoded and can be retrieved with {@link #getPayload()}
+     */
+    public boolean pushSamples(float[] samples, int offset, int length) {
+        checkRange(samples.length, offset, length);
+        final long startTime = startPush();
+        return endPush(startTime, processSamples(samples, offset, offset + length));
+    }
+
+    /**
+     * Analyze the remaining samples of the buffer, the position of the buffer is moved to its limit.
+     * Samples of a heap buffer are read without copy.
+     * @param samples Samples
+     * @return True if a payload has been decoded and can be retrieved with {@link #getPayload()}
+     */
+    public boolean pushSamples(FloatBuffer samples) {
+        final long startTime = startPush();
+        boolean payloadDecoded;
+        if(samples.hasArray()) {
+            payloadDecoded = processSamples(samples.array(), samples.arrayOffset() + samples.position(),
+                    samples.arrayOffset() + samples.limit());
+            samples.position(samples.limit());
+        } else {
+            payloadDecoded = false;
+            while(samples.hasRemaining()) {
+                final int windowLength = Math.min(CONVERSION_BUFFER_LENGTH, samples.remaining());
+                samples.get(conversionBuffer, 0, windowLength);
+                payloadDecoded |= processSamples(conversionBuffer, 0, windowLength);
             }
         }
-        return false;
+        return endPush(startTime, payloadDecoded);
     }
 
     /**
-     * Analyze samples
-     * @param samples Samples. Should not be greater than {@link #getMaximumWindowLength()} in order to not miss multiple messages
+     * Analyze the remaining samples of the buffer, the position of the buffer is moved to its limit
+     * @param samples Samples, 16 bits signed PCM
      * @return True if a payload has been decoded and can be retrieved with {@link #getPayload()}
      */
-    public boolean pushSamples(short[] samples) {
-        float[] fSamples = new float[samples.length];
-        for(int i = 0; i < samples.length; i++) {
-            fSamples[i] = samples[i] / (float) Short.MAX_VALUE;
+    public boolean pushSamples(ShortBuffer samples) {
+        final long startTime = startPush();
+        boolean payloadDecoded;
+        if(samples.hasArray()) {
+            payloadDecoded = processSamples(samples.array(), samples.arrayOffset() + samples.position(),
+                    samples.arrayOffset() + samples.limit());
+            samples.position(samples.limit());
+        } else {
+            payloadDecoded = false;
+            while(samples.hasRemaining()) {
+                final int windowLength = Math.min(CONVERSION_BUFFER_LENGTH, samples.remaining());
+                samples.get(pcmConversionBuffer, 0, windowLength);
+                payloadDecoded |= processSamples(pcmConversionBuffer, 0, windowLength);
+            }
         }
-        return pushSamples(fSamples);
+        return endPush(startTime, payloadDecoded);
     }
 
     /**
-     * Analyze samples
-     * @param samples Samples. Should not be greater than {@link #getMaximumWindowLength()} in order to not miss multiple messages
+     * Analyze the remaining bytes of the buffer as 16 bits signed PCM samples, using the byte order of the buffer
+     * (see {@link ByteBuffer#order(ByteOrder)}). The position of the buffer is moved after the last complete sample.
+     * The samples are converted by chunks through a reusable buffer, with bulk reads of a short view of the buffer.
+     * @param samples Samples
      * @return True if a payload has been decoded and can be retrieved with {@link #getPayload()}
      */
-    public boolean pushSamples(float[] samples) {
-        pushedSamples += samples.length;
-        if(qrToneState == STATE.WAITING_TRIGGER) {
-            feedTriggerAnalyzer(samples, pushedSamples - samples.length);
+    public boolean pushSamples(ByteBuffer samples) {
+        final long startTime = startPush();
+        boolean payloadDecoded = false;
+        final ShortBuffer shortSamples = samples.asShortBuffer();
+        while(shortSamples.hasRemaining()) {
+            final int windowLength = Math.min(CONVERSION_BUFFER_LENGTH, shortSamples.remaining());
+            shortSamples.get(pcmConversionBuffer, 0, windowLength);
+            payloadDecoded |= processSamples(pcmConversionBuffer, 0, windowLength);
         }
-        if(qrToneState == STATE.PARSING_SYMBOLS) {
-            return analyzeTones(samples);
+        samples.position(samples.position() + shortSamples.position() * 2);
+        return endPush(startTime, payloadDecoded);
+    }
+
+    private static void checkRange(int arrayLength, int offset, int length) {
+        if(offset < 0 || length < 0 || offset + length > arrayLength) {
+            throw new IndexOutOfBoundsException("offset " + offset + " length " + length + " array length " + arrayLength);
         }
-        return false;
+    }
+
+    private long startPush() {
+        return pushLatencyHistogram ? System.nanoTime() : 0;
+    }
+
+    private boolean endPush(long startTime, boolean payloadDecoded) {
+        if(pushLatencyHistogram) {
+            metrics.addPushLatency(System.nanoTime() - startTime);
+        }
+        return payloadDecoded;
+    }
+
+    boolean processSamples(float[] samples, int from, int to) {
+        receivedSamples += to - from;
+        metrics.samplesProcessed += to - from;
+        if(decimator != null) {
+            boolean payloadDecoded = false;
+            for(int cursor = from; cursor < to; cursor += CONVERSION_BUFFER_LENGTH) {
+                final int end = Math.min(to, cursor + CONVERSION_BUFFER_LENGTH);
+                payloadDecoded |= analyzeDecimatedSamples(decimator.process(samples, cursor, end, decimationBuffer));
+            }
+            return payloadDecoded;
+        }
+        if(!pcmAnalysis) {
+            return analyzeSamples(samples, null, from, to);
+        }
+        boolean payloadDecoded = false;
+        for(int cursor = from; cursor < to; cursor += CONVERSION_BUFFER_LENGTH) {
+            final int windowLength = Math.min(CONVERSION_BUFFER_LENGTH, to - cursor);
+            for(int i = 0; i < windowLength; i++) {
+                pcmConversionBuffer[i] = FixedPoint.toPcm(samples[cursor + i]);
+            }
+            payloadDecoded |= analyzeSamples(null, pcmConversionBuffer, 0, windowLength);
+        }
+        return payloadDecoded;
+    }
+
+    /**
+     * @param samples Samples, 16 bits signed PCM
+     * @param from First sample index
+     * @param to Excluded last sample index
+     * @return True if a payload has been decoded
+     */
+    boolean processSamples(short[] samples, int from, int to) {
+        receivedSamples += to - from;
+        metrics.samplesProcessed += to - from;
+        if(decimator != null) {
+            boolean payloadDecoded = false;
+            for(int cursor = from; cursor < to; cursor += CONVERSION_BUFFER_LENGTH) {
+                final int end = Math.min(to, cursor + CONVERSION_BUFFER_LENGTH);
+                payloadDecoded |= analyzeDecimatedSamples(decimator.process(samples, cursor, end, decimationBuffer));
+            }
+            return payloadDecoded;
+        }
+        if(pcmAnalysis) {
+            return analyzeSamples(null, samples, from, to);
+        }
+        boolean payloadDecoded = false;
+        for(int cursor = from; cursor < to; cursor += CONVERSION_BUFFER_LENGTH) {
+            final int windowLength = Math.min(CONVERSION_BUFFER_LENGTH, to - cursor);
+            for(int i = 0; i < windowLength; i++) {
+                conversionBuffer[i] = samples[cursor + i] / FixedPoint.PCM_SCALE;
+            }
+            payloadDecoded |= analyzeSamples(conversionBuffer, null, 0, windowLength);
+        }
+        return payloadDecoded;
+    }
+
+    /**
+     * @param length Number of samples in the decimation buffer
+     * @return True if a payload has been decoded
+     */
+    private boolean analyzeDecimatedSamples(int length) {
+        if(pcmAnalysis) {
+            for(int i = 0; i < length; i++) {
+                decimationPcmBuffer[i] = FixedPoint.toPcm(decimationBuffer[i]);
+            }
+            return analyzeSamples(null, decimationPcmBuffer, 0, length);
+        }
+        return analyzeSamples(decimationBuffer, null, 0, length);
+    }
+
+    /**
+     * Analyze float samples or 16 bits PCM samples, the other array is null
+     */
+    private boolean analyzeSamples(float[] samples, short[] pcmSamples, int from, int to) {
+        boolean payloadDecoded = false;
+        int cursor = from;
+        while(cursor < to) {
+            // Do not cross trigger window boundaries or tone boundaries in a single step
+            final int windowLength = Math.min(to - cursor, getProcessingWindowLength());
+            pushedSamples += windowLength;
+            final long triggerStart = stageTimers ? System.nanoTime() : 0;
+            if(pcmSamples != null) {
+                triggerAnalyzer.processSamples(pcmSamples, cursor, cursor + windowLength, pushedSamples - windowLength);
+            } else {
+                triggerAnalyzer.processSamples(samples, cursor, cursor + windowLength, pushedSamples - windowLength);
+            }
+            startSymbolParser();
+            final long symbolStart = stageTimers ? System.nanoTime() : 0;
+            if(stageTimers) {
+                metrics.triggerStageNanos += symbolStart - triggerStart;
+            }
+            for(SymbolParser symbolParser : symbolParsers) {
+                if(symbolParser.isActive() &&
+                        symbolParser.analyzeTones(samples, pcmSamples, cursor, cursor + windowLength)) {
+                    payload = symbolParser.payload;
+                    payloadSampleIndex = decimator == null ? symbolParser.getPayloadSampleIndex() :
+                            decimator.toInputIndex(symbolParser.getPayloadSampleIndex());
+                    fixedErrors.set(symbolParser.fixedErrors.get());
+                    // Delay in received samples between the trigger and the end of this window
+                    final long delay = pushedSamples - symbolParser.triggerSampleIndex;
+                    metrics.addPayloadDelay(delay * configuration.decimationFactor);
+                    symbolParser.reportQuality(true);
+                    symbolParser.stop();
+                    payloadDecoded = true;
+                }
+            }
+            if(stageTimers) {
+                metrics.symbolStageNanos += System.nanoTime() - symbolStart;
+            }
+            cursor += windowLength;
+        }
+        return payloadDecoded;
+    }
+
+    /**
+     * @return Number of samples that can be processed before the next trigger analysis window or the end of the
+     * current tone of a message
+     */
+    private int getProcessingWindowLength() {
+        int windowLength = triggerAnalyzer.getMaximumWindowLength();
+        for(SymbolParser symbolParser : symbolParsers) {
+            if(symbolParser.isActive()) {
+                final int toneEnd = (int)(symbolParser.getToneLocation() + analysisWordLength - pushedSamples);
+                if(toneEnd > 0) {
+                    windowLength = Math.min(windowLength, toneEnd);
+                }
+            }
+        }
+        return windowLength;
     }
 
     public void reset() {
-        symbolsCache = null;
-        symbolIndex = 0;
-        headerCache = null;
-        qrToneState = STATE.WAITING_TRIGGER;
         symbolsToDeliver = null;
-        frequencyAnalyzers = null;
+        for(SymbolParser symbolParser : symbolParsers) {
+            symbolParser.stop();
+        }
         triggerAnalyzer.reset();
     }
 
     /**
-     * @return Errors corrected by Reed-Solomon algorithm
+     * @return Errors corrected by Reed-Solomon algorithm on the last decoded message
      */
     public int getFixedErrors() {
         return fixedErrors.get();
     }
 
-    private long getToneLocation() {
-        return firstToneSampleIndex + symbolIndex * (wordLength + wordSilenceLength) + wordSilenceLength;
+    /**
+     * The counters are updated without synchronization, this method must be called from the thread pushing the
+     * samples
+     * @return Snapshot of the decoder counters, accumulated since the creation of the decoder or the last call to
+     * {@link #resetMetrics()}
+     */
+    public DecoderMetrics getMetrics() {
+        return new DecoderMetrics(metrics);
+    }
+
+    /**
+     * Copy the decoder counters without allocation, this method must be called from the thread pushing the samples
+     * @param snapshot Instance receiving the counters
+     */
+    public void getMetrics(DecoderMetrics snapshot) {
+        snapshot.set(metrics);
+    }
+
+    public void resetMetrics() {
+        metrics.reset();
     }
-    private int getToneIndex(int bufferLength) {
-        return (int)(bufferLength - (pushedSamples - getToneLocation()));
+
+    /**
+     * @param enabled Record the duration of each pushSamples call in {@link DecoderMetrics#getPushLatencyCount(int)}
+     */
+    public void setPushLatencyHistogram(boolean enabled) {
+        this.pushLatencyHistogram = enabled;
+    }
+
+    /**
+     * @param enabled Record the time spent in the trigger and symbol stages, see
+     *                {@link DecoderMetrics#getTriggerStageNanos()} and {@link DecoderMetrics#getSymbolStageNanos()}
+     */
+    public void setStageTimers(boolean enabled) {
+        this.stageTimers = enabled;
     }
 
+    /**
+     * @return Quality of the last decoded or dropped message. The instance is updated by the next pushSamples call,
+     * copy it with {@link MessageQuality#MessageQuality(MessageQuality)} if it must be kept
+     */
+    public MessageQuality getMessageQuality() {
+        return messageQuality;
+    }
+
+    /**
+     * @param qualityCallback Called with the quality report of each decoded or dropped message, null to remove
+     */
+    public void setQualityCallback(QualityCallback qualityCallback) {
+        this.qualityCallback = qualityCallback;
+    }
+
+    /**
+     * @return True if a trigger has been found and the symbols of at least one message are being analyzed
+     */
+    boolean isParsingSymbols() {
+        for(SymbolParser symbolParser : symbolParsers) {
+            if(symbolParser.isActive()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return Location of the first sample of the last decoded message
+     */
     public long gePayloadSampleIndex() {
-        return firstToneSampleIndex - (HEADER_SYMBOLS / 2) * (wordLength+wordSilenceLength) - gateLength * 2;
+        return payloadSampleIndex;
+    }
+
+    /**
+     * @return New parser sharing the spectral tables of this decoder
+     */
+    SymbolParser createSymbolParser() {
+        return new SymbolParser(symbolParsers[0].toneAnalyzer.duplicate());
+    }
+
+    /**
+     * Decoding state of one message, from the location given by the trigger to the payload
+     */
+    class SymbolParser {
+        final ToneAnalyzer toneAnalyzer;
+        final ReedSolomonGF16 reedSolomon = new ReedSolomonGF16();
+        // Received symbols are stored directly in block order
+        Interleaver interleaver;
+        byte[] symbolsCache;
+        // Difference in dB between the best and the second best tone of each symbol
+        float[] symbolMargins;
+        // Level in dB of the best tone of each symbol
+        float[] symbolLevels;
+        // Fixed symbols of each block of the last decoding attempt
+        int[] blockErrors;
+        private final int[] headerBlockErrors = new int[1];
+        // Trigger state when the message has been found
+        double noiseLevel;
+        long timingOffset;
+        Header headerCache;
+        byte[] payload;
+        final AtomicInteger fixedErrors = new AtomicInteger(0);
+        private int symbolIndex = 0;
+        private long firstToneSampleIndex = -1;
+        // Number of analyzed samples when the trigger has been fired
+        long triggerSampleIndex = -1;
+
+        SymbolParser(ToneAnalyzer toneAnalyzer) {
+            this.toneAnalyzer = toneAnalyzer;
+        }
+
+        boolean isActive() {
+            return symbolsCache != null;
+        }
+
+        /**
+         * @param firstToneSampleIndex Location of the first word of the header
+         */
+        void start(long firstToneSampleIndex) {
+            this.firstToneSampleIndex = firstToneSampleIndex;
+            triggerSampleIndex = pushedSamples;
+            noiseLevel = triggerAnalyzer.getTriggerNoiseLevel();
+            timingOffset = triggerAnalyzer.getTriggerTimingOffset();
+            symbolsCache = new byte[HEADER_SYMBOLS];
+            symbolMargins = new float[HEADER_SYMBOLS];
+            symbolLevels = new float[HEADER_SYMBOLS];
+            interleaver = Interleaver.getInterleaver(HEADER_SYMBOLS, HEADER_SYMBOLS);
+            headerCache = null;
+            payload = null;
+            symbolIndex = 0;
+            fixedErrors.set(0);
+            toneAnalyzer.reset();
+        }
+
+        void stop() {
+            symbolsCache = null;
+            symbolMargins = null;
+            symbolLevels = null;
+            blockErrors = null;
+            headerCache = null;
+            symbolIndex = 0;
+            toneAnalyzer.reset();
+        }
+
+        void cachedSymbolsToHeader() throws ReedSolomonException {
+            final Object event = DecoderEvents.beginHeaderDecode();
+            // Erasing all parity symbols always succeeds, a noise trigger would then be rejected by the 8 bits header
+            // CRC only. Keep at least one parity symbol to detect a wrong correction, as the payload without CRC
+            final int maximumErasures = symbolMargins == null ? 0 : HEADER_ECC_SYMBOLS - 1;
+            boolean decoded = false;
+            blockErrors = headerBlockErrors;
+            for(int erasures = 0; erasures <= maximumErasures; erasures++) {
+                AtomicInteger headerFixedErrors = new AtomicInteger(0);
+                byte[] payloads = decodeSymbols(reedSolomon, symbolsCache, symbolMargins, HEADER_SYMBOLS,
+                        HEADER_ECC_SYMBOLS, false, erasures, headerFixedErrors, blockErrors);
+                if(payloads != null) {
+                    decoded = true;
+                    headerCache = Header.decodeHeader(payloads);
+                    if(headerCache != null) {
+                        fixedErrors.addAndGet(headerFixedErrors.get());
+                        metrics.addBlockCorrections(blockErrors, 1);
+                        DecoderEvents.endHeaderDecode(event, true, headerFixedErrors.get());
+                        return;
+                    }
+                }
+            }
+            DecoderEvents.endHeaderDecode(event, false, 0);
+            DecoderEvents.decodeFailed(true, decoded);
+            if(!decoded) {
+                throw new ReedSolomonException("Too many errors");
+            }
+        }
+
+        void cachedSymbolsToPayload() throws ReedSolomonException {
+            final Object event = DecoderEvents.beginPayloadDecode();
+            final int blockSymbolsSize = Configuration.getTotalSymbolsForEcc(headerCache.eccLevel);
+            blockErrors = new int[(symbolsCache.length + blockSymbolsSize - 1) / blockSymbolsSize];
+            try {
+                payload = blockSymbolsToPayload(reedSolomon, symbolsCache, symbolMargins, headerCache.eccLevel, headerCache.crc, fixedErrors, metrics, blockErrors);
+            } finally {
+                DecoderEvents.endPayloadDecode(event, symbolsCache.length, payload == null ? -1 : payload.length,
+                        fixedErrors.get());
+            }
+        }
+
+        /**
+         * Fill the quality report of the decoder with the symbols of this message and give it to the callback
+         * @param decoded True if the payload has been decoded
+         */
+        void reportQuality(boolean decoded) {
+            final MessageQuality quality = messageQuality;
+            quality.symbolCount = symbolsCache.length;
+            System.arraycopy(symbolMargins, 0, quality.symbolMargins, 0, symbolsCache.length);
+            System.arraycopy(symbolLevels, 0, quality.symbolLevels, 0, symbolsCache.length);
+            quality.blockCount = blockErrors.length;
+            System.arraycopy(blockErrors, 0, quality.blockErrors, 0, blockErrors.length);
+            quality.headerDecoded = headerCache != null;
+            quality.decoded = decoded;
+            quality.eccLevel = headerCache == null ? null : headerCache.eccLevel;
+            quality.noiseLevel = Math.max(MessageQuality.MINIMUM_LEVEL, noiseLevel);
+            quality.sampleIndex = decimator == null ? getPayloadSampleIndex() :
+                    decimator.toInputIndex(getPayloadSampleIndex());
+            quality.timingOffset = timingOffset * configuration.decimationFactor;
+            if(qualityCallback != null) {
+                qualityCallback.onMessageQuality(QRTone.this, quality);
+            }
+        }
+
+        long getToneLocation() {
+            return firstToneSampleIndex + symbolIndex * (analysisWordLength + analysisWordSilenceLength) + analysisWordSilenceLength;
+        }
+
+        private int getToneIndex(int bufferLength) {
+            return (int)(bufferLength - (pushedSamples - getToneLocation()));
+        }
+
+        long getPayloadSampleIndex() {
+            // firstToneSampleIndex is moved to the first payload word once the header is decoded
+            final int headerWords = headerCache == null ? 0 : HEADER_SYMBOLS / 2;
+            return firstToneSampleIndex - headerWords * (analysisWordLength+analysisWordSilenceLength) - analysisGateLength * 2;
+        }
+
+        /**
+         * Analyze float samples or 16 bits PCM samples, the other array is null
+         * @return True if the payload has been decoded, false if more samples are needed or the message has been
+         * dropped
+         */
+        boolean analyzeTones(float[] samples, short[] pcmSamples, int from, int to) {
+            final int length = to - from;
+            // Processed samples in current tone
+            int processedSamples = (int) (pushedSamples - length - getToneLocation());
+            // cursor keep track of tone analysis in provided samples array, cursor start with tone location
+            int cursor = Math.max(0, getToneIndex(length));
+            while (cursor < length) {
+                // Processed samples in current tone taking account of cursor position
+                int toneWindowCursor = processedSamples + cursor;
+                // do not process more than analysisWordLength
+                int cursorIncrement = Math.min(length - cursor, analysisWordLength - toneWindowCursor);
+                if(pcmSamples != null) {
+                    toneAnalyzer.processSamples(pcmSamples, from + cursor, from + cursor + cursorIncrement,
+                            toneWindowCursor);
+                } else {
+                    toneAnalyzer.processSamples(samples, from + cursor, from + cursor + cursorIncrement,
+                            toneWindowCursor);
+                }
+                if(toneWindowCursor + cursorIncrement == analysisWordLength) {
+                    final double[] spl = toneLevels;
+                    toneAnalyzer.computeSpl(spl);
+                    if(toneLevelCorrections != null) {
+                        for(int idFreq = 0; idFreq < spl.length; idFreq++) {
+                            spl[idFreq] += toneLevelCorrections[idFreq];
+                        }
+                    }
+                    for(int symbolOffset = 0; symbolOffset < 2; symbolOffset++) {
+                        // Silent words have all levels at -Infinity, keep a valid symbol
+                        int maxSymbolId = symbolOffset * FREQUENCY_ROOT;
+                        double maxSymbolGain = Double.NEGATIVE_INFINITY;
+                        double secondSymbolGain = Double.NEGATIVE_INFINITY;
+                        for(int idFreq = symbolOffset * FREQUENCY_ROOT; idFreq < (symbolOffset + 1) * FREQUENCY_ROOT; idFreq++) {
+                            double gain = spl[idFreq];
+                            if(gain > maxSymbolGain) {
+                                secondSymbolGain = maxSymbolGain;
+                                maxSymbolGain = gain;
+                                maxSymbolId = idFreq;
+                            } else if(gain > secondSymbolGain) {
+                                secondSymbolGain = gain;
+                            }
+                        }
+                        final int blockIndex = interleaver.getBlockIndex(this.symbolIndex * 2 + symbolOffset);
+                        symbolsCache[blockIndex] = (byte)(maxSymbolId - symbolOffset * FREQUENCY_ROOT);
+                        symbolMargins[blockIndex] = maxSymbolGain > secondSymbolGain ?
+                                (float)(maxSymbolGain - secondSymbolGain) : 0;
+                        symbolLevels[blockIndex] = (float) Math.max(MessageQuality.MINIMUM_LEVEL, maxSymbolGain);
+                    }
+                    symbolIndex += 1;
+                    processedSamples = (int) (pushedSamples - length - getToneLocation());
+                    cursor = Math.max(cursor, getToneIndex(length));
+                    if(symbolIndex * 2 == symbolsCache.length) {
+                        if(headerCache == null) {
+                            try {
+                                cachedSymbolsToHeader();
+                                // CRC error
+                                if(headerCache == null) {
+                                    metrics.headerCrcFailures++;
+                                    reportQuality(false);
+                                    stop();
+                                    break;
+                                }
+                                symbolsCache = new byte[headerCache.numberOfSymbols];
+                                symbolMargins = new float[headerCache.numberOfSymbols];
+                                symbolLevels = new float[headerCache.numberOfSymbols];
+                                interleaver = Interleaver.getInterleaver(headerCache.numberOfSymbols,
+                                        Configuration.getTotalSymbolsForEcc(headerCache.eccLevel));
+                                symbolIndex = 0;
+                                firstToneSampleIndex += (HEADER_SYMBOLS / 2) * (analysisWordLength+analysisWordSilenceLength);
+                            } catch (ReedSolomonException ex) {
+                                // Can't decode header
+                                metrics.headerReedSolomonFailures++;
+                                reportQuality(false);
+                                stop();
+                                break;
+                            }
+                        } else {
+                            // Decoding complete
+                            try {
+                                cachedSymbolsToPayload();
+                                return true;
+                            } catch (ReedSolomonException ex) {
+                                // Can't decode payload
+                                reportQuality(false);
+                                stop();
+                                break;
+                            }
+                        }
+                    }
+                } else {
+                    cursor += cursorIncrement;
+                }
+            }
+            return false;
+        }
+    }
+
+    public interface QualityCallback {
+        /**
+         * @param qrTone Decoder
+         * @param quality Quality of the message, the instance is reused for the next message, copy it if it must be
+         *                kept. If the message has been decoded the payload is available with {@link QRTone#getPayload()}
+         */
+        void onMessageQuality(QRTone qrTone, MessageQuality quality);
     }
 }
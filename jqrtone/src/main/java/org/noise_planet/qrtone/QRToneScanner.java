@@ -0,0 +1,434 @@
+/*
+ * BSD 3-Clause License
+ *
+ * Copyright (c) Unité Mixte de Recherche en Acoustique Environnementale (univ-gustave-eiffel)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package org.noise_planet.qrtone;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Decode all messages of a 16 bits PCM recording (raw or WAV file).
+ * The file is split into segments decoded in parallel on a fork/join pool. Each task memory-maps its own segment
+ * and pushes the 16 bits samples as they are to the decoder. Each segment is decoded with a leading part (trigger
+ * warm up) and a trailing part (the longest message) that overlap with the neighbor segments. A segment keeps only
+ * the messages starting inside it, remaining duplicates are removed using the message location.
+ */
+public class QRToneScanner {
+    // Time in seconds decoded before each segment in order to evaluate the background noise level
+    public static final double DEFAULT_WARMUP_TIME = 1.0;
+    // Minimal segment length relative to the overlap length
+    private static final int MINIMUM_SEGMENT_OVERLAP_RATIO = 4;
+    // Maximum size of a mapped region in bytes
+    private static final long MAXIMUM_MAPPED_SIZE = 1 << 28;
+    private static final int CONVERSION_BUFFER_LENGTH = 4096;
+    private static final int WAVE_FORMAT_PCM = 1;
+    private static final int WAVE_FORMAT_EXTENSIBLE = 0xFFFE;
+
+    private final Configuration configuration;
+    private final ForkJoinPool pool;
+    private final int warmupLength;
+    private final int maximumMessageLength;
+    private final int gateLength;
+    // Samples between the start of a message and its trigger
+    private final int triggerLatency;
+    private int segmentLength = 0;
+
+    /**
+     * @param configuration Decoder configuration, the sample rate must be the one of the scanned files
+     * @param maximumPayloadLength Longest expected payload in bytes, this define the overlap between segments
+     * @param pool Pool running the decoders, if null a pool is created for each scan
+     */
+    public QRToneScanner(Configuration configuration, int maximumPayloadLength, ForkJoinPool pool) {
+        if(maximumPayloadLength < 0 || maximumPayloadLength > QRTone.MAX_PAYLOAD_LENGTH) {
+            throw new IllegalArgumentException("Maximum payload length must be in [0, " + QRTone.MAX_PAYLOAD_LENGTH + "]");
+        }
+        this.configuration = configuration;
+        this.pool = pool;
+        this.warmupLength = (int)(configuration.sampleRate * DEFAULT_WARMUP_TIME);
+        QRTone qrTone = new QRTone(configuration);
+        int messageLength = 0;
+        for(Configuration.ECC_LEVEL eccLevel : Configuration.ECC_LEVEL.values()) {
+            messageLength = Math.max(messageLength, qrTone.setPayload(new byte[maximumPayloadLength], eccLevel, true));
+        }
+        this.maximumMessageLength = messageLength;
+        this.gateLength = qrTone.gateLength;
+        this.triggerLatency = 2 * gateLength +
+                2 * qrTone.triggerAnalyzer.getWindowLength() * configuration.decimationFactor;
+    }
+
+    public QRToneScanner(Configuration configuration) {
+        this(configuration, QRTone.MAX_PAYLOAD_LENGTH, null);
+    }
+
+    /**
+     * @param segmentLength Number of samples of each segment (excluding overlaps), 0 to choose it from the file
+     *                      length and the pool parallelism
+     */
+    public void setSegmentLength(int segmentLength) {
+        if(segmentLength < 0) {
+            throw new IllegalArgumentException("Segment length must be positive");
+        }
+        this.segmentLength = segmentLength;
+    }
+
+    public int getSegmentLength() {
+        return segmentLength;
+    }
+
+    /**
+     * @return Number of samples decoded before and after each segment
+     */
+    public int getOverlapLength() {
+        return warmupLength + maximumMessageLength;
+    }
+
+    /**
+     * Decode a raw file of signed 16 bits mono samples
+     * @param file Raw PCM file
+     * @param byteOrder Byte order of the samples
+     * @return Decoded messages sorted by location
+     * @throws IOException If the file can not be read
+     */
+    public List<Message> scanRawPCM(File file, ByteOrder byteOrder) throws IOException {
+        try(RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r")) {
+            FileChannel channel = randomAccessFile.getChannel();
+            return scan(channel, 0, channel.size(), 1, byteOrder);
+        }
+    }
+
+    /**
+     * Decode a 16 bits PCM WAV file, only the first channel is analyzed
+     * @param file WAV file
+     * @return Decoded messages sorted by location
+     * @throws IOException If the file can not be read or is not a 16 bits PCM WAV file
+     */
+    public List<Message> scanWav(File file) throws IOException {
+        try(RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r")) {
+            FileChannel channel = randomAccessFile.getChannel();
+            ByteBuffer header = ByteBuffer.allocate(12).order(ByteOrder.LITTLE_ENDIAN);
+            readFully(channel, header, 0);
+            if(header.getInt(0) != 0x46464952 || header.getInt(8) != 0x45564157) {
+                throw new IOException("Not a RIFF WAVE file");
+            }
+            int channels = 0;
+            long position = 12;
+            ByteBuffer chunkHeader = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+            while(position + 8 <= channel.size()) {
+                readFully(channel, chunkHeader, position);
+                final int chunkId = chunkHeader.getInt(0);
+                final long chunkSize = chunkHeader.getInt(4) & 0xFFFFFFFFL;
+                position += 8;
+                if(chunkId == 0x20746d66) {
+                    // fmt chunk
+                    ByteBuffer format = ByteBuffer.allocate(16).order(ByteOrder.LITTLE_ENDIAN);
+                    readFully(channel, format, position);
+                    final int audioFormat = format.getShort(0) & 0xFFFF;
+                    channels = format.getShort(2) & 0xFFFF;
+                    final int sampleRate = format.getInt(4);
+                    final int bitsPerSample = format.getShort(14) & 0xFFFF;
+                    if((audioFormat != WAVE_FORMAT_PCM && audioFormat != WAVE_FORMAT_EXTENSIBLE) || bitsPerSample != 16
+                            || channels == 0) {
+                        throw new IOException("Only 16 bits PCM WAV files are supported");
+                    }
+                    if(sampleRate != configuration.sampleRate) {
+                        throw new IllegalArgumentException("WAV sample rate " + sampleRate +
+                                " Hz does not match the configuration sample rate");
+                    }
+                } else if(chunkId == 0x61746164) {
+                    // data chunk
+                    if(channels == 0) {
+                        throw new IOException("WAV data chunk before fmt chunk");
+                    }
+                    // Length may be wrong on interrupted recordings
+                    final long dataLength = Math.min(chunkSize, channel.size() - position);
+                    return scan(channel, position, dataLength, channels, ByteOrder.LITTLE_ENDIAN);
+                }
+                // Chunks are word aligned
+                position += chunkSize + (chunkSize & 1);
+            }
+            throw new IOException("No data chunk in WAV file");
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        buffer.clear();
+        while(buffer.hasRemaining()) {
+            if(channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of file");
+            }
+        }
+    }
+
+    /**
+     * Decode 16 bits samples of a file
+     * @param channel File channel
+     * @param dataOffset Location of the first sample in bytes
+     * @param dataLength Length of the samples in bytes
+     * @param channels Number of interleaved channels, only the first one is analyzed
+     * @param byteOrder Byte order of the samples
+     * @return Decoded messages sorted by location
+     * @throws IOException If the file can not be mapped
+     */
+    List<Message> scan(FileChannel channel, long dataOffset, long dataLength, int channels, ByteOrder byteOrder)
+            throws IOException {
+        final int frameSize = 2 * channels;
+        final long totalSamples = dataLength / frameSize;
+        final ForkJoinPool scanPool = pool != null ? pool : new ForkJoinPool();
+        try {
+            long length = segmentLength;
+            if(length == 0) {
+                length = Math.max((long)getOverlapLength() * MINIMUM_SEGMENT_OVERLAP_RATIO,
+                        totalSamples / (4L * scanPool.getParallelism()));
+            }
+            length = Math.max(1, Math.min(length,
+                    MAXIMUM_MAPPED_SIZE / frameSize - warmupLength - maximumMessageLength));
+            final int segmentCount = (int)((totalSamples + length - 1) / length);
+            if(segmentCount == 0) {
+                return new ArrayList<>();
+            }
+            Segment[] segments = new Segment[segmentCount];
+            for(int idSegment = 0; idSegment < segmentCount; idSegment++) {
+                final long start = idSegment * length;
+                final long end = Math.min(totalSamples, start + length);
+                segments[idSegment] = new Segment(Math.max(0, start - warmupLength),
+                        Math.min(totalSamples, end + maximumMessageLength), start, end);
+            }
+            // Each task maps its own segment, so only the segments being decoded are mapped at the same time
+            SegmentSource source = new SegmentSource(channel, dataOffset, frameSize, byteOrder);
+            List<Message> messages;
+            try {
+                messages = scanPool.invoke(new ScanTask(source, segments, 0, segmentCount));
+            } catch (MappingException ex) {
+                throw ex.getCause();
+            }
+            return removeDuplicates(messages);
+        } finally {
+            if(scanPool != pool) {
+                scanPool.shutdown();
+            }
+        }
+    }
+
+    /**
+     * Decode a segment
+     * @param buffer Mapped samples of the segment, from {@link Segment#decodeStart} to {@link Segment#decodeEnd}
+     * @param frameSize Size in bytes of the samples of all channels
+     * @param segment Segment to decode
+     * @return Messages starting in the segment
+     */
+    List<Message> decodeSegment(ByteBuffer buffer, int frameSize, Segment segment) {
+        List<Message> messages = new ArrayList<>();
+        QRTone qrTone = new QRTone(configuration);
+        short[] samples = new short[CONVERSION_BUFFER_LENGTH];
+        // Mono samples are copied in bulk, only the first channel of interleaved samples is read
+        ShortBuffer monoSamples = frameSize == 2 ? buffer.asShortBuffer() : null;
+        final int length = buffer.capacity() / frameSize;
+        for(int cursor = 0; cursor < length; cursor += samples.length) {
+            final int windowLength = Math.min(samples.length, length - cursor);
+            if(monoSamples != null) {
+                monoSamples.get(samples, 0, windowLength);
+            } else {
+                for(int i = 0; i < windowLength; i++) {
+                    samples[i] = buffer.getShort((cursor + i) * frameSize);
+                }
+            }
+            // Stop on each tone end so that messages decoded at the same time are delivered one by one
+            for(int offset = 0; offset < windowLength; ) {
+                final int stepLength = Math.min(windowLength - offset, qrTone.getMaximumWindowLength());
+                if(qrTone.processSamples(samples, offset, offset + stepLength)) {
+                    final long location = segment.decodeStart + qrTone.gePayloadSampleIndex();
+                    if(location >= segment.start && location < segment.end) {
+                        messages.add(new Message(qrTone.getPayload(), location, qrTone.getFixedErrors()));
+                    }
+                }
+                offset += stepLength;
+            }
+            if(segment.decodeStart + qrTone.getPushedSamples() >= segment.end + triggerLatency &&
+                    !qrTone.isParsingSymbols()) {
+                // No message starting in this segment can be found anymore
+                break;
+            }
+        }
+        return messages;
+    }
+
+    /**
+     * Remove messages found twice near segment boundaries
+     * @param messages Messages of all segments
+     * @return Messages sorted by location
+     */
+    List<Message> removeDuplicates(List<Message> messages) {
+        Collections.sort(messages, new MessageSortByLocation());
+        List<Message> uniqueMessages = new ArrayList<>(messages.size());
+        for(Message message : messages) {
+            boolean duplicate = false;
+            for(int i = uniqueMessages.size() - 1; i >= 0; i--) {
+                Message other = uniqueMessages.get(i);
+                if(message.sampleIndex - other.sampleIndex > gateLength) {
+                    break;
+                }
+                if(Arrays.equals(message.payload, other.payload)) {
+                    duplicate = true;
+                    break;
+                }
+            }
+            if(!duplicate) {
+                uniqueMessages.add(message);
+            }
+        }
+        return uniqueMessages;
+    }
+
+    static class Segment {
+        // Location of the first and after the last decoded sample
+        final long decodeStart;
+        final long decodeEnd;
+        // Messages must start in [start, end[
+        final long start;
+        final long end;
+
+        Segment(long decodeStart, long decodeEnd, long start, long end) {
+            this.decodeStart = decodeStart;
+            this.decodeEnd = decodeEnd;
+            this.start = start;
+            this.end = end;
+        }
+    }
+
+    /**
+     * Location and format of the samples in the scanned file
+     */
+    private static class SegmentSource {
+        final FileChannel channel;
+        final long dataOffset;
+        final int frameSize;
+        final ByteOrder byteOrder;
+
+        SegmentSource(FileChannel channel, long dataOffset, int frameSize, ByteOrder byteOrder) {
+            this.channel = channel;
+            this.dataOffset = dataOffset;
+            this.frameSize = frameSize;
+            this.byteOrder = byteOrder;
+        }
+
+        ByteBuffer map(Segment segment) {
+            try {
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY,
+                        dataOffset + segment.decodeStart * frameSize,
+                        (segment.decodeEnd - segment.decodeStart) * frameSize);
+                buffer.order(byteOrder);
+                return buffer;
+            } catch (IOException ex) {
+                throw new MappingException(ex);
+            }
+        }
+    }
+
+    /**
+     * Carry the mapping failure of a task out of the fork/join pool
+     */
+    private static class MappingException extends RuntimeException {
+        MappingException(IOException cause) {
+            super(cause);
+        }
+
+        @Override
+        public synchronized IOException getCause() {
+            return (IOException) super.getCause();
+        }
+    }
+
+    private class ScanTask extends RecursiveTask<List<Message>> {
+        private final SegmentSource source;
+        private final Segment[] segments;
+        private final int from;
+        private final int to;
+
+        ScanTask(SegmentSource source, Segment[] segments, int from, int to) {
+            this.source = source;
+            this.segments = segments;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected List<Message> compute() {
+            if(to - from == 1) {
+                return decodeSegment(source.map(segments[from]), source.frameSize, segments[from]);
+            }
+            final int middle = (from + to) >>> 1;
+            ScanTask left = new ScanTask(source, segments, from, middle);
+            ScanTask right = new ScanTask(source, segments, middle, to);
+            left.fork();
+            List<Message> messages = new ArrayList<>(right.compute());
+            messages.addAll(0, left.join());
+            return messages;
+        }
+    }
+
+    /**
+     * Message found in a recording
+     */
+    public static class Message {
+        public final byte[] payload;
+        // Location of the first sample of the message, see {@link QRTone#gePayloadSampleIndex()}
+        public final long sampleIndex;
+        // Errors corrected by Reed-Solomon algorithm
+        public final int fixedErrors;
+
+        public Message(byte[] payload, long sampleIndex, int fixedErrors) {
+            this.payload = payload;
+            this.sampleIndex = sampleIndex;
+            this.fixedErrors = fixedErrors;
+        }
+    }
+
+    public static class MessageSortByLocation implements Comparator<Message> {
+        @Override
+        public int compare(Message message, Message other) {
+            return Long.valueOf(message.sampleIndex).compareTo(other.sampleIndex);
+        }
+    }
+}
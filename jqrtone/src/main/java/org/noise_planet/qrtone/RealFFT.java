@@ -0,0 +1,133 @@
+/*
+ * BSD 3-Clause License
+ *
+ * Copyright (c) Unité Mixte de Recherche en Acoustique Environnementale (univ-gustave-eiffel)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package org.noise_planet.qrtone;
+
+/**
+ * Radix-2 FFT of real signals.
+ * The real input of length N is packed into a complex signal of length N/2, then the spectrum is unpacked.
+ * Twiddle factors and bit reversal indices are computed once in the constructor.
+ * @link https://www.dsprelated.com/showarticle/63.php
+ */
+public class RealFFT {
+    private final int size;
+    private final int halfSize;
+    private final int[] bitReverse;
+    private final double[] cosTable;
+    private final double[] sinTable;
+    private final double[] re;
+    private final double[] im;
+
+    /**
+     * @param size Number of real samples, must be a power of two greater or equal to 4
+     */
+    public RealFFT(int size) {
+        if(size < 4 || Integer.bitCount(size) != 1) {
+            throw new IllegalArgumentException("FFT size must be a power of two greater or equal to 4");
+        }
+        this.size = size;
+        this.halfSize = size / 2;
+        bitReverse = new int[halfSize];
+        int bits = Integer.numberOfTrailingZeros(halfSize);
+        for(int i = 0; i < halfSize; i++) {
+            bitReverse[i] = bits == 0 ? 0 : Integer.reverse(i) >>> (32 - bits);
+        }
+        // e^(-2*pi*i*k/size) for k in [0, size/2[
+        cosTable = new double[halfSize];
+        sinTable = new double[halfSize];
+        for(int k = 0; k < halfSize; k++) {
+            cosTable[k] = Math.cos(QRTone.M2PI * k / size);
+            sinTable[k] = -Math.sin(QRTone.M2PI * k / size);
+        }
+        re = new double[halfSize];
+        im = new double[halfSize];
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Compute the spectrum of a real signal
+     * @param samples Real signal of {@link #getSize()} length, not modified
+     * @param spectrum Output, interleaved real and imaginary parts of the bins [0, size/2]. Length must be size + 2
+     */
+    public void forward(double[] samples, double[] spectrum) {
+        // Pack even samples on real part and odd samples on imaginary part
+        for(int i = 0; i < halfSize; i++) {
+            final int j = bitReverse[i];
+            re[j] = samples[2 * i];
+            im[j] = samples[2 * i + 1];
+        }
+        // Complex FFT of size N/2, twiddles of size N/2 are the even twiddles of size N
+        for(int length = 2; length <= halfSize; length <<= 1) {
+            final int half = length >> 1;
+            final int step = size / length;
+            for(int start = 0; start < halfSize; start += length) {
+                for(int k = 0; k < half; k++) {
+                    final double wr = cosTable[k * step];
+                    final double wi = sinTable[k * step];
+                    final int a = start + k;
+                    final int b = a + half;
+                    final double tr = re[b] * wr - im[b] * wi;
+                    final double ti = re[b] * wi + im[b] * wr;
+                    re[b] = re[a] - tr;
+                    im[b] = im[a] - ti;
+                    re[a] += tr;
+                    im[a] += ti;
+                }
+            }
+        }
+        // Unpack the spectrum of the real signal
+        spectrum[0] = re[0] + im[0];
+        spectrum[1] = 0;
+        spectrum[size] = re[0] - im[0];
+        spectrum[size + 1] = 0;
+        for(int k = 1; k < halfSize; k++) {
+            final double zr = re[k];
+            final double zi = im[k];
+            final double cr = re[halfSize - k];
+            final double ci = -im[halfSize - k];
+            // Even part
+            final double er = 0.5 * (zr + cr);
+            final double ei = 0.5 * (zi + ci);
+            // Odd part (Z[k] - conj(Z[N/2-k])) / 2j
+            final double or = 0.5 * (zi - ci);
+            final double oi = -0.5 * (zr - cr);
+            final double wr = cosTable[k];
+            final double wi = sinTable[k];
+            spectrum[2 * k] = er + or * wr - oi * wi;
+            spectrum[2 * k + 1] = ei + or * wi + oi * wr;
+        }
+    }
+}
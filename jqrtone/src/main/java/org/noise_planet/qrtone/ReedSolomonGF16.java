@@ -0,0 +1,311 @@
+/*
+ * BSD 3-Clause License
+ *
+ * Copyright (c) Unité Mixte de Recherche en Acoustique Environnementale (univ-gustave-eiffel)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package org.noise_planet.qrtone;
+
+/**
+ * Reed-Solomon codec specialized for the symbols of QRTone, GF(16) with the primitive polynomial x^4 + x + 1 and a
+ * generator base of 1 (same codes as {@link com.google.zxing.common.reedsolomon.GenericGF#AZTEC_PARAM}).
+ * Field operations are done with lookup tables and decoding uses the Berlekamp-Massey algorithm on preallocated
+ * arrays, a decoding failure is reported with {@link #DECODE_FAILED} instead of an exception.
+ * Instances hold work arrays, they must not be shared between threads.
+ */
+public class ReedSolomonGF16 {
+    public static final int DECODE_FAILED = -1;
+    static final int FIELD_SIZE = 16;
+    // Code words can not be longer than the multiplicative group of the field
+    public static final int MAXIMUM_CODE_WORD_LENGTH = FIELD_SIZE - 1;
+    private static final int PRIMITIVE = 0x13;
+    private static final int[] EXP = new int[MAXIMUM_CODE_WORD_LENGTH * 2];
+    private static final int[] LOG = new int[FIELD_SIZE];
+    private static final int[] INVERSE = new int[FIELD_SIZE];
+    // Product of a and b at index a * FIELD_SIZE + b
+    private static final int[] MULTIPLY = new int[FIELD_SIZE * FIELD_SIZE];
+    // Generator polynomial for each number of parity symbols, highest degree first without the leading 1
+    private static final int[][] GENERATORS = new int[MAXIMUM_CODE_WORD_LENGTH][];
+
+    static {
+        int x = 1;
+        for(int i = 0; i < EXP.length; i++) {
+            EXP[i] = x;
+            x <<= 1;
+            if(x >= FIELD_SIZE) {
+                x = (x ^ PRIMITIVE) & (FIELD_SIZE - 1);
+            }
+        }
+        for(int i = 0; i < MAXIMUM_CODE_WORD_LENGTH; i++) {
+            LOG[EXP[i]] = i;
+        }
+        for(int a = 1; a < FIELD_SIZE; a++) {
+            INVERSE[a] = EXP[MAXIMUM_CODE_WORD_LENGTH - LOG[a]];
+            for(int b = 1; b < FIELD_SIZE; b++) {
+                MULTIPLY[a * FIELD_SIZE + b] = EXP[LOG[a] + LOG[b]];
+            }
+        }
+        // g(x) = (x + a^1)(x + a^2)...(x + a^eccSymbols), lowest degree first while building
+        int[] generator = new int[MAXIMUM_CODE_WORD_LENGTH];
+        generator[0] = 1;
+        for(int eccSymbols = 1; eccSymbols < MAXIMUM_CODE_WORD_LENGTH; eccSymbols++) {
+            final int root = EXP[eccSymbols];
+            for(int i = eccSymbols; i > 0; i--) {
+                generator[i] = generator[i - 1] ^ MULTIPLY[generator[i] * FIELD_SIZE + root];
+            }
+            generator[0] = MULTIPLY[generator[0] * FIELD_SIZE + root];
+            GENERATORS[eccSymbols] = new int[eccSymbols];
+            for(int i = 0; i < eccSymbols; i++) {
+                GENERATORS[eccSymbols][i] = generator[eccSymbols - 1 - i];
+            }
+        }
+    }
+
+    private final int[] syndromes = new int[MAXIMUM_CODE_WORD_LENGTH];
+    // Polynomials of the Berlekamp-Massey algorithm, lowest degree first
+    private final int[] locator = new int[MAXIMUM_CODE_WORD_LENGTH * 2 + 1];
+    private final int[] previousLocator = new int[MAXIMUM_CODE_WORD_LENGTH * 2 + 1];
+    private final int[] swapLocator = new int[MAXIMUM_CODE_WORD_LENGTH * 2 + 1];
+    private final int[] evaluator = new int[MAXIMUM_CODE_WORD_LENGTH];
+    private final int[] errorPositions = new int[MAXIMUM_CODE_WORD_LENGTH];
+    private final int[] errorMagnitudes = new int[MAXIMUM_CODE_WORD_LENGTH];
+
+    static int multiply(int a, int b) {
+        return MULTIPLY[a * FIELD_SIZE + b];
+    }
+
+    private static void checkCodeWord(int[] codeWord, int eccSymbols) {
+        if(eccSymbols <= 0) {
+            throw new IllegalArgumentException("No error correction symbols");
+        }
+        if(codeWord.length - eccSymbols <= 0) {
+            throw new IllegalArgumentException("No data symbols provided");
+        }
+        if(codeWord.length > MAXIMUM_CODE_WORD_LENGTH) {
+            throw new IllegalArgumentException("Code word can not be longer than " + MAXIMUM_CODE_WORD_LENGTH);
+        }
+    }
+
+    /**
+     * Compute the parity symbols, same result as {@link com.google.zxing.common.reedsolomon.ReedSolomonEncoder}
+     * @param toEncode Data symbols followed by eccSymbols entries that receive the parity symbols
+     * @param eccSymbols Number of parity symbols
+     */
+    public void encode(int[] toEncode, int eccSymbols) {
+        checkCodeWord(toEncode, eccSymbols);
+        final int[] generator = GENERATORS[eccSymbols];
+        final int dataSymbols = toEncode.length - eccSymbols;
+        for(int i = dataSymbols; i < toEncode.length; i++) {
+            toEncode[i] = 0;
+        }
+        // Remainder of the division by the generator polynomial, computed in the parity symbols
+        for(int i = 0; i < dataSymbols; i++) {
+            final int feedback = (toEncode[i] ^ toEncode[dataSymbols]) * FIELD_SIZE;
+            for(int j = 0; j < eccSymbols - 1; j++) {
+                toEncode[dataSymbols + j] = toEncode[dataSymbols + j + 1] ^ MULTIPLY[feedback + generator[j]];
+            }
+            toEncode[toEncode.length - 1] = MULTIPLY[feedback + generator[eccSymbols - 1]];
+        }
+    }
+
+    /**
+     * Compute the parity symbols of a code word stored in a symbol array, without allocation
+     * @param codeWords Symbols array
+     * @param from Index of the first data symbol
+     * @param dataSymbols Number of data symbols, the parity symbols are written after them
+     * @param paddingSymbols Number of zero symbols implicitly following the data symbols in the code word
+     * @param eccSymbols Number of parity symbols
+     */
+    public static void encode(byte[] codeWords, int from, int dataSymbols, int paddingSymbols, int eccSymbols) {
+        if(eccSymbols <= 0) {
+            throw new IllegalArgumentException("No error correction symbols");
+        }
+        if(dataSymbols + paddingSymbols + eccSymbols > MAXIMUM_CODE_WORD_LENGTH) {
+            throw new IllegalArgumentException("Code word can not be longer than " + MAXIMUM_CODE_WORD_LENGTH);
+        }
+        final int[] generator = GENERATORS[eccSymbols];
+        final int parity = from + dataSymbols;
+        for(int i = parity; i < parity + eccSymbols; i++) {
+            codeWords[i] = 0;
+        }
+        for(int i = 0; i < dataSymbols + paddingSymbols; i++) {
+            final int data = i < dataSymbols ? codeWords[from + i] : 0;
+            final int feedback = (data ^ codeWords[parity]) * FIELD_SIZE;
+            for(int j = 0; j < eccSymbols - 1; j++) {
+                codeWords[parity + j] = (byte)(codeWords[parity + j + 1] ^ MULTIPLY[feedback + generator[j]]);
+            }
+            codeWords[parity + eccSymbols - 1] = (byte)MULTIPLY[feedback + generator[eccSymbols - 1]];
+        }
+    }
+
+    /**
+     * Fix errors in place
+     * @param received Data and parity symbols
+     * @param twoS Number of parity symbols
+     * @return Number of fixed symbols or {@link #DECODE_FAILED}
+     */
+    public int decode(int[] received, int twoS) {
+        return decode(received, twoS, null, 0);
+    }
+
+    /**
+     * Fix errors and erasures in place, v errors and e erasures are fixed as long as 2v + e &lt;= twoS.
+     * The received symbols are left untouched if decoding fails.
+     * @param received Data and parity symbols
+     * @param twoS Number of parity symbols
+     * @param erasures Indices in received of the symbols known to be unreliable
+     * @param erasuresCount Number of erasures to read from erasures
+     * @return Number of fixed symbols or {@link #DECODE_FAILED}
+     */
+    public int decode(int[] received, int twoS, int[] erasures, int erasuresCount) {
+        checkCodeWord(received, twoS);
+        final int length = received.length;
+        // Syndrome-only fast path, nothing else is done for a clean block
+        boolean noError = true;
+        for(int i = 0; i < twoS; i++) {
+            final int root = EXP[i + 1];
+            int eval = 0;
+            for(int j = 0; j < length; j++) {
+                eval = MULTIPLY[eval * FIELD_SIZE + root] ^ received[j];
+            }
+            syndromes[i] = eval;
+            noError &= eval == 0;
+        }
+        if(noError) {
+            return 0;
+        }
+        if(erasuresCount > twoS) {
+            return DECODE_FAILED;
+        }
+        // Start with the erasure locator, product of (1 + X x) for each erased location X
+        final int polynomialLength = twoS * 2 + 1;
+        for(int i = 0; i < polynomialLength; i++) {
+            locator[i] = 0;
+        }
+        locator[0] = 1;
+        for(int e = 0; e < erasuresCount; e++) {
+            final int position = erasures[e];
+            if(position < 0 || position >= length) {
+                throw new IllegalArgumentException("Bad erasure location");
+            }
+            final int location = EXP[length - 1 - position];
+            for(int i = e + 1; i > 0; i--) {
+                locator[i] ^= MULTIPLY[locator[i - 1] * FIELD_SIZE + location];
+            }
+        }
+        System.arraycopy(locator, 0, previousLocator, 0, polynomialLength);
+        // Berlekamp-Massey algorithm
+        int degree = erasuresCount;
+        int shift = 1;
+        int lastDiscrepancy = 1;
+        for(int r = erasuresCount; r < twoS; r++) {
+            int discrepancy = syndromes[r];
+            for(int i = 1; i <= degree; i++) {
+                discrepancy ^= MULTIPLY[locator[i] * FIELD_SIZE + syndromes[r - i]];
+            }
+            if(discrepancy == 0) {
+                shift++;
+                continue;
+            }
+            final int scale = MULTIPLY[discrepancy * FIELD_SIZE + INVERSE[lastDiscrepancy]] * FIELD_SIZE;
+            final boolean lengthChange = 2 * degree <= r + erasuresCount;
+            if(lengthChange) {
+                System.arraycopy(locator, 0, swapLocator, 0, polynomialLength);
+            }
+            for(int i = 0; i + shift < polynomialLength; i++) {
+                locator[i + shift] ^= MULTIPLY[scale + previousLocator[i]];
+            }
+            if(lengthChange) {
+                degree = r + 1 + erasuresCount - degree;
+                System.arraycopy(swapLocator, 0, previousLocator, 0, polynomialLength);
+                lastDiscrepancy = discrepancy;
+                shift = 1;
+            } else {
+                shift++;
+            }
+        }
+        // Each error costs two parity symbols, each erasure one
+        if(2 * degree - erasuresCount > twoS || degree > length) {
+            return DECODE_FAILED;
+        }
+        // Chien search restricted to the locations of the code word
+        int found = 0;
+        for(int position = 0; position < length; position++) {
+            final int inverseLocation = EXP[MAXIMUM_CODE_WORD_LENGTH - (length - 1 - position)];
+            int eval = 0;
+            for(int i = degree; i >= 0; i--) {
+                eval = MULTIPLY[eval * FIELD_SIZE + inverseLocation] ^ locator[i];
+            }
+            if(eval == 0) {
+                if(found == degree) {
+                    return DECODE_FAILED;
+                }
+                errorPositions[found++] = position;
+            }
+        }
+        if(found != degree) {
+            return DECODE_FAILED;
+        }
+        // Error evaluator, syndromes times locator modulo x^degree
+        for(int i = 0; i < degree; i++) {
+            int value = 0;
+            for(int j = 0; j <= i; j++) {
+                value ^= MULTIPLY[syndromes[j] * FIELD_SIZE + locator[i - j]];
+            }
+            evaluator[i] = value;
+        }
+        // Forney algorithm
+        for(int k = 0; k < found; k++) {
+            final int inverseLocation = EXP[MAXIMUM_CODE_WORD_LENGTH - (length - 1 - errorPositions[k])];
+            int numerator = 0;
+            for(int i = degree - 1; i >= 0; i--) {
+                numerator = MULTIPLY[numerator * FIELD_SIZE + inverseLocation] ^ evaluator[i];
+            }
+            // Formal derivative of the locator keeps odd degrees only in characteristic 2
+            final int squaredInverseLocation = MULTIPLY[inverseLocation * FIELD_SIZE + inverseLocation];
+            int denominator = 0;
+            for(int i = degree - (degree % 2 == 0 ? 1 : 0); i >= 1; i -= 2) {
+                denominator = MULTIPLY[denominator * FIELD_SIZE + squaredInverseLocation] ^ locator[i];
+            }
+            if(denominator == 0) {
+                return DECODE_FAILED;
+            }
+            errorMagnitudes[k] = MULTIPLY[numerator * FIELD_SIZE + INVERSE[denominator]];
+        }
+        int fixed = 0;
+        for(int k = 0; k < found; k++) {
+            if(errorMagnitudes[k] != 0) {
+                received[errorPositions[k]] ^= errorMagnitudes[k];
+                fixed++;
+            }
+        }
+        return fixed;
+    }
+}
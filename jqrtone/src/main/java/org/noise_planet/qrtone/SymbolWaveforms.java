@@ -0,0 +1,129 @@
+/*
+ * BSD 3-Clause License
+ *
+ * Copyright (c) Unité Mixte de Recherche en Acoustique Environnementale (univ-gustave-eiffel)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+
+package org.noise_planet.qrtone;
+
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Windowed waveforms of the tones of a configuration. The oscillators are reset at the start of each word and each
+ * gate, so every occurrence of a tone has the same samples: messages are rendered by adding the cached waveforms.
+ * Waveforms are shared by all the encoders using the same configuration instance.
+ */
+final class SymbolWaveforms {
+    private static final Map<Configuration, SymbolWaveforms> CACHE = new WeakHashMap<Configuration, SymbolWaveforms>();
+    // Tone of each frequency multiplied by the Tukey window of a word
+    private final float[][] words;
+    // First and second gate tones multiplied by the Hann window of a gate
+    private final float[][] gates;
+
+    private SymbolWaveforms(double sampleRate, double[] frequencies, int wordLength, int gateLength,
+                            double tukeyAlpha) {
+        words = new float[frequencies.length][wordLength];
+        for(int idFreq = 0; idFreq < frequencies.length; idFreq++) {
+            IterativeTone tone = new IterativeTone(frequencies[idFreq], sampleRate);
+            IterativeTukey tukeyWindow = new IterativeTukey(wordLength, tukeyAlpha);
+            for(int i = 0; i < wordLength; i++) {
+                words[idFreq][i] = (float) (tone.next() * tukeyWindow.next());
+            }
+        }
+        final double[] gateFrequencies = new double[]{frequencies[QRTone.FREQUENCY_ROOT],
+                frequencies[QRTone.FREQUENCY_ROOT + 2]};
+        gates = new float[gateFrequencies.length][gateLength];
+        for(int idGate = 0; idGate < gateFrequencies.length; idGate++) {
+            IterativeTone tone = new IterativeTone(gateFrequencies[idGate], sampleRate);
+            IterativeHann hannWindow = new IterativeHann(gateLength);
+            for(int i = 0; i < gateLength; i++) {
+                gates[idGate][i] = (float) (tone.next() * hannWindow.next());
+            }
+        }
+    }
+
+    /**
+     * @param configuration Configuration, the waveforms are computed on the first call for this instance
+     * @param tukeyAlpha Tukey window parameter of the words
+     * @return Shared waveforms
+     */
+    static SymbolWaveforms getWaveforms(Configuration configuration, double tukeyAlpha) {
+        synchronized (CACHE) {
+            SymbolWaveforms waveforms = CACHE.get(configuration);
+            if(waveforms == null) {
+                waveforms = new SymbolWaveforms(configuration.sampleRate,
+                        configuration.computeFrequencies(QRTone.NUM_FREQUENCIES),
+                        (int)(configuration.sampleRate * configuration.wordTime),
+                        (int)(configuration.sampleRate * configuration.gateTime), tukeyAlpha);
+                CACHE.put(configuration, waveforms);
+            }
+            return waveforms;
+        }
+    }
+
+    /**
+     * Add a part of a gate tone to samples
+     * @param gateIndex 0 for the first gate, 1 for the second gate
+     * @param from First sample of the gate to add
+     * @param samples Output samples
+     * @param offset Index of the first written sample
+     * @param length Number of samples to add
+     * @param power Signal power
+     */
+    void addGate(int gateIndex, int from, float[] samples, int offset, int length, double power) {
+        final float[] gate = gates[gateIndex];
+        final float gain = (float) power;
+        for(int i = 0; i < length; i++) {
+            samples[offset + i] += gate[from + i] * gain;
+        }
+    }
+
+    /**
+     * Add a part of the word of two symbols to samples
+     * @param firstFrequency Frequency index of the first symbol
+     * @param secondFrequency Frequency index of the second symbol
+     * @param from First sample of the word to add
+     * @param samples Output samples
+     * @param offset Index of the first written sample
+     * @param length Number of samples to add
+     * @param power Power of each tone
+     */
+    void addWord(int firstFrequency, int secondFrequency, int from, float[] samples, int offset, int length,
+                 double power) {
+        final float[] first = words[firstFrequency];
+        final float[] second = words[secondFrequency];
+        final float gain = (float) power;
+        for(int i = 0; i < length; i++) {
+            samples[offset + i] += (first[from + i] + second[from + i]) * gain;
+        }
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * BSD 3-Clause License
+ *
+ * Copyright (c) Unité Mixte de Recherche en Acoustique Environnementale (univ-gustave-eiffel)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package org.noise_planet.qrtone;
+
+/**
+ * Evaluate the level of all tone frequencies over the duration of a word.
+ * Implementations select the samples they need from the word, the samples are pushed in order.
+ */
+public interface ToneAnalyzer {
+    /**
+     * Push samples of the current word
+     * @param samples Audio samples
+     * @param from First sample index
+     * @param to Excluded last sample index
+     * @param wordCursor Location of samples[from] relative to the beginning of the word
+     */
+    void processSamples(float[] samples, int from, int to, int wordCursor);
+
+    /**
+     * Push 16 bits PCM samples of the current word, sample / 32767 is the equivalent float sample
+     * @param samples Audio samples
+     * @param from First sample index
+     * @param to Excluded last sample index
+     * @param wordCursor Location of samples[from] relative to the beginning of the word
+     */
+    void processSamples(short[] samples, int from, int to, int wordCursor);
+
+    /**
+     * Evaluate the levels of the word then reset the analyzer for the next word
+     * @param spl Where to write the level in dB of each frequency
+     */
+    void computeSpl(double[] spl);
+
+    void reset();
+
+    /**
+     * @return New analyzer with its own state, sharing the tables of this analyzer. Used to analyze several words
+     * that overlap in time.
+     */
+    ToneAnalyzer duplicate();
+}
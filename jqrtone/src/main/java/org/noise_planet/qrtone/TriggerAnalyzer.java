@@ -34,36 +34,142 @@
 package org.noise_planet.qrtone;
 
 import java.util.Arrays;
-import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Analyse audio samples in order to detect trigger signal
  * Evaluate the exact position of the first tone
+ *
+ * Hann windowed levels of the trigger frequencies are computed in a single pass over the samples, whatever the
+ * overlap of the analysis windows. The window is split into blocks of hop length. For each block, Goertzel filters
+ * compute the partial DFT of the trigger frequencies and of the two neighbors frequencies +-1/(N-1) cycle per sample.
+ * When a block is complete the DFT of the window is the phase shifted sum of the last block partials, and the Hann
+ * window is applied in the frequency domain:
+ * X_hann(w) = 0.5 X(w) - 0.25 X(w - 2pi/(N-1)) - 0.25 X(w + 2pi/(N-1))
+ *
+ * 16 bits PCM samples are filtered in integer arithmetic, see {@link FixedPoint}. The partial DFT of a block is
+ * always evaluated in double precision.
+ *
+ * While the level of the last trigger frequency stays below the background noise plus the trigger SNR the analyzer
+ * is idle: only the Goertzel filters of the last trigger frequency run, its levels feed the background noise and the
+ * peak finder as when all the frequencies are evaluated. A damped resonator tuned on the last trigger frequency
+ * feeds a running sum of squares, it has the noise bandwidth of the Hann window and wakes up the analyzer when its
+ * windowed energy comes near the trigger threshold. The samples received while idle are kept, when the analyzer
+ * wakes up the levels of the other frequencies in the level history are computed from these samples. A peak above
+ * the trigger threshold also wakes up the analyzer before the other frequencies are checked, so the trigger
+ * location is the same as without idle mode. All levels are evaluated while a trigger callback is set.
  */
 public class TriggerAnalyzer {
     public static final double M2PI = Math.PI * 2;
     public static final double PERCENTILE_BACKGROUND = 0.5;
-    private AtomicInteger processedWindowAlpha = new AtomicInteger(0);
-    private AtomicInteger processedWindowBeta = new AtomicInteger(0);
+    // Evaluated frequencies for each trigger frequency (Hann window side lobes and main frequency)
+    private static final int BINS_PER_FREQUENCY = 3;
+    private static final double[] HANN_BINS_WEIGHT = new double[] {-0.25, 0.5, -0.25};
+    // 16 bits samples are converted by chunks of this size if the integer filters are not precise enough
+    private static final int CONVERSION_BUFFER_LENGTH = 256;
+    private static final float PCM_INVERSE_SCALE = 1 / FixedPoint.PCM_SCALE;
+    // The idle analyzer wakes up when the level estimated by the resonator is this close to the trigger threshold
+    private static final double IDLE_WAKE_UP_MARGIN = 6;
+    private static final int RESONATOR_STEP = 4;
     private final int windowOffset;
     private final int gateLength;
-    private IterativeGeneralizedGoertzel[] frequencyAnalyzersAlpha;
-    private IterativeGeneralizedGoertzel[] frequencyAnalyzersBeta;
+    private final int blocksPerWindow;
+    // Goertzel coefficients and states of each bin
+    private final double[] cosPikTerm2;
+    private final double[] s1;
+    private final double[] s2;
+    // 2cos(w) in fixed point and integer Goertzel states of each bin, null if the frequencies are too close to 0
+    // or to the Nyquist frequency for integer filters
+    private final long[] coefficient;
+    private final int coefficientBits;
+    private final long[] fixedS1;
+    private final long[] fixedS2;
+    // True if the states of the current block are in fixedS1 and fixedS2
+    private boolean fixedPointStates = false;
+    private final float[] conversionBuffer;
+    // Samples of the blocks received while idle, 16 bits PCM samples are stored divided by PCM_SCALE
+    private final float[] lookback;
+    // True if the block has been processed with the integer Goertzel states
+    private final boolean[] lookbackFixedPoint;
+    // Only the last frequency is evaluated while idle
+    private boolean idle = true;
+    // First block received while idle
+    private int idleFirstBlock = 0;
+    // Number of consecutive windows with a level of the last frequency below the trigger threshold
+    private int quietWindows = 0;
+    // First Goertzel bin of the last trigger frequency
+    private final int lastFrequencyBin;
+    private final int historyLength;
+    private final double[] replayStates = new double[2];
+    // Damped resonator y[n] = x[n] + a1 y[n-1] - a2 y[n-2] on the last trigger frequency, evaluated while idle
+    private final double resonatorA1;
+    private final double resonatorA2;
+    // Look-ahead form computing 4 outputs from the last 2 outputs, only the state terms are a dependency chain:
+    // y[n+k] = sum(h[j] x[n+k-j], j=0..k) + c[k] y[n-1] + d[k] y[n-2]
+    private final double[] resonatorH = new double[RESONATOR_STEP];
+    private final double[] resonatorC = new double[RESONATOR_STEP];
+    private final double[] resonatorD = new double[RESONATOR_STEP];
+    private double resonatorY1 = 0;
+    private double resonatorY2 = 0;
+    // Energy of the resonator output of the current block and of the blocks of the window
+    private double blockEnergy = 0;
+    private final double[] windowBlocksEnergy;
+    // Converts the resonator energy of a window to the Hann windowed power of the last trigger frequency
+    private final double resonatorEnergyScale;
+    // e^(-i*w) and e^(-i*w*(hop-1)) of each bin
+    private final double[] cosPikTerm;
+    private final double[] sinPikTerm;
+    private final double[] cosBlockEnd;
+    private final double[] sinBlockEnd;
+    // e^(-i*w*hop*k) for each block k of the window
+    private final double[] cosBlockShift;
+    private final double[] sinBlockShift;
+    // Ring buffer of the partial DFT of the last blocks of each bin
+    private final double[] blockRe;
+    private final double[] blockIm;
+    private int blockCursor = 0;
+    private int processedBlocks = 0;
+    private int processedBlockSamples = 0;
+    private final double rmsFactor;
     final ApproximatePercentile backgroundNoiseEvaluator;
-    final CircularArray[] splHistory;
-    private float[] hannWindowCache;
+    // Levels of the last windows, one channel per frequency
+    final FloatRingBuffer splHistory;
     final PeakFinder peakFinder;
+    // Levels of the last window, reused for each window
+    private final double[] splLevels;
     private final int windowAnalyze;
     private TriggerCallback triggerCallback = null;
     final double[] frequencies;
     final double sampleRate;
     public final double triggerSnr;
     private long firstToneLocation = -1;
+    // Background noise level and peak interpolation offset of the last trigger
+    private double triggerNoiseLevel = 0;
+    private long triggerTimingOffset = 0;
 
-
-
+    /**
+     * Analysis windows with 50% overlap
+     */
     public TriggerAnalyzer(double sampleRate, int gateLength, double[] frequencies, int windowLength, double triggerSnr) {
-        this.windowAnalyze = windowLength;
+        this(sampleRate, gateLength, frequencies, windowLength, windowLength / 2, triggerSnr);
+    }
+
+    /**
+     * @param sampleRate Sampling rate in Hz
+     * @param gateLength Gate tone length in samples
+     * @param frequencies Gate frequencies in Hz
+     * @param windowLength Analysis window length in samples
+     * @param windowOffset Hop size between two analysis windows in samples, the window length is truncated to a
+     *                     multiple of this value
+     * @param triggerSnr Minimum gate level over background noise in dB
+     */
+    public TriggerAnalyzer(double sampleRate, int gateLength, double[] frequencies, int windowLength,
+                           int windowOffset, double triggerSnr) {
+        if(windowOffset <= 0 || windowOffset > windowLength) {
+            throw new IllegalArgumentException("Window offset must be in ]0, windowLength]");
+        }
+        this.blocksPerWindow = windowLength / windowOffset;
+        this.windowOffset = windowOffset;
+        this.windowAnalyze = blocksPerWindow * windowOffset;
         this.frequencies = frequencies;
         this.sampleRate = sampleRate;
         this.triggerSnr = triggerSnr;
@@ -71,104 +177,478 @@ public class TriggerAnalyzer {
         if(windowAnalyze < Configuration.computeMinimumWindowSize(sampleRate, frequencies[0], frequencies[1])) {
             throw new IllegalArgumentException("Tone length are not compatible with sample rate and selected frequencies");
         }
-        // 50% overlap
-        windowOffset = windowAnalyze / 2;
-        frequencyAnalyzersAlpha = new IterativeGeneralizedGoertzel[frequencies.length];
-        frequencyAnalyzersBeta = new IterativeGeneralizedGoertzel[frequencies.length];
         backgroundNoiseEvaluator = new ApproximatePercentile(PERCENTILE_BACKGROUND);
-        splHistory = new CircularArray[frequencies.length];
         peakFinder = new PeakFinder();
+        splLevels = new double[frequencies.length];
         peakFinder.setMinDecreaseCount((gateLength / 2) / windowOffset);
-        hannWindowCache = new float[windowLength / 2 + 1];
-        for(int i=0; i < hannWindowCache.length; i++) {
-            hannWindowCache[i] = (float)(0.5 - 0.5 * Math.cos((M2PI * i) / (windowLength - 1)));
+        final int binCount = frequencies.length * BINS_PER_FREQUENCY;
+        cosPikTerm2 = new double[binCount];
+        s1 = new double[binCount];
+        s2 = new double[binCount];
+        cosPikTerm = new double[binCount];
+        sinPikTerm = new double[binCount];
+        cosBlockEnd = new double[binCount];
+        sinBlockEnd = new double[binCount];
+        cosBlockShift = new double[binCount * blocksPerWindow];
+        sinBlockShift = new double[binCount * blocksPerWindow];
+        blockRe = new double[binCount * blocksPerWindow];
+        blockIm = new double[binCount * blocksPerWindow];
+        // Hann window w(n) = 0.5 - 0.5 cos(2*pi*n/(N-1)) is the sum of three complex exponentials
+        final double hannTerm = M2PI / (windowAnalyze - 1);
+        for(int i=0; i<frequencies.length; i++) {
+            for(int side = 0; side < BINS_PER_FREQUENCY; side++) {
+                final int bin = i * BINS_PER_FREQUENCY + side;
+                final double pikTerm = M2PI * frequencies[i] / sampleRate + (side - 1) * hannTerm;
+                cosPikTerm2[bin] = 2 * Math.cos(pikTerm);
+                cosPikTerm[bin] = Math.cos(pikTerm);
+                sinPikTerm[bin] = Math.sin(pikTerm);
+                cosBlockEnd[bin] = Math.cos(pikTerm * (windowOffset - 1));
+                sinBlockEnd[bin] = Math.sin(pikTerm * (windowOffset - 1));
+                for(int block = 0; block < blocksPerWindow; block++) {
+                    cosBlockShift[bin * blocksPerWindow + block] = Math.cos(pikTerm * windowOffset * block);
+                    sinBlockShift[bin * blocksPerWindow + block] = -Math.sin(pikTerm * windowOffset * block);
+                }
+            }
         }
+        lastFrequencyBin = (frequencies.length - 1) * BINS_PER_FREQUENCY;
+        historyLength = (gateLength * 3) / windowOffset;
+        splHistory = new FloatRingBuffer(frequencies.length, historyLength);
+        // Each window of the history needs the blocks of the previous blocksPerWindow - 1 windows
+        lookbackFixedPoint = new boolean[historyLength + blocksPerWindow - 1];
+        lookback = new float[lookbackFixedPoint.length * windowOffset];
+        rmsFactor = Math.sqrt(2) / windowAnalyze;
+        final double[] pikTerms = new double[binCount];
+        final int[] blockSizes = new int[binCount];
         for(int i=0; i<frequencies.length; i++) {
-            frequencyAnalyzersAlpha[i] = new IterativeGeneralizedGoertzel(sampleRate, frequencies[i], windowLength, false);
-            frequencyAnalyzersBeta[i] = new IterativeGeneralizedGoertzel(sampleRate, frequencies[i], windowLength, false);
-            splHistory[i] = new CircularArray((gateLength * 3) / windowOffset);
+            for(int side = 0; side < BINS_PER_FREQUENCY; side++) {
+                pikTerms[i * BINS_PER_FREQUENCY + side] = M2PI * frequencies[i] / sampleRate + (side - 1) * hannTerm;
+            }
+        }
+        Arrays.fill(blockSizes, windowOffset);
+        long[] fixedCoefficient = null;
+        int fixedCoefficientBits = 0;
+        try {
+            fixedCoefficientBits = FixedPoint.coefficientBits(pikTerms, blockSizes);
+            fixedCoefficient = new long[binCount];
+            for(int bin = 0; bin < binCount; bin++) {
+                fixedCoefficient[bin] = FixedPoint.coefficient(pikTerms[bin], fixedCoefficientBits);
+            }
+        } catch (IllegalArgumentException ex) {
+            // 16 bits samples will be converted to float
+        }
+        coefficient = fixedCoefficient;
+        coefficientBits = fixedCoefficientBits;
+        conversionBuffer = coefficient == null ? new float[CONVERSION_BUFFER_LENGTH] : null;
+        fixedS1 = new long[binCount];
+        fixedS2 = new long[binCount];
+        double hannSum = 0;
+        double hannSquareSum = 0;
+        for(int i = 0; i < windowAnalyze; i++) {
+            final double w = 0.5 - 0.5 * Math.cos(i * hannTerm);
+            hannSum += w;
+            hannSquareSum += w * w;
+        }
+        // The pole radius gives the resonator the noise to tone power ratio of the Hann window
+        final double resonatorFrequency = M2PI * frequencies[frequencies.length - 1] / sampleRate;
+        final double hannNoiseGain = 2 * hannSquareSum / (hannSum * hannSum);
+        double minimumRadius = 0;
+        double maximumRadius = 1;
+        for(int i = 0; i < 50; i++) {
+            final double radius = (minimumRadius + maximumRadius) / 2;
+            if(resonatorNoiseGain(radius, resonatorFrequency) > hannNoiseGain) {
+                minimumRadius = radius;
+            } else {
+                maximumRadius = radius;
+            }
+        }
+        final double poleRadius = (minimumRadius + maximumRadius) / 2;
+        resonatorA1 = 2 * poleRadius * Math.cos(resonatorFrequency);
+        resonatorA2 = poleRadius * poleRadius;
+        // c[k] = a1 c[k-1] - a2 c[k-2] with c[-1] = 1, c[-2] = 0 and d[-1] = 0, d[-2] = 1, h[k] = c[k-1]
+        double c2 = 0, c1 = 1, d2 = 1, d1 = 0;
+        for(int k = 0; k < RESONATOR_STEP; k++) {
+            resonatorH[k] = c1;
+            final double c0 = resonatorA1 * c1 - resonatorA2 * c2;
+            final double d0 = resonatorA1 * d1 - resonatorA2 * d2;
+            resonatorC[k] = c0;
+            resonatorD[k] = d0;
+            c2 = c1;
+            c1 = c0;
+            d2 = d1;
+            d1 = d0;
         }
+        // A tone of amplitude A has a Hann windowed level of (A sum(w) / 2)^2 rmsFactor^2 and a resonator output
+        // power of A^2 |H(w)|^2 / 2
+        resonatorEnergyScale = hannSum * hannSum * rmsFactor * rmsFactor /
+                (2 * windowAnalyze * resonatorPowerGain(resonatorA1, resonatorA2, resonatorFrequency));
+        windowBlocksEnergy = new double[blocksPerWindow];
+    }
+
+    /**
+     * @return Power gain |H(w)|^2 of the resonator 1 / (1 - a1 z^-1 + a2 z^-2)
+     */
+    private static double resonatorPowerGain(double a1, double a2, double w) {
+        final double re = 1 - a1 * Math.cos(w) + a2 * Math.cos(2 * w);
+        final double im = a1 * Math.sin(w) - a2 * Math.sin(2 * w);
+        return 1 / (re * re + im * im);
+    }
+
+    /**
+     * @param radius Pole radius of the resonator
+     * @param w Resonance frequency in radians per sample
+     * @return White noise power gain sum(h^2) of the resonator relative to its power gain at the resonance frequency
+     */
+    private static double resonatorNoiseGain(double radius, double w) {
+        final double a1 = 2 * radius * Math.cos(w);
+        final double a2 = radius * radius;
+        final double noiseGain = (1 + a2) / ((1 - a2) * ((1 + a2) * (1 + a2) - a1 * a1));
+        return noiseGain / resonatorPowerGain(a1, a2, w);
     }
 
     public void reset() {
         firstToneLocation = -1;
         peakFinder.reset();
-        processedWindowAlpha.set(0);
-        processedWindowBeta.set(0);
-        for(int i=0; i<frequencies.length; i++) {
-            frequencyAnalyzersAlpha[i].reset();
-            frequencyAnalyzersBeta[i].reset();
-            splHistory[i].clear();
+        processedBlockSamples = 0;
+        processedBlocks = 0;
+        blockCursor = 0;
+        for(int bin = 0; bin < s1.length; bin++) {
+            s1[bin] = 0;
+            s2[bin] = 0;
+            fixedS1[bin] = 0;
+            fixedS2[bin] = 0;
+        }
+        fixedPointStates = false;
+        splHistory.clear();
+        quietWindows = 0;
+        idle = false;
+        if(triggerCallback == null) {
+            sleep();
         }
     }
 
+    /**
+     * @param triggerCallback Receive the levels of each window and the triggers, all the trigger frequencies are
+     *                        evaluated while a callback is set
+     */
     public void setTriggerCallback(TriggerCallback triggerCallback) {
         this.triggerCallback = triggerCallback;
+        if(triggerCallback != null && idle) {
+            wakeUp();
+        }
+    }
+
+    /**
+     * @return True if the trigger frequencies are not evaluated
+     */
+    boolean isIdle() {
+        return idle;
+    }
+
+    /**
+     * Stop the evaluation of the trigger frequencies except the last one, must be called on a block boundary
+     */
+    private void sleep() {
+        idle = true;
+        idleFirstBlock = processedBlocks;
+        resonatorY1 = 0;
+        resonatorY2 = 0;
+        blockEnergy = 0;
+        Arrays.fill(windowBlocksEnergy, 0);
     }
 
     public long getFirstToneLocation() {
         return firstToneLocation;
     }
 
-    private void doProcess(float[] samples, long totalProcessed, AtomicInteger windowProcessed,
-                           IterativeGeneralizedGoertzel[] frequencyAnalyzers) {
-        int processed = 0;
-        while(firstToneLocation == -1 && processed < samples.length) {
-            int toProcess = Math.min(samples.length - processed,windowAnalyze - windowProcessed.get());
-            // Apply Hann window
-            for(int i=0; i < toProcess; i++) {
-                final float hann = i + windowProcessed.get() < hannWindowCache.length ? hannWindowCache[i + windowProcessed.get()] : hannWindowCache[(windowAnalyze - 1) - (i + windowProcessed.get())];
-                samples[i+processed] *= hann;
-            }
-            for(int idfreq = 0; idfreq < frequencyAnalyzers.length; idfreq++) {
-                frequencyAnalyzers[idfreq].processSamples(samples, processed, processed + toProcess);
-            }
-            processed += toProcess;
-            windowProcessed.addAndGet(toProcess);
-            if(windowProcessed.get() == windowAnalyze) {
-                windowProcessed.set(0);
-                double[] splLevels = new double[frequencies.length];
-                for(int idfreq = 0; idfreq < frequencies.length; idfreq++) {
-                    double splLevel = 20 * Math.log10(frequencyAnalyzers[idfreq].
-                            computeRMS(false).rms);
-                    splLevels[idfreq] = splLevel;
-                    if(idfreq == frequencies.length - 1) {
-                        backgroundNoiseEvaluator.add(splLevel);
-                    }
-                    splHistory[idfreq].add((float)splLevel);
+    /**
+     * @return Background noise level in dB of the last gate frequency when the last trigger has been fired
+     */
+    public double getTriggerNoiseLevel() {
+        return triggerNoiseLevel;
+    }
+
+    /**
+     * @return Offset in samples between the analysis window of the peak level and the interpolated peak location of
+     * the last trigger
+     */
+    public long getTriggerTimingOffset() {
+        return triggerTimingOffset;
+    }
+
+    /**
+     * @return Analysis window length in samples
+     */
+    public int getWindowLength() {
+        return windowAnalyze;
+    }
+
+    /**
+     * @return Hop size between two analysis windows in samples
+     */
+    public int getWindowOffset() {
+        return windowOffset;
+    }
+
+    /**
+     * Store the partial DFT of the completed block and reset Goertzel states
+     */
+    private void completeBlock() {
+        if(idle) {
+            windowBlocksEnergy[blockCursor] = blockEnergy;
+            blockEnergy = 0;
+            lookbackFixedPoint[processedBlocks % lookbackFixedPoint.length] = fixedPointStates;
+        }
+        for(int bin = getFirstBin(); bin < s1.length; bin++) {
+            final double state1 = fixedPointStates ? fixedS1[bin] * FixedPoint.STATE_SCALE : s1[bin];
+            final double state2 = fixedPointStates ? fixedS2[bin] * FixedPoint.STATE_SCALE : s2[bin];
+            storeBlock(bin, blockCursor, state1, state2);
+            s1[bin] = 0;
+            s2[bin] = 0;
+            fixedS1[bin] = 0;
+            fixedS2[bin] = 0;
+        }
+        blockCursor = (blockCursor + 1) % blocksPerWindow;
+        processedBlocks++;
+    }
+
+    /**
+     * @return First evaluated Goertzel bin, the bins of the last frequency are always evaluated
+     */
+    private int getFirstBin() {
+        return idle ? lastFrequencyBin : 0;
+    }
+
+    /**
+     * Store the partial DFT of a block
+     * @param bin Goertzel bin
+     * @param ringCursor Location of the block in the ring buffer
+     * @param state1 Goertzel state s[n-1]
+     * @param state2 Goertzel state s[n-2]
+     */
+    private void storeBlock(int bin, int ringCursor, double state1, double state2) {
+        // y = (s[n-1] - e^(-i*w) s[n-2]) e^(-i*w*(n-1))
+        final double yr = state1 - cosPikTerm[bin] * state2;
+        final double yi = sinPikTerm[bin] * state2;
+        blockRe[bin * blocksPerWindow + ringCursor] = yr * cosBlockEnd[bin] + yi * sinBlockEnd[bin];
+        blockIm[bin * blocksPerWindow + ringCursor] = yi * cosBlockEnd[bin] - yr * sinBlockEnd[bin];
+    }
+
+    /**
+     * Run the Goertzel filter of a bin on stored samples, with the same arithmetic as the received samples
+     * @param bin Goertzel bin
+     * @param from First sample index in lookback
+     * @param to Excluded last sample index in lookback
+     * @param fixedPoint True to use the integer Goertzel states
+     * @param states Initial states s[n-1] and s[n-2], updated with the final states
+     */
+    private void replaySamples(int bin, int from, int to, boolean fixedPoint, double[] states) {
+        if(fixedPoint) {
+            long state1 = Math.round(states[0] / FixedPoint.STATE_SCALE);
+            long state2 = Math.round(states[1] / FixedPoint.STATE_SCALE);
+            for(int i = from; i < to; i++) {
+                final long sample = (long)Math.round(lookback[i] * FixedPoint.PCM_SCALE) << FixedPoint.GUARD_BITS;
+                final long state0 = sample + FixedPoint.multiply(coefficient[bin], state1, coefficientBits) - state2;
+                state2 = state1;
+                state1 = state0;
+            }
+            states[0] = state1 * FixedPoint.STATE_SCALE;
+            states[1] = state2 * FixedPoint.STATE_SCALE;
+        } else {
+            double state1 = states[0];
+            double state2 = states[1];
+            for(int i = from; i < to; i++) {
+                final double state0 = lookback[i] + cosPikTerm2[bin] * state1 - state2;
+                state2 = state1;
+                state1 = state0;
+            }
+            states[0] = state1;
+            states[1] = state2;
+        }
+    }
+
+    /**
+     * Evaluate all the trigger frequencies again. The partial DFT of the blocks received while idle, the levels of
+     * the other frequencies in the history and the Goertzel states of the current block are computed from the stored
+     * samples, with the arithmetic of the received samples. The levels of the last frequency have already been
+     * evaluated and given to the peak finder.
+     */
+    private void wakeUp() {
+        final int storedBlocks = Math.min(processedBlocks - idleFirstBlock, lookbackFixedPoint.length);
+        final int firstBlock = processedBlocks - storedBlocks;
+        for(int block = firstBlock; block < processedBlocks; block++) {
+            final int lookbackBlock = block % lookbackFixedPoint.length;
+            final int from = lookbackBlock * windowOffset;
+            for(int bin = 0; bin < lastFrequencyBin; bin++) {
+                replayStates[0] = 0;
+                replayStates[1] = 0;
+                replaySamples(bin, from, from + windowOffset, lookbackFixedPoint[lookbackBlock], replayStates);
+                storeBlock(bin, block % blocksPerWindow, replayStates[0], replayStates[1]);
+            }
+            // Window ending with this block, the blocks received before the idle period are still in the ring
+            final int historyIndex = splHistory.size() - (processedBlocks - block);
+            final boolean windowStored = block - firstBlock >= blocksPerWindow - 1 || firstBlock == idleFirstBlock;
+            if(block + 1 >= blocksPerWindow && windowStored && historyIndex >= 0) {
+                for(int idfreq = 0; idfreq < frequencies.length - 1; idfreq++) {
+                    splHistory.setFloat(idfreq, historyIndex,
+                            (float)computeWindowLevel(idfreq, (block + 1) % blocksPerWindow));
                 }
-                final long location = totalProcessed + processed - windowAnalyze;
-                if(peakFinder.add(location, splHistory[frequencies.length - 1].last())) {
-                    // Find peak
-                    PeakFinder.Element element = peakFinder.getLastPeak();
-                    // Check if peak value is greater than specified Signal Noise ratio
-                    double backgroundNoiseSecondPeak = backgroundNoiseEvaluator.result();
-                    if(element.value > backgroundNoiseSecondPeak + triggerSnr) {
-                        // Check if the level on other triggering frequencies is below triggering level (at the same time)
-                        int peakIndex = splHistory[frequencies.length - 1].size() - 1 -
-                                (int)(location / windowOffset - element.index / windowOffset);
-                        if(peakIndex >= 0 && peakIndex < splHistory[0].size() &&
-                                splHistory[0].get(peakIndex) < element.value - triggerSnr) {
-                            int firstPeakIndex = peakIndex - (gateLength / windowOffset);
-                            // Check if for the first peak the level was inferior than trigger level
-                            if(firstPeakIndex >= 0 && firstPeakIndex < splHistory[0].size()
-                                    && splHistory[0].get(firstPeakIndex) > element.value - triggerSnr &&
-                                    splHistory[frequencies.length - 1].get(firstPeakIndex) < element.value - triggerSnr) {
-                                // All trigger conditions are met
-                                // Evaluate the exact position of the first tone
-                                long peakLocation = findPeakLocation(splHistory[frequencies.length - 1].get(peakIndex-1)
-                                        ,element.value,splHistory[frequencies.length - 1].get(peakIndex+1),element.index,windowOffset);
-                                firstToneLocation = peakLocation + gateLength / 2 + windowOffset;
-                                if(triggerCallback != null) {
-                                    triggerCallback.onTrigger(this, firstToneLocation);
-                                }
-                            }
+            }
+        }
+        for(int idfreq = 0; idfreq < frequencies.length; idfreq++) {
+            splLevels[idfreq] = splHistory.size() > 0 ? splHistory.lastFloat(idfreq) : Double.NaN;
+        }
+        // Samples of the current block
+        final int from = (processedBlocks % lookbackFixedPoint.length) * windowOffset;
+        for(int bin = 0; bin < lastFrequencyBin; bin++) {
+            replayStates[0] = 0;
+            replayStates[1] = 0;
+            replaySamples(bin, from, from + processedBlockSamples, fixedPointStates, replayStates);
+            if(fixedPointStates) {
+                fixedS1[bin] = Math.round(replayStates[0] / FixedPoint.STATE_SCALE);
+                fixedS2[bin] = Math.round(replayStates[1] / FixedPoint.STATE_SCALE);
+            } else {
+                s1[bin] = replayStates[0];
+                s2[bin] = replayStates[1];
+            }
+        }
+        quietWindows = 0;
+        idle = false;
+    }
+
+    /**
+     * Move the Goertzel states of the current block to the double precision states
+     */
+    private void useDoubleStates() {
+        if(fixedPointStates) {
+            for(int bin = 0; bin < s1.length; bin++) {
+                s1[bin] = fixedS1[bin] * FixedPoint.STATE_SCALE;
+                s2[bin] = fixedS2[bin] * FixedPoint.STATE_SCALE;
+                fixedS1[bin] = 0;
+                fixedS2[bin] = 0;
+            }
+            fixedPointStates = false;
+        }
+    }
+
+    /**
+     * Move the Goertzel states of the current block to the integer states
+     */
+    private void useFixedPointStates() {
+        if(!fixedPointStates) {
+            for(int bin = 0; bin < s1.length; bin++) {
+                fixedS1[bin] = Math.round(s1[bin] / FixedPoint.STATE_SCALE);
+                fixedS2[bin] = Math.round(s2[bin] / FixedPoint.STATE_SCALE);
+                s1[bin] = 0;
+                s2[bin] = 0;
+            }
+            fixedPointStates = true;
+        }
+    }
+
+    /**
+     * @param frequencyIndex Trigger frequency index
+     * @return Hann windowed level in dB of the last window
+     */
+    private double computeWindowLevel(int frequencyIndex, int oldestBlock) {
+        double re = 0;
+        double im = 0;
+        for(int side = 0; side < BINS_PER_FREQUENCY; side++) {
+            final int bin = frequencyIndex * BINS_PER_FREQUENCY + side;
+            double sr = 0;
+            double si = 0;
+            for(int block = 0; block < blocksPerWindow; block++) {
+                final int ringIndex = bin * blocksPerWindow + (oldestBlock + block) % blocksPerWindow;
+                final double cs = cosBlockShift[bin * blocksPerWindow + block];
+                final double sn = sinBlockShift[bin * blocksPerWindow + block];
+                sr += blockRe[ringIndex] * cs - blockIm[ringIndex] * sn;
+                si += blockRe[ringIndex] * sn + blockIm[ringIndex] * cs;
+            }
+            re += HANN_BINS_WEIGHT[side] * sr;
+            im += HANN_BINS_WEIGHT[side] * si;
+        }
+        return 20 * Math.log10(Math.sqrt(re * re + im * im) * rmsFactor);
+    }
+
+    private void processWindow(long location) {
+        final int last = frequencies.length - 1;
+        if(idle) {
+            Arrays.fill(splLevels, Double.NaN);
+        }
+        for(int idfreq = idle ? last : 0; idfreq < frequencies.length; idfreq++) {
+            // blockCursor is now the oldest block of the window
+            splLevels[idfreq] = computeWindowLevel(idfreq, blockCursor);
+        }
+        backgroundNoiseEvaluator.add(splLevels[last]);
+        splHistory.addRow(splLevels);
+        double backgroundNoiseSecondPeak = backgroundNoiseEvaluator.result();
+        if(idle) {
+            double windowEnergy = 0;
+            for(double energy : windowBlocksEnergy) {
+                windowEnergy += energy;
+            }
+            // Level of the last frequency estimated from the resonator energy
+            if(10 * Math.log10(windowEnergy * resonatorEnergyScale) >
+                    backgroundNoiseSecondPeak + triggerSnr - IDLE_WAKE_UP_MARGIN) {
+                wakeUp();
+            }
+        }
+        analyzeLevels(location, splHistory.size() - 1, backgroundNoiseSecondPeak);
+        if(idle) {
+            return;
+        }
+        if(splHistory.lastFloat(last) > backgroundNoiseSecondPeak + triggerSnr) {
+            quietWindows = 0;
+        } else if(++quietWindows >= historyLength && triggerCallback == null && firstToneLocation == -1) {
+            // The levels of the other frequencies are not needed until the resonator energy rises
+            sleep();
+        }
+        if(triggerCallback != null) {
+            triggerCallback.onNewLevels(this, location, splLevels);
+        }
+    }
+
+    /**
+     * Look for the gate tones in the levels of a window
+     * @param location Location of the first sample of the window
+     * @param historyIndex Index of the window levels in the history
+     * @param backgroundNoiseSecondPeak Background noise level of the last frequency
+     */
+    private void analyzeLevels(long location, int historyIndex, double backgroundNoiseSecondPeak) {
+        final int last = frequencies.length - 1;
+        if(peakFinder.add(location, splHistory.getFloat(last, historyIndex))) {
+            // Find peak
+            final long peakElementIndex = peakFinder.getLastPeakIndex();
+            final double peakElementValue = peakFinder.getLastPeakValue();
+            // Check if peak value is greater than specified Signal Noise ratio
+            if(peakElementValue > backgroundNoiseSecondPeak + triggerSnr) {
+                if(idle) {
+                    // The levels of the other frequencies are required
+                    wakeUp();
+                }
+                // Check if the level on other triggering frequencies is below triggering level (at the same time)
+                int peakIndex = historyIndex - (int)((location - peakElementIndex) / windowOffset);
+                if(peakIndex >= 0 && peakIndex <= historyIndex &&
+                        splHistory.getFloat(0, peakIndex) < peakElementValue - triggerSnr) {
+                    int firstPeakIndex = peakIndex - (gateLength / windowOffset);
+                    // Check if for the first peak the level was inferior than trigger level
+                    if(firstPeakIndex >= 0 && firstPeakIndex < splHistory.size()
+                            && splHistory.getFloat(0, firstPeakIndex) > peakElementValue - triggerSnr &&
+                            splHistory.getFloat(last, firstPeakIndex) < peakElementValue - triggerSnr) {
+                        // All trigger conditions are met
+                        // Evaluate the exact position of the first tone
+                        long peakLocation = findPeakLocation(splHistory.getFloat(last, peakIndex - 1),
+                                peakElementValue, splHistory.getFloat(last, peakIndex + 1), peakElementIndex,
+                                windowOffset);
+                        firstToneLocation = peakLocation + gateLength / 2 + windowOffset;
+                        triggerNoiseLevel = backgroundNoiseSecondPeak;
+                        triggerTimingOffset = peakLocation - peakElementIndex;
+                        DecoderEvents.triggerFired(firstToneLocation, peakElementValue,
+                                peakElementValue - backgroundNoiseSecondPeak);
+                        if(triggerCallback != null) {
+                            triggerCallback.onTrigger(this, firstToneLocation);
                         }
                     }
                 }
-                if(triggerCallback != null) {
-                    triggerCallback.onNewLevels(this, location, splLevels);
-                }
             }
         }
     }
@@ -177,18 +657,181 @@ public class TriggerAnalyzer {
      * @return Maximum window length in order to have not more than 1 processed window
      */
     public int getMaximumWindowLength() {
-        return Math.min(windowAnalyze - processedWindowAlpha.get(), windowAnalyze - processedWindowBeta.get());
+        return windowOffset - processedBlockSamples;
     }
 
     public void processSamples(float[] samples, long totalProcessed) {
-        doProcess(Arrays.copyOf(samples, samples.length), totalProcessed, processedWindowAlpha, frequencyAnalyzersAlpha);
-        if(totalProcessed > windowOffset) {
-            doProcess(Arrays.copyOf(samples, samples.length), totalProcessed, processedWindowBeta, frequencyAnalyzersBeta);
-        } else if(windowOffset - totalProcessed < samples.length){
-            // Start to process on the part used by the offset window
-            doProcess(Arrays.copyOfRange(samples, (int)(windowOffset - totalProcessed),
-                    samples.length), totalProcessed + (int)(windowOffset - totalProcessed), processedWindowBeta,
-                    frequencyAnalyzersBeta);
+        processSamples(samples, 0, samples.length, totalProcessed);
+    }
+
+    /**
+     * @param samples Audio samples, the content of the array is not modified
+     * @param from First sample index to process
+     * @param to Excluded last sample index to process
+     * @param totalProcessed Number of samples pushed before samples[from]
+     */
+    public void processSamples(float[] samples, int from, int to, long totalProcessed) {
+        useDoubleStates();
+        int processed = from;
+        while(firstToneLocation == -1 && processed < to) {
+            final int toProcess = Math.min(to - processed, windowOffset - processedBlockSamples);
+            final int end = processed + toProcess;
+            if(idle) {
+                System.arraycopy(samples, processed, lookback, getLookbackCursor(), toProcess);
+                processIdleSamples(getLookbackCursor(), getLookbackCursor() + toProcess);
+            }
+            // The three bins of a frequency are independent recurrences, run them in the same loop
+            for(int bin = getFirstBin(); bin < s1.length; bin += BINS_PER_FREQUENCY) {
+                final double coefficientA = cosPikTerm2[bin];
+                final double coefficientB = cosPikTerm2[bin + 1];
+                final double coefficientC = cosPikTerm2[bin + 2];
+                double s1A = s1[bin], s2A = s2[bin];
+                double s1B = s1[bin + 1], s2B = s2[bin + 1];
+                double s1C = s1[bin + 2], s2C = s2[bin + 2];
+                for(int i = processed; i < end; i++) {
+                    final double sample = samples[i];
+                    final double s0A = sample + coefficientA * s1A - s2A;
+                    final double s0B = sample + coefficientB * s1B - s2B;
+                    final double s0C = sample + coefficientC * s1C - s2C;
+                    s2A = s1A;
+                    s1A = s0A;
+                    s2B = s1B;
+                    s1B = s0B;
+                    s2C = s1C;
+                    s1C = s0C;
+                }
+                s1[bin] = s1A;
+                s2[bin] = s2A;
+                s1[bin + 1] = s1B;
+                s2[bin + 1] = s2B;
+                s1[bin + 2] = s1C;
+                s2[bin + 2] = s2C;
+            }
+            processed = end;
+            blockProcessed(toProcess, totalProcessed + (processed - from));
+        }
+    }
+
+    /**
+     * @param samples Audio samples, 16 bits PCM, the content of the array is not modified
+     * @param from First sample index to process
+     * @param to Excluded last sample index to process
+     * @param totalProcessed Number of samples pushed before samples[from]
+     */
+    public void processSamples(short[] samples, int from, int to, long totalProcessed) {
+        if(coefficient == null) {
+            for(int cursor = from; firstToneLocation == -1 && cursor < to; cursor += CONVERSION_BUFFER_LENGTH) {
+                final int length = Math.min(CONVERSION_BUFFER_LENGTH, to - cursor);
+                for(int i = 0; i < length; i++) {
+                    conversionBuffer[i] = samples[cursor + i] / FixedPoint.PCM_SCALE;
+                }
+                processSamples(conversionBuffer, 0, length, totalProcessed + (cursor - from));
+            }
+            return;
+        }
+        useFixedPointStates();
+        int processed = from;
+        while(firstToneLocation == -1 && processed < to) {
+            final int toProcess = Math.min(to - processed, windowOffset - processedBlockSamples);
+            final int end = processed + toProcess;
+            if(idle) {
+                final int lookbackCursor = getLookbackCursor() - processed;
+                for(int i = processed; i < end; i++) {
+                    lookback[lookbackCursor + i] = samples[i] * PCM_INVERSE_SCALE;
+                }
+                processIdleSamples(lookbackCursor + processed, lookbackCursor + end);
+            }
+            for(int bin = getFirstBin(); bin < fixedS1.length; bin += BINS_PER_FREQUENCY) {
+                final long coefficientA = coefficient[bin];
+                final long coefficientB = coefficient[bin + 1];
+                final long coefficientC = coefficient[bin + 2];
+                final int bits = coefficientBits;
+                long s1A = fixedS1[bin], s2A = fixedS2[bin];
+                long s1B = fixedS1[bin + 1], s2B = fixedS2[bin + 1];
+                long s1C = fixedS1[bin + 2], s2C = fixedS2[bin + 2];
+                for(int i = processed; i < end; i++) {
+                    final long sample = samples[i] << FixedPoint.GUARD_BITS;
+                    final long s0A = sample + FixedPoint.multiply(coefficientA, s1A, bits) - s2A;
+                    final long s0B = sample + FixedPoint.multiply(coefficientB, s1B, bits) - s2B;
+                    final long s0C = sample + FixedPoint.multiply(coefficientC, s1C, bits) - s2C;
+                    s2A = s1A;
+                    s1A = s0A;
+                    s2B = s1B;
+                    s1B = s0B;
+                    s2C = s1C;
+                    s1C = s0C;
+                }
+                fixedS1[bin] = s1A;
+                fixedS2[bin] = s2A;
+                fixedS1[bin + 1] = s1B;
+                fixedS2[bin + 1] = s2B;
+                fixedS1[bin + 2] = s1C;
+                fixedS2[bin + 2] = s2C;
+            }
+            processed = end;
+            blockProcessed(toProcess, totalProcessed + (processed - from));
+        }
+    }
+
+    /**
+     * Run the resonator on samples stored while idle and add its output energy to the current block
+     * @param from First sample index in lookback
+     * @param to Excluded last sample index in lookback
+     */
+    private void processIdleSamples(int from, int to) {
+        final double a1 = resonatorA1;
+        final double a2 = resonatorA2;
+        final double h1 = resonatorH[1], h2 = resonatorH[2], h3 = resonatorH[3];
+        final double c0 = resonatorC[0], c1 = resonatorC[1], c2 = resonatorC[2], c3 = resonatorC[3];
+        final double d0 = resonatorD[0], d1 = resonatorD[1], d2 = resonatorD[2], d3 = resonatorD[3];
+        double y1 = resonatorY1;
+        double y2 = resonatorY2;
+        double energy = 0;
+        int i = from;
+        for(; i + RESONATOR_STEP <= to; i += RESONATOR_STEP) {
+            final double x0 = lookback[i];
+            final double x1 = lookback[i + 1];
+            final double x2 = lookback[i + 2];
+            final double x3 = lookback[i + 3];
+            final double y0 = x0 + c0 * y1 + d0 * y2;
+            final double yB = x1 + h1 * x0 + c1 * y1 + d1 * y2;
+            final double yC = x2 + h1 * x1 + h2 * x0 + c2 * y1 + d2 * y2;
+            final double yD = x3 + h1 * x2 + h2 * x1 + h3 * x0 + c3 * y1 + d3 * y2;
+            energy += y0 * y0 + yB * yB + yC * yC + yD * yD;
+            y2 = yC;
+            y1 = yD;
+        }
+        for(; i < to; i++) {
+            final double y0 = lookback[i] + a1 * y1 - a2 * y2;
+            energy += y0 * y0;
+            y2 = y1;
+            y1 = y0;
+        }
+        resonatorY1 = y1;
+        resonatorY2 = y2;
+        blockEnergy += energy;
+    }
+
+    /**
+     * @return Index in lookback of the next sample of the current block
+     */
+    private int getLookbackCursor() {
+        return (processedBlocks % lookbackFixedPoint.length) * windowOffset + processedBlockSamples;
+    }
+
+    /**
+     * Complete the block and analyze the window if the block is full
+     * @param processedSamples Number of samples added to the current block
+     * @param location Number of samples pushed before the end of the processed samples
+     */
+    private void blockProcessed(int processedSamples, long location) {
+        processedBlockSamples += processedSamples;
+        if(processedBlockSamples == windowOffset) {
+            processedBlockSamples = 0;
+            completeBlock();
+            if(processedBlocks >= blocksPerWindow) {
+                processWindow(location - windowAnalyze);
+            }
         }
     }
 
@@ -221,11 +864,18 @@ public class TriggerAnalyzer {
      * @return Peak x value
      */
     public static long findPeakLocation(double p0, double p1, double p2, long p1Location, int windowLength) {
-        double location = quadraticInterpolation(p0, p1, p2)[0];
+        // Same as quadraticInterpolation(p0, p1, p2)[0] without allocation
+        double location = (p2 - p0) / (2.0 * (2 * p1 - p2 - p0));
         return p1Location + (int)(location*windowLength);
     }
 
     public interface TriggerCallback {
+        /**
+         * @param triggerAnalyzer Trigger analyzer
+         * @param location Location of the first sample of the analysis window
+         * @param spl Levels in dB of each trigger frequency. The array is reused for the next window, copy it if
+         *            it must be kept
+         */
         void onNewLevels(TriggerAnalyzer triggerAnalyzer, long location, double[] spl);
         void onTrigger(TriggerAnalyzer triggerAnalyzer, long messageStartLocation);
     }
@@ -0,0 +1,166 @@
+/*
+ * BSD 3-Clause License
+ *
+ * Copyright (c) Unité Mixte de Recherche en Acoustique Environnementale (univ-gustave-eiffel)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+
+package org.noise_planet.qrtone;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Decoding stages reported to Java Flight Recorder. Disabled events are checked before filling any field, so the
+ * cost of a disabled event is a flag test.
+ */
+final class DecoderEvents {
+    private static final String CATEGORY = "QRTone";
+
+    private DecoderEvents() {
+    }
+
+    @Name("org.noise_planet.qrtone.Trigger")
+    @Label("Trigger Fired")
+    @Category(CATEGORY)
+    @Description("Gate tones of a message have been found")
+    static final class TriggerEvent extends Event {
+        @Label("Location")
+        @Description("Location of the first tone, in analyzed samples")
+        long location;
+        @Label("Level")
+        @Description("Peak level of the last gate frequency in dB")
+        double level;
+        @Label("SNR")
+        @Description("Difference in dB between the peak level and the background noise")
+        double snr;
+    }
+
+    @Name("org.noise_planet.qrtone.HeaderDecode")
+    @Label("Header Decode")
+    @Category(CATEGORY)
+    static final class HeaderDecodeEvent extends Event {
+        @Label("Decoded")
+        boolean decoded;
+        @Label("Fixed Errors")
+        int fixedErrors;
+    }
+
+    @Name("org.noise_planet.qrtone.PayloadDecode")
+    @Label("Payload Decode")
+    @Category(CATEGORY)
+    static final class PayloadDecodeEvent extends Event {
+        @Label("Symbols")
+        int symbols;
+        @Label("Payload Length")
+        @Description("Length of the decoded payload, -1 if the payload can't be decoded")
+        int payloadLength;
+        @Label("Fixed Errors")
+        int fixedErrors;
+    }
+
+    @Name("org.noise_planet.qrtone.DecodeFailure")
+    @Label("Decode Failure")
+    @Category(CATEGORY)
+    @Description("A message has been dropped because of too many errors or a CRC mismatch")
+    static final class DecodeFailureEvent extends Event {
+        @Label("Header")
+        @Description("True if the header failed, false for the payload")
+        boolean header;
+        @Label("CRC Mismatch")
+        @Description("True if the symbols have been corrected but do not match the CRC")
+        boolean crcMismatch;
+    }
+
+    static void triggerFired(long location, double level, double snr) {
+        TriggerEvent event = new TriggerEvent();
+        if(event.isEnabled()) {
+            event.location = location;
+            event.level = level;
+            event.snr = snr;
+            event.commit();
+        }
+    }
+
+    static Object beginHeaderDecode() {
+        HeaderDecodeEvent event = new HeaderDecodeEvent();
+        if(!event.isEnabled()) {
+            return null;
+        }
+        event.begin();
+        return event;
+    }
+
+    static void endHeaderDecode(Object event, boolean decoded, int fixedErrors) {
+        if(event != null) {
+            HeaderDecodeEvent headerEvent = (HeaderDecodeEvent) event;
+            headerEvent.end();
+            if(headerEvent.shouldCommit()) {
+                headerEvent.decoded = decoded;
+                headerEvent.fixedErrors = fixedErrors;
+                headerEvent.commit();
+            }
+        }
+    }
+
+    static Object beginPayloadDecode() {
+        PayloadDecodeEvent event = new PayloadDecodeEvent();
+        if(!event.isEnabled()) {
+            return null;
+        }
+        event.begin();
+        return event;
+    }
+
+    static void endPayloadDecode(Object event, int symbols, int payloadLength, int fixedErrors) {
+        if(event != null) {
+            PayloadDecodeEvent payloadEvent = (PayloadDecodeEvent) event;
+            payloadEvent.end();
+            if(payloadEvent.shouldCommit()) {
+                payloadEvent.symbols = symbols;
+                payloadEvent.payloadLength = payloadLength;
+                payloadEvent.fixedErrors = fixedErrors;
+                payloadEvent.commit();
+            }
+        }
+    }
+
+    static void decodeFailed(boolean header, boolean crcMismatch) {
+        DecodeFailureEvent event = new DecodeFailureEvent();
+        if(event.isEnabled()) {
+            event.header = header;
+            event.crcMismatch = crcMismatch;
+            event.commit();
+        }
+    }
+}
@@ -0,0 +1,184 @@
+/*
+ * BSD 3-Clause License
+ *
+ * Copyright (c) Unité Mixte de Recherche en Acoustique Environnementale (univ-gustave-eiffel)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package org.noise_planet.qrtone;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class AdaptiveProfileSelectorTest {
+    private static final int PAYLOAD_LENGTH = 34;
+
+    private static List<Configuration> candidates() {
+        Configuration configuration = Configuration.getAudible(44100);
+        return Arrays.asList(configuration, configuration.withTiming(0.04, 0.08, 0.008));
+    }
+
+    @Test
+    public void testMessageLength() {
+        for(Configuration configuration : candidates()) {
+            for(Configuration.ECC_LEVEL eccLevel : Configuration.ECC_LEVEL.values()) {
+                for(boolean crc : new boolean[]{true, false}) {
+                    QRTone qrTone = new QRTone(configuration);
+                    byte[] payload = new byte[PAYLOAD_LENGTH];
+                    assertEquals(qrTone.setPayload(payload, eccLevel, crc),
+                            QRTone.getMessageLength(configuration, PAYLOAD_LENGTH, eccLevel, crc));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testBinomialCumulative() {
+        assertEquals(1, AdaptiveProfileSelector.binomialCumulative(14, 14, 0.3), 1e-12);
+        assertEquals(Math.pow(0.9, 14), AdaptiveProfileSelector.binomialCumulative(14, 0, 0.1), 1e-12);
+        assertEquals(Math.pow(0.9, 14) + 14 * 0.1 * Math.pow(0.9, 13),
+                AdaptiveProfileSelector.binomialCumulative(14, 1, 0.1), 1e-12);
+    }
+
+    @Test
+    public void testWithoutTelemetry() {
+        List<Configuration> candidates = candidates();
+        AdaptiveProfileSelector selector = new AdaptiveProfileSelector(candidates, 0.95);
+        AdaptiveProfileSelector.Profile profile = selector.select(PAYLOAD_LENGTH, true);
+        // Nothing is known, the default profile is used
+        assertSame(candidates.get(0), profile.configuration);
+        assertEquals(Configuration.DEFAULT_ECC_LEVEL, profile.eccLevel);
+        assertTrue(profile.expectedSuccessRate < 0.95);
+        // Shorter words are not selected until they are evaluated
+        selector.addStatistics(candidates.get(0), 10, 5, 500, 100);
+        profile = selector.select(PAYLOAD_LENGTH, true);
+        assertSame(candidates.get(0), profile.configuration);
+        assertEquals(Configuration.ECC_LEVEL.ECC_H, profile.eccLevel);
+    }
+
+    @Test
+    public void testQuietRoom() {
+        List<Configuration> candidates = candidates();
+        AdaptiveProfileSelector selector = new AdaptiveProfileSelector(candidates, 0.95);
+        for(Configuration configuration : candidates) {
+            // 500 messages without any error
+            final int symbols = Header.getNumberOfSymbols(PAYLOAD_LENGTH, 12, 6, true);
+            selector.addStatistics(configuration, 500, 0, 500L * symbols, 0);
+        }
+        AdaptiveProfileSelector.Profile profile = selector.select(PAYLOAD_LENGTH, true);
+        assertSame(candidates.get(1), profile.configuration);
+        assertEquals(Configuration.ECC_LEVEL.ECC_L, profile.eccLevel);
+        assertTrue(profile.expectedSuccessRate >= 0.95);
+        assertTrue(profile.getAirtime() < QRTone.getMessageLength(candidates.get(0), PAYLOAD_LENGTH,
+                Configuration.DEFAULT_ECC_LEVEL, true) / 44100.0 * 0.6);
+    }
+
+    @Test
+    public void testNoisyRoom() {
+        List<Configuration> candidates = candidates();
+        AdaptiveProfileSelector selector = new AdaptiveProfileSelector(candidates, 0.95);
+        // 2 % of wrong symbols with the default timing, 10 % and lost messages with shorter words
+        selector.addStatistics(candidates.get(0), 200, 2, 20000, 400);
+        selector.addStatistics(candidates.get(1), 200, 20, 20000, 2000);
+        assertEquals(0.02, selector.getSymbolErrorRate(candidates.get(0)), 1e-3);
+        assertEquals(0.1, selector.getLossRate(candidates.get(1)), 1e-9);
+        AdaptiveProfileSelector.Profile profile = selector.select(PAYLOAD_LENGTH, true);
+        assertSame(candidates.get(0), profile.configuration);
+        assertTrue(profile.eccLevel.compareTo(Configuration.ECC_LEVEL.ECC_M) >= 0);
+        assertTrue(profile.expectedSuccessRate >= 0.95);
+        // The profile is the shortest one reaching the target
+        for(Configuration configuration : candidates) {
+            for(Configuration.ECC_LEVEL eccLevel : Configuration.ECC_LEVEL.values()) {
+                if(selector.getExpectedSuccessRate(configuration, eccLevel, PAYLOAD_LENGTH, true) >= 0.95) {
+                    assertTrue(profile.getAirtime() <= QRTone.getMessageLength(configuration, PAYLOAD_LENGTH,
+                            eccLevel, true) / configuration.sampleRate);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testSampleRates() {
+        // Shorter words at a higher sample rate, the message has more samples but a shorter airtime
+        Configuration fast = Configuration.getAudible(48000).withTiming(0.04, 0.08, 0.008);
+        Configuration slow = Configuration.getAudible(16000);
+        assertTrue(QRTone.getMessageLength(fast, PAYLOAD_LENGTH, Configuration.ECC_LEVEL.ECC_L, true) >
+                QRTone.getMessageLength(slow, PAYLOAD_LENGTH, Configuration.ECC_LEVEL.ECC_L, true));
+        AdaptiveProfileSelector selector = new AdaptiveProfileSelector(Arrays.asList(slow, fast), 0.95);
+        final int symbols = Header.getNumberOfSymbols(PAYLOAD_LENGTH, 12, 6, true);
+        selector.addStatistics(slow, 500, 0, 500L * symbols, 0);
+        selector.addStatistics(fast, 500, 0, 500L * symbols, 0);
+        AdaptiveProfileSelector.Profile profile = selector.select(PAYLOAD_LENGTH, true);
+        assertSame(fast, profile.configuration);
+        assertEquals(Configuration.ECC_LEVEL.ECC_L, profile.eccLevel);
+        assertTrue(profile.getAirtime() < QRTone.getMessageLength(slow, PAYLOAD_LENGTH,
+                Configuration.ECC_LEVEL.ECC_L, true) / slow.sampleRate);
+        // Lost messages make the target unreachable, the most reliable profiles are compared by airtime too
+        selector.addStatistics(slow, 500, 100, 0, 0);
+        selector.addStatistics(fast, 500, 100, 0, 0);
+        profile = selector.select(PAYLOAD_LENGTH, true);
+        assertTrue(profile.expectedSuccessRate < 0.95);
+        assertSame(fast, profile.configuration);
+    }
+
+    @Test
+    public void testAddReport() {
+        Configuration configuration = Configuration.getAudible(44100);
+        AdaptiveProfileSelector selector = new AdaptiveProfileSelector(Arrays.asList(configuration), 0.9);
+        MessageQuality quality = new MessageQuality();
+        quality.headerDecoded = true;
+        quality.decoded = true;
+        quality.eccLevel = Configuration.ECC_LEVEL.ECC_Q;
+        quality.symbolCount = 24;
+        quality.blockCount = 2;
+        quality.blockErrors[0] = 1;
+        quality.blockErrors[1] = 1;
+        selector.addReport(configuration, quality);
+        assertEquals(3 / 26.0, selector.getSymbolErrorRate(configuration), 1e-9);
+        // Second block not evaluated
+        quality.decoded = false;
+        quality.blockErrors[0] = ReedSolomonGF16.DECODE_FAILED;
+        selector.addReport(configuration, quality);
+        assertEquals((2 + 4 + 1) / (24 + 12 + 2.0), selector.getSymbolErrorRate(configuration), 1e-9);
+        quality.headerDecoded = false;
+        selector.addReport(configuration, quality);
+        assertEquals(1 / 3.0, selector.getLossRate(configuration), 1e-9);
+        selector.reset();
+        assertEquals(0.5, selector.getSymbolErrorRate(configuration), 1e-9);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownConfiguration() {
+        AdaptiveProfileSelector selector = new AdaptiveProfileSelector(candidates(), 0.95);
+        selector.addStatistics(Configuration.getAudible(44100), 1, 0, 10, 0);
+    }
+}
@@ -2,6 +2,8 @@ package org.noise_planet.qrtone;
 
 import org.junit.Test;
 
+import java.nio.ByteBuffer;
+
 import static org.junit.Assert.*;
 
 public class CRC16Test {
@@ -15,4 +17,28 @@ public class CRC16Test {
         }
         assertEquals(0x0C9E, crc16.crc());
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testBulk() {
+        byte[] values = new byte[]{0, 'A', 'B', 'C', 'D', 'E', 'F', 'G', 'H', 'I', 'J', 0};
+        CRC16 crc16 = new CRC16();
+        crc16.add(values, 1, values.length - 1);
+        assertEquals(0x0C9E, crc16.crc());
+        assertEquals(0x0C9E, QRTone.crc16(values, 1, values.length - 1));
+        // Heap buffer with an array offset
+        ByteBuffer buffer = ByteBuffer.wrap(values, 1, values.length - 2).slice();
+        crc16.reset();
+        crc16.add(buffer);
+        assertEquals(0x0C9E, crc16.crc());
+        assertFalse(buffer.hasRemaining());
+        // Direct buffer
+        buffer = ByteBuffer.allocateDirect(values.length);
+        buffer.put(values);
+        buffer.position(1);
+        buffer.limit(values.length - 1);
+        crc16.reset();
+        crc16.add(buffer);
+        assertEquals(0x0C9E, crc16.crc());
+        assertFalse(buffer.hasRemaining());
+    }
+}
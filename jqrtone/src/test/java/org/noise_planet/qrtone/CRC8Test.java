@@ -0,0 +1,70 @@
+/*
+ * BSD 3-Clause License
+ *
+ * Copyright (c) Unité Mixte de Recherche en Acoustique Environnementale (univ-gustave-eiffel)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package org.noise_planet.qrtone;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class CRC8Test {
+
+    @Test
+    public void testRef() {
+        byte[] values = new byte[]{'A', 'B', 'C', 'D', 'E', 'F', 'G', 'H', 'I', 'J'};
+        CRC8 crc8 = new CRC8();
+        for(byte b : values) {
+            crc8.add(b);
+        }
+        assertEquals((byte)0x5B, crc8.crc());
+        assertEquals((byte)0x88, QRTone.crc8(new byte[]{(byte)0xFF, (byte)0x80, 0x7F, 0, (byte)0xC3}, 0, 5));
+    }
+
+    @Test
+    public void testBulk() {
+        byte[] values = new byte[]{0, 'A', 'B', 'C', 'D', 'E', 'F', 'G', 'H', 'I', 'J', 0};
+        CRC8 crc8 = new CRC8();
+        crc8.add(ByteBuffer.wrap(values, 1, values.length - 2).slice());
+        assertEquals((byte)0x5B, crc8.crc());
+        ByteBuffer buffer = ByteBuffer.allocateDirect(values.length);
+        buffer.put(values);
+        buffer.position(1);
+        buffer.limit(values.length - 1);
+        crc8 = new CRC8();
+        crc8.add(buffer);
+        assertEquals((byte)0x5B, crc8.crc());
+        assertFalse(buffer.hasRemaining());
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * BSD 3-Clause License
+ *
+ * Copyright (c) Unité Mixte de Recherche en Acoustique Environnementale (univ-gustave-eiffel)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package org.noise_planet.qrtone;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class FixedPointGoertzelBankTest {
+
+    /**
+     * Check the error bounds documented in {@link FixedPointGoertzelBank}
+     * @param configuration Configuration
+     * @param amplitude Peak amplitude of the tones, noise standard deviation is a tenth of this value
+     */
+    private static void compareWithGoertzelBank(Configuration configuration, double amplitude) {
+        final double sampleRate = configuration.sampleRate;
+        final int wordLength = (int)(sampleRate * configuration.wordTime);
+        double[] frequencies = configuration.computeFrequencies(QRTone.NUM_FREQUENCIES);
+        double[] frequencyLimits = configuration.computeFrequencies(QRTone.NUM_FREQUENCIES, QRTone.WINDOW_WIDTH);
+        int[] windowSizes = new int[frequencies.length];
+        for(int idfreq = 0; idfreq < frequencies.length; idfreq++) {
+            windowSizes[idfreq] = Math.min(wordLength, Configuration.computeMinimumWindowSize(sampleRate,
+                    frequencies[idfreq], frequencyLimits[idfreq]));
+        }
+        Random random = new Random(1337);
+        float[] signal = new float[wordLength];
+        for(int i = 0; i < signal.length; i++) {
+            signal[i] = (float)(random.nextGaussian() * amplitude / 10);
+        }
+        QRTone.generatePitch(signal, 0, wordLength, 0, sampleRate, frequencies[3], amplitude / 2);
+        QRTone.generatePitch(signal, 0, wordLength, 0, sampleRate, frequencies[QRTone.FREQUENCY_ROOT + 9], amplitude / 2);
+        short[] samples = new short[wordLength];
+        for(int i = 0; i < samples.length; i++) {
+            samples[i] = FixedPoint.toPcm(signal[i]);
+        }
+        GoertzelBank goertzelBank = new GoertzelBank(sampleRate, frequencies, windowSizes, wordLength);
+        FixedPointGoertzelBank fixedPointGoertzelBank = new FixedPointGoertzelBank(sampleRate, frequencies,
+                windowSizes, wordLength);
+        double[] expected = new double[frequencies.length];
+        double[] spl = new double[frequencies.length];
+        // Twice in order to check the reset of the state
+        for(int run = 0; run < 2; run++) {
+            int cursor = 0;
+            while (cursor < samples.length) {
+                int length = Math.min(random.nextInt(115) + 20, samples.length - cursor);
+                goertzelBank.processSamples(samples, cursor, cursor + length, cursor);
+                fixedPointGoertzelBank.processSamples(samples, cursor, cursor + length, cursor);
+                cursor += length;
+            }
+            goertzelBank.computeSpl(expected);
+            fixedPointGoertzelBank.computeSpl(spl);
+            for (int idfreq = 0; idfreq < frequencies.length; idfreq++) {
+                final double expectedRms = Math.pow(10, expected[idfreq] / 20);
+                final double sinW = Math.abs(Math.sin(QRTone.M2PI * frequencies[idfreq] / sampleRate));
+                final double bound = expectedRms * Math.pow(2, -14) +
+                        2 * Math.sqrt(2) / (256 * sinW) / Short.MAX_VALUE;
+                assertEquals(expectedRms, Math.pow(10, spl[idfreq] / 20), bound);
+            }
+        }
+    }
+
+    @Test
+    public void testDistinctWindowSizes() {
+        compareWithGoertzelBank(Configuration.getAudible(44100), 0.5);
+    }
+
+    @Test
+    public void testSharedWindow() {
+        compareWithGoertzelBank(Configuration.getInaudible(48000), 0.5);
+    }
+
+    @Test
+    public void testLowLevel() {
+        // -80 dBFS tones, close to the 16 bits quantization
+        compareWithGoertzelBank(Configuration.getAudible(44100), 1e-4);
+    }
+
+    @Test
+    public void testFloatSamples() {
+        final double sampleRate = 44100;
+        final double[] frequencies = new double[] {1720, 4000};
+        final int wordLength = 2048;
+        float[] signal = new float[wordLength];
+        QRTone.generatePitch(signal, 0, wordLength, 0, sampleRate, frequencies[1], 0.25);
+        short[] samples = new short[wordLength];
+        for(int i = 0; i < samples.length; i++) {
+            samples[i] = FixedPoint.toPcm(signal[i]);
+        }
+        FixedPointGoertzelBank goertzelBank = new FixedPointGoertzelBank(sampleRate, frequencies,
+                new int[] {wordLength, wordLength}, wordLength);
+        double[] expected = new double[frequencies.length];
+        double[] spl = new double[frequencies.length];
+        goertzelBank.processSamples(samples, 0, wordLength, 0);
+        goertzelBank.computeSpl(expected);
+        goertzelBank.processSamples(signal, 0, wordLength, 0);
+        goertzelBank.computeSpl(spl);
+        assertArrayEquals(expected, spl, 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNyquistRejected() {
+        // The recursion is ill conditioned near the Nyquist frequency
+        new FixedPointGoertzelBank(44100, new double[] {22040}, new int[] {2646}, 2646);
+    }
+}
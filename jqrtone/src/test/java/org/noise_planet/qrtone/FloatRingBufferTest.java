@@ -0,0 +1,89 @@
+/*
+ * BSD 3-Clause License
+ *
+ * Copyright (c) Unité Mixte de Recherche en Acoustique Environnementale (univ-gustave-eiffel)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package org.noise_planet.qrtone;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class FloatRingBufferTest {
+
+    @Test
+    public void testAddGet() {
+        FloatRingBuffer a = new FloatRingBuffer(5);
+        assertEquals(0, a.size());
+        assertTrue(Float.isNaN(a.lastFloat()));
+        a.addFloat(0.5f);
+        assertEquals(1, a.size());
+        assertEquals(0.5f, a.lastFloat(), 1e-6);
+        a.addFloat(0.1f);
+        a.addFloat(0.2f);
+        a.addFloat(0.3f);
+        a.addFloat(0.7f);
+        assertEquals(5, a.size());
+        a.addFloat(0.9f);
+        assertEquals(5, a.size());
+        assertEquals(0.9f, a.getFloat(4), 1e-6);
+        assertEquals(0.7f, a.getFloat(3), 1e-6);
+        assertEquals(0.3f, a.getFloat(2), 1e-6);
+        assertEquals(0.2f, a.getFloat(1), 1e-6);
+        assertEquals(0.1f, a.getFloat(0), 1e-6);
+        float[] copy = new float[5];
+        assertEquals(5, a.copyTo(copy));
+        assertArrayEquals(new float[]{0.1f, 0.2f, 0.3f, 0.7f, 0.9f}, copy, 1e-6f);
+        a.clear();
+        assertEquals(0, a.size());
+        a.addFloat(0.4f);
+        assertEquals(1, a.copyTo(copy));
+        assertEquals(0.4f, copy[0], 1e-6);
+    }
+
+    @Test
+    public void testChannels() {
+        FloatRingBuffer a = new FloatRingBuffer(2, 3);
+        for(int i = 0; i < 4; i++) {
+            a.addRow(new double[]{i, -i});
+        }
+        assertEquals(3, a.size());
+        assertEquals(3, a.lastFloat(0), 1e-6);
+        assertEquals(-3, a.lastFloat(1), 1e-6);
+        assertEquals(1, a.getFloat(0, 0), 1e-6);
+        assertEquals(-1, a.getFloat(1, 0), 1e-6);
+        a.setFloat(1, 1, 42);
+        assertEquals(2, a.getFloat(0, 1), 1e-6);
+        assertEquals(42, a.getFloat(1, 1), 1e-6);
+        float[] copy = new float[3];
+        assertEquals(3, a.copyTo(1, copy));
+        assertArrayEquals(new float[]{-1, 42, -3}, copy, 1e-6f);
+    }
+}
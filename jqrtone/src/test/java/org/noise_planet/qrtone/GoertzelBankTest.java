@@ -0,0 +1,88 @@
+/*
+ * BSD 3-Clause License
+ *
+ * Copyright (c) Unité Mixte de Recherche en Acoustique Environnementale (univ-gustave-eiffel)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package org.noise_planet.qrtone;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class GoertzelBankTest {
+
+    private static void compareWithGoertzel(Configuration configuration) {
+        final double sampleRate = configuration.sampleRate;
+        final int wordLength = (int)(sampleRate * configuration.wordTime);
+        double[] frequencies = configuration.computeFrequencies(QRTone.NUM_FREQUENCIES);
+        double[] frequencyLimits = configuration.computeFrequencies(QRTone.NUM_FREQUENCIES, QRTone.WINDOW_WIDTH);
+        int[] windowSizes = new int[frequencies.length];
+        for(int idfreq = 0; idfreq < frequencies.length; idfreq++) {
+            windowSizes[idfreq] = Math.min(wordLength, Configuration.computeMinimumWindowSize(sampleRate,
+                    frequencies[idfreq], frequencyLimits[idfreq]));
+        }
+        Random random = new Random(1337);
+        float[] samples = new float[wordLength];
+        for(int i = 0; i < samples.length; i++) {
+            samples[i] = (float)(random.nextGaussian() * 0.1);
+        }
+        GoertzelBank goertzelBank = new GoertzelBank(sampleRate, frequencies, windowSizes, wordLength);
+        double[] spl = new double[frequencies.length];
+        // Twice in order to check the reset of the state
+        for(int run = 0; run < 2; run++) {
+            int cursor = 0;
+            while (cursor < samples.length) {
+                int length = Math.min(random.nextInt(115) + 20, samples.length - cursor);
+                goertzelBank.processSamples(samples, cursor, cursor + length, cursor);
+                cursor += length;
+            }
+            goertzelBank.computeSpl(spl);
+            for (int idfreq = 0; idfreq < frequencies.length; idfreq++) {
+                int windowStart = wordLength / 2 - windowSizes[idfreq] / 2;
+                IterativeGeneralizedGoertzel goertzel = new IterativeGeneralizedGoertzel(sampleRate,
+                        frequencies[idfreq], windowSizes[idfreq], true);
+                goertzel.processSamples(samples, windowStart, windowStart + windowSizes[idfreq]);
+                assertEquals(20 * Math.log10(goertzel.computeRMS(false).rms), spl[idfreq], 1e-4);
+            }
+        }
+    }
+
+    @Test
+    public void testDistinctWindowSizes() {
+        compareWithGoertzel(Configuration.getAudible(44100));
+    }
+
+    @Test
+    public void testSharedWindow() {
+        compareWithGoertzel(Configuration.getInaudible(48000));
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * BSD 3-Clause License
+ *
+ * Copyright (c) Unité Mixte de Recherche en Acoustique Environnementale (univ-gustave-eiffel)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package org.noise_planet.qrtone;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class HeterodyneDecimatorTest {
+
+    private static double level(double sampleRate, float[] samples, int from, int length, double frequency) {
+        GoertzelBank goertzelBank = new GoertzelBank(sampleRate, new double[]{frequency}, new int[]{length}, length);
+        goertzelBank.processSamples(samples, from, from + length, 0);
+        double[] spl = new double[1];
+        goertzelBank.computeSpl(spl);
+        return spl[0];
+    }
+
+    private static double outputLevel(HeterodyneDecimator decimator, float[] output, int from, int length,
+                                      double frequency) {
+        return level(decimator.getOutputSampleRate(), output, from, length, frequency + decimator.getFrequencyShift());
+    }
+
+    @Test
+    public void testToneLevel() {
+        final double sampleRate = 44100;
+        final int factor = 8;
+        final int outputLength = 1024;
+        final double level = -20;
+        HeterodyneDecimator decimator = new HeterodyneDecimator(sampleRate, factor, 18000, 20000);
+        HeterodyneDecimator pcmDecimator = new HeterodyneDecimator(sampleRate, factor, 18000, 20000);
+        for(double frequency : new double[]{18000, 18500, 19000, 19500, 20000}) {
+            float[] samples = new float[(outputLength + 16) * factor];
+            QRTone.generatePitch(samples, 0, samples.length, 0, sampleRate, frequency,
+                    Math.pow(10, level / 20.0) * Math.sqrt(2));
+            short[] pcmSamples = new short[samples.length];
+            for(int i = 0; i < samples.length; i++) {
+                pcmSamples[i] = FixedPoint.toPcm(samples[i]);
+            }
+            float[] output = new float[samples.length / factor];
+            float[] pcmOutput = new float[samples.length / factor];
+            decimator.reset();
+            pcmDecimator.reset();
+            assertEquals(output.length, decimator.process(samples, 0, samples.length, output));
+            // Odd chunks in order to check the decimation phase between calls
+            float[] chunk = new float[333 / factor + 1];
+            int written = 0;
+            for(int cursor = 0; cursor < pcmSamples.length; cursor += 333) {
+                final int length = pcmDecimator.process(pcmSamples, cursor, Math.min(pcmSamples.length, cursor + 333),
+                        chunk);
+                System.arraycopy(chunk, 0, pcmOutput, written, length);
+                written += length;
+            }
+            assertEquals(output.length, written);
+            final double expectedLevel = level(sampleRate, samples, 0, outputLength * factor, frequency) +
+                    20 * Math.log10(decimator.getGain(frequency));
+            // Skip the filter transient
+            assertEquals(expectedLevel, outputLevel(decimator, output, 16, outputLength, frequency), 0.1);
+            assertEquals(expectedLevel, outputLevel(pcmDecimator, pcmOutput, 16, outputLength, frequency), 0.1);
+        }
+    }
+
+    @Test
+    public void testAliasRejection() {
+        final double sampleRate = 44100;
+        final int factor = 8;
+        final int outputLength = 1024;
+        HeterodyneDecimator decimator = new HeterodyneDecimator(sampleRate, factor, 18000, 20000);
+        // This tone is folded into the band by the decimation
+        final double frequency = 19000 + decimator.getOutputSampleRate();
+        float[] samples = new float[(outputLength + 16) * factor];
+        QRTone.generatePitch(samples, 0, samples.length, 0, sampleRate, frequency, Math.sqrt(2));
+        float[] output = new float[samples.length / factor];
+        decimator.process(samples, 0, samples.length, output);
+        assertTrue(outputLevel(decimator, output, 16, outputLength, frequency - decimator.getOutputSampleRate()) < -50);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBandTooWide() {
+        new HeterodyneDecimator(44100, 12, 18000, 20000);
+    }
+}
@@ -40,6 +40,9 @@ import java.util.*;
 
 
 import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 public class PeakFinderTest {
 
@@ -129,4 +132,123 @@ public class PeakFinderTest {
         }
         assertArrayEquals(expectedIndex, got);
     }
-}
\ No newline at end of file
+
+    /**
+     * Previous O(n^2) implementation of {@link PeakFinder#filter(List, int)}
+     */
+    private static List<PeakFinder.Element> filterReference(List<PeakFinder.Element> peaks, int minWidth) {
+        List<PeakFinder.Element> sortedPeaks = new ArrayList<>(peaks);
+        Collections.sort(sortedPeaks);
+        for(int i = 0; i < sortedPeaks.size(); i++) {
+            PeakFinder.Element topPeak = sortedPeaks.get(i);
+            int j = i + 1;
+            while(j < sortedPeaks.size()) {
+                PeakFinder.Element otherPeak = sortedPeaks.get(j);
+                if(Math.abs(otherPeak.index - topPeak.index) <= minWidth) {
+                    sortedPeaks.remove(j);
+                } else {
+                    j += 1;
+                }
+            }
+        }
+        Collections.sort(sortedPeaks, new PeakFinder.ElementSortByIndex());
+        return sortedPeaks;
+    }
+
+    private static List<PeakFinder.Element> randomPeaks(Random random, int count) {
+        List<PeakFinder.Element> peaks = new ArrayList<>(count);
+        long index = 0;
+        for(int i = 0; i < count; i++) {
+            index += 1 + random.nextInt(10);
+            // Integer values in order to have equal peaks
+            peaks.add(new PeakFinder.Element(index, random.nextInt(50)));
+        }
+        return peaks;
+    }
+
+    @Test
+    public void filterSameAsReference() {
+        Random random = new Random(1337);
+        for(int minWidth : new int[] {0, 1, 6, 25, 100}) {
+            List<PeakFinder.Element> peaks = randomPeaks(random, 2000);
+            assertEquals(filterReference(peaks, minWidth), PeakFinder.filter(peaks, minWidth));
+        }
+    }
+
+    @Test
+    public void filterMinValue() {
+        List<PeakFinder.Element> peaks = randomPeaks(new Random(1337), 2000);
+        List<PeakFinder.Element> filtered = PeakFinder.filter(peaks, 25.0);
+        int expected = 0;
+        for(PeakFinder.Element peak : peaks) {
+            if(peak.value >= 25) {
+                assertEquals(peak, filtered.get(expected++));
+            }
+        }
+        assertEquals(expected, filtered.size());
+    }
+
+    @Test
+    public void streamFilter() {
+        Random random = new Random(1337);
+        for(int minWidth : new int[] {0, 1, 6, 25, 100}) {
+            List<PeakFinder.Element> peaks = randomPeaks(random, 2000);
+            final double minValue = 10;
+            // A peak is kept if there is no higher peak or no equal previous peak not farther than minWidth
+            List<PeakFinder.Element> expected = new ArrayList<>();
+            for(PeakFinder.Element peak : peaks) {
+                boolean kept = peak.value >= minValue;
+                for(PeakFinder.Element other : peaks) {
+                    if(kept && other != peak && Math.abs(other.index - peak.index) <= minWidth &&
+                            (other.value > peak.value || (other.value == peak.value && other.index < peak.index))) {
+                        kept = false;
+                    }
+                }
+                if(kept) {
+                    expected.add(peak);
+                }
+            }
+            PeakFinder.StreamFilter streamFilter = new PeakFinder.StreamFilter(minWidth, minValue);
+            List<PeakFinder.Element> got = new ArrayList<>();
+            for(PeakFinder.Element peak : peaks) {
+                streamFilter.add(peak.index, peak.value);
+                while(streamFilter.next()) {
+                    got.add(new PeakFinder.Element(streamFilter.getPeakIndex(), streamFilter.getPeakValue()));
+                }
+            }
+            streamFilter.finish();
+            while(streamFilter.next()) {
+                got.add(new PeakFinder.Element(streamFilter.getPeakIndex(), streamFilter.getPeakValue()));
+            }
+            assertEquals(expected, got);
+            assertFalse(streamFilter.next());
+        }
+    }
+
+    @Test
+    public void streamFilterCapacity() {
+        PeakFinder.StreamFilter streamFilter = new PeakFinder.StreamFilter(100, 0, 2);
+        streamFilter.add(0, 5);
+        assertFalse(streamFilter.next());
+        streamFilter.add(10, 4);
+        assertFalse(streamFilter.next());
+        // The deque is full, the first peak is decided early
+        streamFilter.add(20, 3);
+        assertTrue(streamFilter.next());
+        assertEquals(0, streamFilter.getPeakIndex());
+        assertEquals(5, streamFilter.getPeakValue(), 0);
+        assertFalse(streamFilter.next());
+        streamFilter.finish();
+        assertFalse(streamFilter.next());
+    }
+
+    @Test
+    public void filterLargeList() {
+        // Would take minutes with an O(n^2) filter
+        List<PeakFinder.Element> peaks = randomPeaks(new Random(1337), 1000000);
+        List<PeakFinder.Element> filtered = PeakFinder.filter(peaks, 1000);
+        for(int i = 1; i < filtered.size(); i++) {
+            assertTrue(filtered.get(i).index - filtered.get(i - 1).index > 1000);
+        }
+    }
+}
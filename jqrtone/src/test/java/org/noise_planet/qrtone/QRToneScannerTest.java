@@ -0,0 +1,194 @@
+/*
+ * BSD 3-Clause License
+ *
+ * Copyright (c) Unité Mixte de Recherche en Acoustique Environnementale (univ-gustave-eiffel)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package org.noise_planet.qrtone;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+
+public class QRToneScannerTest {
+    private static final double SAMPLE_RATE = 16000;
+    private static final double[] MESSAGE_TIMES = new double[] {1.0, 5.0, 9.5, 13.9};
+    private static final int MAXIMUM_PAYLOAD_LENGTH = 16;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static byte[] getPayload(int messageIndex) {
+        return ("message " + messageIndex + " !").getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static short[] generateRecording() {
+        Configuration configuration = Configuration.getAudible(SAMPLE_RATE);
+        float[] signal = new float[(int)(20 * SAMPLE_RATE)];
+        double powerPeak = Math.pow(10, -26.0 / 20.0) * Math.sqrt(2);
+        for(int idMessage = 0; idMessage < MESSAGE_TIMES.length; idMessage++) {
+            QRTone qrTone = new QRTone(configuration);
+            float[] audio = new float[qrTone.setPayload(getPayload(idMessage))];
+            qrTone.getSamples(audio, powerPeak);
+            System.arraycopy(audio, 0, signal, (int)(MESSAGE_TIMES[idMessage] * SAMPLE_RATE), audio.length);
+        }
+        Random random = new Random(1337);
+        short[] samples = new short[signal.length];
+        for(int i = 0; i < signal.length; i++) {
+            samples[i] = (short)((signal[i] + random.nextGaussian() * Math.pow(10, -50.0 / 20.0)) * Short.MAX_VALUE);
+        }
+        return samples;
+    }
+
+    private static void checkMessages(List<QRToneScanner.Message> messages) {
+        assertEquals(MESSAGE_TIMES.length, messages.size());
+        for(int idMessage = 0; idMessage < MESSAGE_TIMES.length; idMessage++) {
+            assertArrayEquals(getPayload(idMessage), messages.get(idMessage).payload);
+            assertEquals(MESSAGE_TIMES[idMessage], messages.get(idMessage).sampleIndex / SAMPLE_RATE, 0.001);
+        }
+    }
+
+    @Test
+    public void testScanRawPCM() throws IOException {
+        short[] samples = generateRecording();
+        ByteBuffer buffer = ByteBuffer.allocate(samples.length * 2).order(ByteOrder.BIG_ENDIAN);
+        buffer.asShortBuffer().put(samples);
+        File file = folder.newFile("recording.raw");
+        try(FileOutputStream fileOutputStream = new FileOutputStream(file)) {
+            fileOutputStream.write(buffer.array());
+        }
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            QRToneScanner scanner = new QRToneScanner(Configuration.getAudible(SAMPLE_RATE), MAXIMUM_PAYLOAD_LENGTH,
+                    pool);
+            // Messages over segment boundaries
+            scanner.setSegmentLength((int)(4 * SAMPLE_RATE));
+            checkMessages(scanner.scanRawPCM(file, ByteOrder.BIG_ENDIAN));
+            // Single segment
+            scanner.setSegmentLength(samples.length);
+            checkMessages(scanner.scanRawPCM(file, ByteOrder.BIG_ENDIAN));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testScanRawPCMDecimated() throws IOException {
+        final double sampleRate = 44100;
+        final double messageTime = 1.5;
+        Configuration configuration = Configuration.getInaudible(sampleRate);
+        QRTone qrTone = new QRTone(configuration);
+        float[] audio = new float[qrTone.setPayload(getPayload(0))];
+        qrTone.getSamples(audio, Math.pow(10, -26.0 / 20.0) * Math.sqrt(2));
+        float[] signal = new float[(int)(4 * sampleRate)];
+        System.arraycopy(audio, 0, signal, (int)(messageTime * sampleRate), audio.length);
+        Random random = new Random(1337);
+        ByteBuffer buffer = ByteBuffer.allocate(signal.length * 2).order(ByteOrder.LITTLE_ENDIAN);
+        for (float sample : signal) {
+            buffer.putShort((short)((sample + random.nextGaussian() * Math.pow(10, -50.0 / 20.0)) * Short.MAX_VALUE));
+        }
+        File file = folder.newFile("recording.raw");
+        try(FileOutputStream fileOutputStream = new FileOutputStream(file)) {
+            fileOutputStream.write(buffer.array());
+        }
+        QRToneScanner scanner = new QRToneScanner(configuration.withDecimationFactor(8), MAXIMUM_PAYLOAD_LENGTH,
+                null);
+        scanner.setSegmentLength((int)sampleRate);
+        List<QRToneScanner.Message> messages = scanner.scanRawPCM(file, ByteOrder.LITTLE_ENDIAN);
+        assertEquals(1, messages.size());
+        assertArrayEquals(getPayload(0), messages.get(0).payload);
+        assertEquals(messageTime, messages.get(0).sampleIndex / sampleRate, 0.001);
+    }
+
+    @Test
+    public void testScanWav() throws IOException {
+        short[] samples = generateRecording();
+        final int channels = 2;
+        ByteBuffer buffer = ByteBuffer.allocate(44 + samples.length * 2 * channels).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.put("RIFF".getBytes(StandardCharsets.US_ASCII));
+        buffer.putInt(buffer.capacity() - 8);
+        buffer.put("WAVEfmt ".getBytes(StandardCharsets.US_ASCII));
+        buffer.putInt(16);
+        buffer.putShort((short) 1);
+        buffer.putShort((short) channels);
+        buffer.putInt((int) SAMPLE_RATE);
+        buffer.putInt((int) SAMPLE_RATE * 2 * channels);
+        buffer.putShort((short) (2 * channels));
+        buffer.putShort((short) 16);
+        buffer.put("data".getBytes(StandardCharsets.US_ASCII));
+        buffer.putInt(samples.length * 2 * channels);
+        Random random = new Random(42);
+        for (short sample : samples) {
+            buffer.putShort(sample);
+            // The second channel must be ignored
+            buffer.putShort((short) random.nextInt());
+        }
+        File file = folder.newFile("recording.wav");
+        try(FileOutputStream fileOutputStream = new FileOutputStream(file)) {
+            fileOutputStream.write(buffer.array());
+        }
+        QRToneScanner scanner = new QRToneScanner(Configuration.getAudible(SAMPLE_RATE), MAXIMUM_PAYLOAD_LENGTH, null);
+        scanner.setSegmentLength((int)(4 * SAMPLE_RATE));
+        checkMessages(scanner.scanWav(file));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testScanWavWrongSampleRate() throws IOException {
+        File file = folder.newFile("recording.wav");
+        ByteBuffer buffer = ByteBuffer.allocate(44).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.put("RIFF".getBytes(StandardCharsets.US_ASCII));
+        buffer.putInt(36);
+        buffer.put("WAVEfmt ".getBytes(StandardCharsets.US_ASCII));
+        buffer.putInt(16);
+        buffer.putShort((short) 1);
+        buffer.putShort((short) 1);
+        buffer.putInt(44100);
+        buffer.putInt(44100 * 2);
+        buffer.putShort((short) 2);
+        buffer.putShort((short) 16);
+        buffer.put("data".getBytes(StandardCharsets.US_ASCII));
+        buffer.putInt(0);
+        try(FileOutputStream fileOutputStream = new FileOutputStream(file)) {
+            fileOutputStream.write(buffer.array());
+        }
+        new QRToneScanner(Configuration.getAudible(SAMPLE_RATE)).scanWav(file);
+    }
+}
@@ -38,6 +38,8 @@ import be.tarsos.dsp.GainProcessor;
 import be.tarsos.dsp.effects.DelayEffect;
 import be.tarsos.dsp.filters.LowPassFS;
 import be.tarsos.dsp.io.jvm.AudioDispatcherFactory;
+import com.google.zxing.common.reedsolomon.GenericGF;
+import com.google.zxing.common.reedsolomon.ReedSolomonEncoder;
 import com.google.zxing.common.reedsolomon.ReedSolomonException;
 import org.junit.Test;
 import org.noise_planet.qrtone.utils.ArrayWriteProcessor;
@@ -46,6 +48,7 @@ import javax.sound.sampled.UnsupportedAudioFileException;
 import java.io.*;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
 import java.nio.ShortBuffer;
 import java.util.*;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -112,6 +115,28 @@ public class QRToneTest {
         assertEquals(0, res.phase, 1e-8);
     }
 
+    @Test
+    public void generalized_goertzelResultArray() throws Exception {
+        double sampleRate = 44100;
+        double powerRMS = Math.pow(10, -26.0 / 20.0); // -26 dBFS
+        float signalFrequency = 1000;
+        double powerPeak = powerRMS * Math.sqrt(2);
+        double signalPhase = 0.7;
+
+        float[] audio = new float[4410];
+        for (int s = 0; s < audio.length; s++) {
+            double t = s * (1 / sampleRate);
+            audio[s] = (float)(Math.cos(QRTone.M2PI * signalFrequency * t + signalPhase) * (powerPeak));
+        }
+
+        double[] result = new double[2];
+        new IterativeGeneralizedGoertzel(sampleRate, signalFrequency, audio.length, false)
+                .processSamples(audio, 0, audio.length).computeRMS(true, result);
+
+        assertEquals(QRTone.computeRms(audio), result[0], 1e-6);
+        assertEquals(signalPhase, result[1], 1e-6);
+    }
+
     @Test
     public void generalized_goertzelHann() throws Exception {
         double sampleRate = 44100;
@@ -439,16 +464,50 @@ public class QRToneTest {
         QRTone qrTone = new QRTone(Configuration.getAudible(44100));
         qrTone.setPayload(IPFS_PAYLOAD);
         byte[] symbols = qrTone.symbolsToDeliver;
-        qrTone.symbolsCache = Arrays.copyOfRange(symbols, 0, QRTone.HEADER_SYMBOLS);
-        qrTone.cachedSymbolsToHeader();
-        assertNotNull(qrTone.headerCache);
-        assertEquals(IPFS_PAYLOAD.length, qrTone.headerCache.length);
-        qrTone.symbolsCache = Arrays.copyOfRange(symbols, QRTone.HEADER_SYMBOLS, symbols.length);
-        qrTone.cachedSymbolsToPayload();
-        byte[] payloadData = qrTone.getPayload();
+        QRTone.SymbolParser symbolParser = qrTone.createSymbolParser();
+        symbolParser.symbolsCache = Arrays.copyOfRange(symbols, 0, QRTone.HEADER_SYMBOLS);
+        symbolParser.cachedSymbolsToHeader();
+        assertNotNull(symbolParser.headerCache);
+        assertEquals(IPFS_PAYLOAD.length, symbolParser.headerCache.length);
+        symbolParser.symbolsCache = Arrays.copyOfRange(symbols, QRTone.HEADER_SYMBOLS, symbols.length);
+        // Symbol parser stores symbols in block order
+        QRTone.deinterleaveSymbols(symbolParser.symbolsCache, Configuration.getTotalSymbolsForEcc(symbolParser.headerCache.getEccLevel()));
+        symbolParser.cachedSymbolsToPayload();
+        byte[] payloadData = symbolParser.payload;
         assertNotNull(payloadData);
         assertArrayEquals(IPFS_PAYLOAD, payloadData);
-        assertEquals(0, qrTone.getFixedErrors());
+        assertEquals(0, symbolParser.fixedErrors.get());
+    }
+
+    /**
+     * Words received after a false trigger on noise are random symbols, few of them must give a valid header
+     */
+    @Test
+    public void testHeaderFalseTrigger() {
+        QRTone qrTone = new QRTone(Configuration.getAudible(44100));
+        QRTone.SymbolParser symbolParser = qrTone.createSymbolParser();
+        Random random = new Random(1337);
+        final int attempts = 20000;
+        int decodedHeaders = 0;
+        for(int attempt = 0; attempt < attempts; attempt++) {
+            symbolParser.symbolsCache = new byte[QRTone.HEADER_SYMBOLS];
+            symbolParser.symbolMargins = new float[QRTone.HEADER_SYMBOLS];
+            for(int i = 0; i < QRTone.HEADER_SYMBOLS; i++) {
+                symbolParser.symbolsCache[i] = (byte) random.nextInt(QRTone.FREQUENCY_ROOT);
+                symbolParser.symbolMargins[i] = random.nextFloat() * 3;
+            }
+            symbolParser.headerCache = null;
+            try {
+                symbolParser.cachedSymbolsToHeader();
+            } catch (ReedSolomonException ex) {
+                // Noise is expected to fail
+            }
+            if(symbolParser.headerCache != null) {
+                decodedHeaders++;
+            }
+        }
+        // The header CRC accepts 1/256 of the wrong corrections, each erasure attempt adds false headers
+        assertTrue(decodedHeaders < attempts / 300);
     }
 
     @Test
@@ -456,16 +515,19 @@ public class QRToneTest {
         QRTone qrTone = new QRTone(Configuration.getAudible(44100));
         qrTone.setPayload(IPFS_PAYLOAD, Configuration.ECC_LEVEL.ECC_L, false);
         byte[] symbols = qrTone.symbolsToDeliver;
-        qrTone.symbolsCache = Arrays.copyOfRange(symbols, 0, QRTone.HEADER_SYMBOLS);
-        qrTone.cachedSymbolsToHeader();
-        assertNotNull(qrTone.headerCache);
-        assertEquals(IPFS_PAYLOAD.length, qrTone.headerCache.length);
-        qrTone.symbolsCache = Arrays.copyOfRange(symbols, QRTone.HEADER_SYMBOLS, symbols.length);
-        qrTone.cachedSymbolsToPayload();
-        byte[] payloadData = qrTone.getPayload();
+        QRTone.SymbolParser symbolParser = qrTone.createSymbolParser();
+        symbolParser.symbolsCache = Arrays.copyOfRange(symbols, 0, QRTone.HEADER_SYMBOLS);
+        symbolParser.cachedSymbolsToHeader();
+        assertNotNull(symbolParser.headerCache);
+        assertEquals(IPFS_PAYLOAD.length, symbolParser.headerCache.length);
+        symbolParser.symbolsCache = Arrays.copyOfRange(symbols, QRTone.HEADER_SYMBOLS, symbols.length);
+        // Symbol parser stores symbols in block order
+        QRTone.deinterleaveSymbols(symbolParser.symbolsCache, Configuration.getTotalSymbolsForEcc(symbolParser.headerCache.getEccLevel()));
+        symbolParser.cachedSymbolsToPayload();
+        byte[] payloadData = symbolParser.payload;
         assertNotNull(payloadData);
         assertArrayEquals(IPFS_PAYLOAD, payloadData);
-        assertEquals(0, qrTone.getFixedErrors());
+        assertEquals(0, symbolParser.fixedErrors.get());
     }
 
     @Test
@@ -474,16 +536,19 @@ public class QRToneTest {
         byte[] payload = new byte[] {5,6};
         qrTone.setPayload(payload, Configuration.ECC_LEVEL.ECC_L, false);
         byte[] symbols = qrTone.symbolsToDeliver;
-        qrTone.symbolsCache = Arrays.copyOfRange(symbols, 0, QRTone.HEADER_SYMBOLS);
-        qrTone.cachedSymbolsToHeader();
-        assertNotNull(qrTone.headerCache);
-        assertEquals(payload.length, qrTone.headerCache.length);
-        qrTone.symbolsCache = Arrays.copyOfRange(symbols, QRTone.HEADER_SYMBOLS, symbols.length);
-        qrTone.cachedSymbolsToPayload();
-        byte[] payloadData = qrTone.getPayload();
+        QRTone.SymbolParser symbolParser = qrTone.createSymbolParser();
+        symbolParser.symbolsCache = Arrays.copyOfRange(symbols, 0, QRTone.HEADER_SYMBOLS);
+        symbolParser.cachedSymbolsToHeader();
+        assertNotNull(symbolParser.headerCache);
+        assertEquals(payload.length, symbolParser.headerCache.length);
+        symbolParser.symbolsCache = Arrays.copyOfRange(symbols, QRTone.HEADER_SYMBOLS, symbols.length);
+        // Symbol parser stores symbols in block order
+        QRTone.deinterleaveSymbols(symbolParser.symbolsCache, Configuration.getTotalSymbolsForEcc(symbolParser.headerCache.getEccLevel()));
+        symbolParser.cachedSymbolsToPayload();
+        byte[] payloadData = symbolParser.payload;
         assertNotNull(payloadData);
         assertArrayEquals(payload, payloadData);
-        assertEquals(0, qrTone.getFixedErrors());
+        assertEquals(0, symbolParser.fixedErrors.get());
     }
 
     @Test
@@ -491,17 +556,20 @@ public class QRToneTest {
         QRTone qrTone = new QRTone(Configuration.getAudible(44100));
         qrTone.setPayload(IPFS_PAYLOAD);
         byte[] symbols = qrTone.symbolsToDeliver;
-        qrTone.symbolsCache = Arrays.copyOfRange(symbols, 0, QRTone.HEADER_SYMBOLS);
-        qrTone.symbolsCache[1] = 0xC;
-        qrTone.cachedSymbolsToHeader();
-        assertNotNull(qrTone.headerCache);
-        assertEquals(IPFS_PAYLOAD.length, qrTone.headerCache.length);
-        qrTone.symbolsCache = Arrays.copyOfRange(symbols, QRTone.HEADER_SYMBOLS, symbols.length);
-        qrTone.cachedSymbolsToPayload();
-        byte[] payloadData = qrTone.getPayload();
+        QRTone.SymbolParser symbolParser = qrTone.createSymbolParser();
+        symbolParser.symbolsCache = Arrays.copyOfRange(symbols, 0, QRTone.HEADER_SYMBOLS);
+        symbolParser.symbolsCache[1] = 0xC;
+        symbolParser.cachedSymbolsToHeader();
+        assertNotNull(symbolParser.headerCache);
+        assertEquals(IPFS_PAYLOAD.length, symbolParser.headerCache.length);
+        symbolParser.symbolsCache = Arrays.copyOfRange(symbols, QRTone.HEADER_SYMBOLS, symbols.length);
+        // Symbol parser stores symbols in block order
+        QRTone.deinterleaveSymbols(symbolParser.symbolsCache, Configuration.getTotalSymbolsForEcc(symbolParser.headerCache.getEccLevel()));
+        symbolParser.cachedSymbolsToPayload();
+        byte[] payloadData = symbolParser.payload;
         assertNotNull(payloadData);
         assertArrayEquals(IPFS_PAYLOAD, payloadData);
-        assertEquals(1, qrTone.getFixedErrors());
+        assertEquals(1, symbolParser.fixedErrors.get());
     }
 
     @Test
@@ -574,6 +642,37 @@ public class QRToneTest {
         assertEquals(1, fixedErros.get());
     }
 
+    @Test
+    public void testSymbolEncodingDecodingErasures() throws ReedSolomonException {
+        Configuration.ECC_LEVEL eccLevel = Configuration.ECC_LEVEL.ECC_L;
+        byte[] symbols = QRTone.payloadToSymbols(IPFS_PAYLOAD, eccLevel, true);
+        // Find where the symbols of the first block are transmitted
+        byte[] firstBlock = new byte[symbols.length];
+        Arrays.fill(firstBlock, 0, Configuration.getTotalSymbolsForEcc(eccLevel), (byte)1);
+        QRTone.interleaveSymbols(firstBlock, Configuration.getTotalSymbolsForEcc(eccLevel));
+        float[] symbolMargins = new float[symbols.length];
+        Arrays.fill(symbolMargins, 10.f);
+        // Push two errors in the same block, it exceeds ECC_L error correction capability
+        int pushedErrors = 0;
+        for(int i = 0; i < symbols.length && pushedErrors < 2; i++) {
+            if(firstBlock[i] == 1) {
+                symbols[i] = (byte)(symbols[i] ^ 0x05);
+                symbolMargins[i] = 1.5f;
+                pushedErrors++;
+            }
+        }
+        AtomicInteger fixedErrors = new AtomicInteger(0);
+        byte[] processedBytes = QRTone.symbolsToPayload(Arrays.copyOf(symbols, symbols.length), symbolMargins, eccLevel, true, fixedErrors);
+        assertArrayEquals(IPFS_PAYLOAD, processedBytes);
+        assertEquals(2, fixedErrors.get());
+        try {
+            QRTone.symbolsToPayload(symbols, eccLevel, true, null);
+            fail("Two errors should not be fixed without erasures");
+        } catch (ReedSolomonException ex) {
+            // Expected
+        }
+    }
+
     @Test
     public void testToneGeneration() throws IOException {
         double sampleRate = 44100;
@@ -651,6 +750,69 @@ public class QRToneTest {
         assertEquals(timeBlankBefore, qrTone.gePayloadSampleIndex() / sampleRate, 0.001);
     }
 
+    @Test
+    public void testToneDetectionLargeBuffers() throws IOException {
+        double sampleRate = 48000;
+        double timeBlankBefore = 0.35;
+        double timeBlankAfter = 0.35;
+        double powerRMS = Math.pow(10, -26.0 / 20.0); // -26 dBFS
+        double powerPeak = powerRMS * Math.sqrt(2);
+        double noisePeak = Math.pow(10, -50.0 / 20.0); // -26 dBFS
+        int samplesBefore = (int)(timeBlankBefore * sampleRate);
+        int samplesAfter = (int)(timeBlankAfter * sampleRate);
+        Configuration configuration = Configuration.getAudible(sampleRate);
+        QRTone qrTone = new QRTone(configuration);
+        final int dataSampleLength = qrTone.setPayload(IPFS_PAYLOAD);
+        float[] audio = new float[dataSampleLength];
+        float[] samples = new float[samplesBefore + dataSampleLength + samplesAfter];
+        qrTone.getSamples(audio, powerPeak);
+        System.arraycopy(audio, 0, samples, samplesBefore, dataSampleLength);
+        QRTone.generatePitch(samples, 0, samples.length, 0, sampleRate, 125, noisePeak);
+        // Push capture sized buffers
+        int cursor = 0;
+        boolean decoded = false;
+        while (cursor < samples.length) {
+            float[] window = Arrays.copyOfRange(samples, cursor, Math.min(samples.length, cursor + 4096));
+            decoded |= qrTone.pushSamples(window);
+            cursor += window.length;
+        }
+        assertTrue(decoded);
+        assertArrayEquals(IPFS_PAYLOAD, qrTone.getPayload());
+        assertEquals(timeBlankBefore, qrTone.gePayloadSampleIndex() / sampleRate, 0.001);
+        // Push the whole signal at once
+        qrTone = new QRTone(configuration);
+        assertTrue(qrTone.pushSamples(samples));
+        assertArrayEquals(IPFS_PAYLOAD, qrTone.getPayload());
+        assertEquals(timeBlankBefore, qrTone.gePayloadSampleIndex() / sampleRate, 0.001);
+    }
+
+    @Test
+    public void testToneDetectionRFFT() throws IOException {
+        double sampleRate = 44100;
+        double timeBlankBefore = 0.35;
+        double timeBlankAfter = 0.35;
+        double powerRMS = Math.pow(10, -26.0 / 20.0); // -26 dBFS
+        double powerPeak = powerRMS * Math.sqrt(2);
+        double noisePeak = Math.pow(10, -50.0 / 20.0); // -26 dBFS
+        int samplesBefore = (int)(timeBlankBefore * sampleRate);
+        int samplesAfter = (int)(timeBlankAfter * sampleRate);
+        Configuration configuration = Configuration.getAudible(sampleRate).withSpectralEngine(Configuration.SPECTRAL_ENGINE.RFFT);
+        QRTone qrTone = new QRTone(configuration);
+        final int dataSampleLength = qrTone.setPayload(IPFS_PAYLOAD);
+        float[] audio = new float[dataSampleLength];
+        float[] samples = new float[samplesBefore + dataSampleLength + samplesAfter];
+        qrTone.getSamples(audio, powerPeak);
+        System.arraycopy(audio, 0, samples, samplesBefore, dataSampleLength);
+        Random random = new Random(1337);
+        for (int s = 0; s < samples.length; s++) {
+            samples[s] += (float)(random.nextGaussian() * noisePeak);
+        }
+        assertTrue(qrTone.pushSamples(samples));
+        assertArrayEquals(IPFS_PAYLOAD, qrTone.getPayload());
+        assertEquals(0, qrTone.getFixedErrors());
+        assertEquals(timeBlankBefore, qrTone.gePayloadSampleIndex() / sampleRate, 0.001);
+    }
+
     @Test
     public void testShortToneDetection() throws IOException {
         double sampleRate = 44100;
@@ -698,6 +860,38 @@ public class QRToneTest {
     }
 
 
+    @Test
+    public void testInterleaveInPlace() {
+        Random random = new Random(QRToneTest.class.hashCode());
+        for(int blockSize : new int[] {QRTone.HEADER_SYMBOLS, 14, 12, 10}) {
+            for(int length = 1; length < 200; length += 7) {
+                byte[] data = new byte[length];
+                random.nextBytes(data);
+                // Reference stride walk
+                byte[] expected = new byte[length];
+                int insertionCursor = 0;
+                for(int j = 0; j < blockSize; j++) {
+                    for(int cursor = j; cursor < length; cursor += blockSize) {
+                        expected[insertionCursor++] = data[cursor];
+                    }
+                }
+                byte[] interleaved = Arrays.copyOf(data, length);
+                QRTone.interleaveSymbols(interleaved, blockSize);
+                assertArrayEquals(expected, interleaved);
+                float[] values = new float[length];
+                for(int i = 0; i < length; i++) {
+                    values[i] = interleaved[i];
+                }
+                QRTone.deinterleaveSymbols(interleaved, blockSize);
+                assertArrayEquals(data, interleaved);
+                QRTone.deinterleaveSymbols(values, blockSize);
+                for(int i = 0; i < length; i++) {
+                    assertEquals(data[i], values[i], 0);
+                }
+            }
+        }
+    }
+
     @Test
     public void testToneDetectionWithNoise() throws IOException, UnsupportedAudioFileException {
         boolean writeCSV = false;
@@ -810,6 +1004,403 @@ public class QRToneTest {
         }
     }
 
+    /**
+     * A gate without message (false trigger) is followed by a message starting while the false header is parsed
+     */
+    @Test
+    public void testMessageAfterFalseTrigger() {
+        double sampleRate = 44100;
+        double powerPeak = Math.pow(10, -26.0 / 20.0) * Math.sqrt(2);
+        Configuration configuration = Configuration.getAudible(sampleRate);
+        QRTone qrTone = new QRTone(configuration);
+        int messageLength = qrTone.setPayload(IPFS_PAYLOAD);
+        float[] message = new float[messageLength];
+        qrTone.getSamples(message, powerPeak);
+        int samplesBefore = (int)(0.35 * sampleRate);
+        int messageStart = samplesBefore + 2 * qrTone.gateLength + qrTone.wordLength + qrTone.wordSilenceLength;
+        float[] samples = new float[messageStart + messageLength + samplesBefore];
+        // Only the gate tones
+        System.arraycopy(message, 0, samples, samplesBefore, 2 * qrTone.gateLength);
+        for(int i = 0; i < message.length; i++) {
+            samples[messageStart + i] += message[i];
+        }
+        QRTone.generatePitch(samples, 0, samples.length, 0, sampleRate, 125, Math.pow(10, -50.0 / 20.0));
+        qrTone = new QRTone(configuration);
+        assertTrue(qrTone.pushSamples(samples));
+        assertArrayEquals(IPFS_PAYLOAD, qrTone.getPayload());
+        assertEquals(messageStart / sampleRate, qrTone.gePayloadSampleIndex() / sampleRate, 0.001);
+    }
+
+    /**
+     * A closer transmitter start a message in the middle of a message
+     */
+    @Test
+    public void testOverlappingMessages() {
+        double sampleRate = 44100;
+        double powerPeak = Math.pow(10, -26.0 / 20.0) * Math.sqrt(2);
+        Configuration configuration = Configuration.getAudible(sampleRate);
+        QRTone qrTone = new QRTone(configuration);
+        byte[] secondPayload = new byte[] {1, 2, 3, 4};
+        float[] firstMessage = new float[qrTone.setPayload(IPFS_PAYLOAD)];
+        qrTone.getSamples(firstMessage, powerPeak / 10);
+        float[] secondMessage = new float[qrTone.setPayload(secondPayload)];
+        qrTone.getSamples(secondMessage, powerPeak);
+        int samplesBefore = (int)(0.35 * sampleRate);
+        int secondMessageStart = samplesBefore + firstMessage.length / 2;
+        float[] samples = new float[Math.max(samplesBefore + firstMessage.length,
+                secondMessageStart + secondMessage.length) + samplesBefore];
+        System.arraycopy(firstMessage, 0, samples, samplesBefore, firstMessage.length);
+        for(int i = 0; i < secondMessage.length; i++) {
+            samples[secondMessageStart + i] += secondMessage[i];
+        }
+        QRTone.generatePitch(samples, 0, samples.length, 0, sampleRate, 125, Math.pow(10, -50.0 / 20.0));
+        qrTone = new QRTone(configuration);
+        int secondMessageEnd = secondMessageStart + secondMessage.length;
+        assertTrue(qrTone.pushSamples(Arrays.copyOfRange(samples, 0, secondMessageEnd)));
+        assertArrayEquals(secondPayload, qrTone.getPayload());
+        assertEquals(secondMessageStart / sampleRate, qrTone.gePayloadSampleIndex() / sampleRate, 0.001);
+        // The jammed symbols of the first message have a low margin, they are fixed as erasures
+        assertTrue(qrTone.pushSamples(Arrays.copyOfRange(samples, secondMessageEnd, samples.length)));
+        assertArrayEquals(IPFS_PAYLOAD, qrTone.getPayload());
+        assertEquals(samplesBefore / sampleRate, qrTone.gePayloadSampleIndex() / sampleRate, 0.001);
+        // With a single symbol parser the second message is found while the first one is being decoded
+        qrTone = new QRTone(configuration, 1);
+        qrTone.pushSamples(Arrays.copyOfRange(samples, 0, secondMessageEnd));
+        assertTrue(qrTone.getMetrics().getDroppedTriggers() >= 1);
+    }
+
+    private static long getAllocatedBytes(java.lang.management.ThreadMXBean threadMXBean) {
+        return ((com.sun.management.ThreadMXBean) threadMXBean).getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * Once constructed, listening to background noise must not allocate objects
+     */
+    @Test
+    public void testPushSamplesOverloads() {
+        double sampleRate = 44100;
+        Configuration configuration = Configuration.getAudible(sampleRate);
+        QRTone qrTone = new QRTone(configuration);
+        float[] message = new float[qrTone.setPayload(IPFS_PAYLOAD)];
+        qrTone.getSamples(message, Math.pow(10, -26.0 / 20.0) * Math.sqrt(2));
+        final int blank = (int)(0.35 * sampleRate);
+        final int length = blank + message.length + blank;
+        // Garbage before and after the samples to analyze
+        final int offset = 1000;
+        short[] shortSamples = new short[offset + length + offset];
+        Arrays.fill(shortSamples, Short.MAX_VALUE);
+        float[] floatSamples = new float[shortSamples.length];
+        Arrays.fill(floatSamples, 1.f);
+        Random random = new Random(1337);
+        double noisePeak = Math.pow(10, -50.0 / 20.0);
+        for(int i = 0; i < length; i++) {
+            double sample = random.nextGaussian() * noisePeak;
+            if(i >= blank && i < blank + message.length) {
+                sample += message[i - blank];
+            }
+            short value = (short)(sample * Short.MAX_VALUE);
+            shortSamples[offset + i] = value;
+            floatSamples[offset + i] = value / (float) Short.MAX_VALUE;
+        }
+        // Reference
+        qrTone = new QRTone(configuration);
+        assertTrue(qrTone.pushSamples(Arrays.copyOfRange(shortSamples, offset, offset + length)));
+        assertArrayEquals(IPFS_PAYLOAD, qrTone.getPayload());
+        final long payloadSampleIndex = qrTone.gePayloadSampleIndex();
+
+        qrTone = new QRTone(configuration);
+        assertTrue(qrTone.pushSamples(shortSamples, offset, length));
+        assertArrayEquals(IPFS_PAYLOAD, qrTone.getPayload());
+        assertEquals(payloadSampleIndex, qrTone.gePayloadSampleIndex());
+
+        qrTone = new QRTone(configuration);
+        assertTrue(qrTone.pushSamples(floatSamples, offset, length));
+        assertArrayEquals(IPFS_PAYLOAD, qrTone.getPayload());
+        assertEquals(payloadSampleIndex, qrTone.gePayloadSampleIndex());
+
+        FloatBuffer heapFloatBuffer = FloatBuffer.wrap(floatSamples, offset, length);
+        qrTone = new QRTone(configuration);
+        assertTrue(qrTone.pushSamples(heapFloatBuffer));
+        assertFalse(heapFloatBuffer.hasRemaining());
+        assertArrayEquals(IPFS_PAYLOAD, qrTone.getPayload());
+        assertEquals(payloadSampleIndex, qrTone.gePayloadSampleIndex());
+
+        FloatBuffer directFloatBuffer = ByteBuffer.allocateDirect(length * 4).order(ByteOrder.nativeOrder()).asFloatBuffer();
+        directFloatBuffer.put(floatSamples, offset, length).flip();
+        qrTone = new QRTone(configuration);
+        assertTrue(qrTone.pushSamples(directFloatBuffer));
+        assertArrayEquals(IPFS_PAYLOAD, qrTone.getPayload());
+        assertEquals(payloadSampleIndex, qrTone.gePayloadSampleIndex());
+
+        ShortBuffer heapShortBuffer = ShortBuffer.wrap(shortSamples, offset, length).slice();
+        qrTone = new QRTone(configuration);
+        assertTrue(qrTone.pushSamples(heapShortBuffer));
+        assertFalse(heapShortBuffer.hasRemaining());
+        assertArrayEquals(IPFS_PAYLOAD, qrTone.getPayload());
+        assertEquals(payloadSampleIndex, qrTone.gePayloadSampleIndex());
+
+        for(ByteOrder byteOrder : new ByteOrder[] {ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN}) {
+            // The last byte is not a complete sample
+            ByteBuffer directByteBuffer = ByteBuffer.allocateDirect(length * 2 + 1).order(byteOrder);
+            directByteBuffer.asShortBuffer().put(shortSamples, offset, length);
+            ShortBuffer directShortBuffer = directByteBuffer.asShortBuffer();
+            qrTone = new QRTone(configuration);
+            assertTrue(qrTone.pushSamples(directShortBuffer));
+            assertArrayEquals(IPFS_PAYLOAD, qrTone.getPayload());
+            assertEquals(payloadSampleIndex, qrTone.gePayloadSampleIndex());
+            qrTone = new QRTone(configuration);
+            assertTrue(qrTone.pushSamples(directByteBuffer));
+            assertEquals(1, directByteBuffer.remaining());
+            assertArrayEquals(IPFS_PAYLOAD, qrTone.getPayload());
+            assertEquals(payloadSampleIndex, qrTone.gePayloadSampleIndex());
+        }
+    }
+
+    @Test
+    public void testIdleListeningAllocationFree() {
+        java.lang.management.ThreadMXBean threadMXBean = java.lang.management.ManagementFactory.getThreadMXBean();
+        org.junit.Assume.assumeTrue(threadMXBean instanceof com.sun.management.ThreadMXBean &&
+                ((com.sun.management.ThreadMXBean) threadMXBean).isThreadAllocatedMemorySupported());
+        ((com.sun.management.ThreadMXBean) threadMXBean).setThreadAllocatedMemoryEnabled(true);
+        double sampleRate = 44100;
+        QRTone qrTone = new QRTone(Configuration.getAudible(sampleRate));
+        Random random = new Random(QRToneTest.class.hashCode());
+        float[] samples = new float[4096];
+        short[] shortSamples = new short[samples.length];
+        for(int i = 0; i < samples.length; i++) {
+            samples[i] = (float)(random.nextGaussian() * 0.01);
+            shortSamples[i] = (short)(samples[i] * Short.MAX_VALUE);
+        }
+        // Warm up, let the JIT compile the analysis methods
+        for(int i = 0; i < 500; i++) {
+            assertFalse(qrTone.pushSamples(samples));
+            assertFalse(qrTone.pushSamples(shortSamples));
+        }
+        // Cost of the measurement itself
+        long overhead = -getAllocatedBytes(threadMXBean) + getAllocatedBytes(threadMXBean);
+        long start = getAllocatedBytes(threadMXBean);
+        for(int i = 0; i < 100; i++) {
+            qrTone.pushSamples(samples);
+            qrTone.pushSamples(shortSamples);
+        }
+        long allocated = getAllocatedBytes(threadMXBean) - start - overhead;
+        assertEquals(0, allocated);
+    }
+
+    @Test
+    public void testTriggerLevels() {
+        final double sampleRate = 16000;
+        Configuration configuration = Configuration.getAudible(sampleRate);
+        double[] frequencies = configuration.computeFrequencies(QRTone.NUM_FREQUENCIES);
+        double[] frequencyLimits = configuration.computeFrequencies(QRTone.NUM_FREQUENCIES, QRTone.WINDOW_WIDTH);
+        double[] gateFrequencies = new double[]{frequencies[QRTone.FREQUENCY_ROOT], frequencies[QRTone.FREQUENCY_ROOT + 2]};
+        int windowLength = Configuration.computeMinimumWindowSize(sampleRate, gateFrequencies[0], frequencyLimits[QRTone.FREQUENCY_ROOT]);
+        final float[] samples = new float[(int)sampleRate];
+        QRTone.generatePitch(samples, 0, samples.length, 0, sampleRate, gateFrequencies[0], 0.1);
+        Random random = new Random(1337);
+        for (int s = 0; s < samples.length; s++) {
+            samples[s] += (float)(random.nextGaussian() * 0.01);
+        }
+        // Any hop size must give the levels of the corresponding Hann windows
+        for(int windowOffset : new int[] {windowLength / 2, windowLength / 4, windowLength / 5}) {
+            final TriggerAnalyzer triggerAnalyzer = new TriggerAnalyzer(sampleRate, (int)(sampleRate * configuration.gateTime),
+                    gateFrequencies, windowLength, windowOffset, configuration.triggerSnr);
+            final int analyzedWindowLength = triggerAnalyzer.getWindowLength();
+            final AtomicInteger windows = new AtomicInteger(0);
+            triggerAnalyzer.setTriggerCallback(new TriggerAnalyzer.TriggerCallback() {
+                @Override
+                public void onNewLevels(TriggerAnalyzer triggerAnalyzer, long location, double[] spl) {
+                    assertEquals(0, location % triggerAnalyzer.getWindowOffset());
+                    for (int idFreq = 0; idFreq < spl.length; idFreq++) {
+                        IterativeGeneralizedGoertzel goertzel = new IterativeGeneralizedGoertzel(sampleRate,
+                                triggerAnalyzer.frequencies[idFreq], analyzedWindowLength, true);
+                        goertzel.processSamples(samples, (int) location, (int) location + analyzedWindowLength);
+                        assertEquals(20 * Math.log10(goertzel.computeRMS(false).rms), spl[idFreq], 0.01);
+                    }
+                    windows.incrementAndGet();
+                }
+
+                @Override
+                public void onTrigger(TriggerAnalyzer triggerAnalyzer, long messageStartLocation) {
+                }
+            });
+            int cursor = 0;
+            while (cursor < samples.length) {
+                int windowSize = Math.min(random.nextInt(115) + 20, samples.length - cursor);
+                triggerAnalyzer.processSamples(samples, cursor, cursor + windowSize, cursor);
+                cursor += windowSize;
+            }
+            assertEquals((samples.length - analyzedWindowLength) / windowOffset + 1, windows.get());
+        }
+    }
+
+    private static List<Long> findTriggers(TriggerAnalyzer triggerAnalyzer, float[] samples, short[] pcmSamples,
+                                           boolean expectIdle) {
+        List<Long> triggers = new ArrayList<>();
+        Random random = new Random(42);
+        int cursor = 0;
+        boolean wasIdle = false;
+        while (cursor < samples.length) {
+            int windowSize = Math.min(random.nextInt(1000) + 20, samples.length - cursor);
+            if(pcmSamples != null) {
+                triggerAnalyzer.processSamples(pcmSamples, cursor, cursor + windowSize, cursor);
+            } else {
+                triggerAnalyzer.processSamples(samples, cursor, cursor + windowSize, cursor);
+            }
+            wasIdle |= triggerAnalyzer.isIdle();
+            if(triggerAnalyzer.getFirstToneLocation() != -1) {
+                triggers.add(triggerAnalyzer.getFirstToneLocation());
+                triggerAnalyzer.reset();
+            }
+            cursor += windowSize;
+        }
+        assertEquals(expectIdle, wasIdle);
+        return triggers;
+    }
+
+    /**
+     * The trigger locations must not depend on the idle mode of the trigger analyzer
+     */
+    @Test
+    public void testTriggerIdleMode() {
+        final double sampleRate = 44100;
+        Configuration configuration = Configuration.getAudible(sampleRate);
+        QRTone qrTone = new QRTone(configuration);
+        float[] message = new float[qrTone.setPayload(IPFS_PAYLOAD)];
+        final float[] samples = new float[(int)(11 * sampleRate)];
+        final double[] messageLevels = new double[]{-20, -45, -30};
+        for(int idMessage = 0; idMessage < messageLevels.length; idMessage++) {
+            qrTone.getSamples(message, Math.pow(10, messageLevels[idMessage] / 20.0) * Math.sqrt(2));
+            // The beginning of the message is enough for the trigger
+            System.arraycopy(message, 0, samples, (int)((1 + 3 * idMessage) * sampleRate), (int)sampleRate);
+        }
+        // The background noise decreases slowly
+        Random random = new Random(1337);
+        final short[] pcmSamples = new short[samples.length];
+        for (int s = 0; s < samples.length; s++) {
+            samples[s] += (float)(random.nextGaussian() * Math.pow(10, (-40.0 - 30.0 * s / samples.length) / 20.0));
+            pcmSamples[s] = FixedPoint.toPcm(samples[s]);
+        }
+        double[] frequencies = configuration.computeFrequencies(QRTone.NUM_FREQUENCIES);
+        double[] frequencyLimits = configuration.computeFrequencies(QRTone.NUM_FREQUENCIES, QRTone.WINDOW_WIDTH);
+        double[] gateFrequencies = new double[]{frequencies[QRTone.FREQUENCY_ROOT], frequencies[QRTone.FREQUENCY_ROOT + 2]};
+        int windowLength = Configuration.computeMinimumWindowSize(sampleRate, gateFrequencies[0],
+                frequencyLimits[QRTone.FREQUENCY_ROOT]);
+        for(short[] pcm : new short[][]{null, pcmSamples}) {
+            TriggerAnalyzer idleAnalyzer = new TriggerAnalyzer(sampleRate, qrTone.gateLength, gateFrequencies,
+                    windowLength, configuration.triggerSnr);
+            TriggerAnalyzer reference = new TriggerAnalyzer(sampleRate, qrTone.gateLength, gateFrequencies,
+                    windowLength, configuration.triggerSnr);
+            // All the frequencies are evaluated while a callback is set
+            reference.setTriggerCallback(new TriggerAnalyzer.TriggerCallback() {
+                @Override
+                public void onNewLevels(TriggerAnalyzer triggerAnalyzer, long location, double[] spl) {
+                }
+
+                @Override
+                public void onTrigger(TriggerAnalyzer triggerAnalyzer, long messageStartLocation) {
+                }
+            });
+            List<Long> expected = findTriggers(reference, samples, pcm, false);
+            // Symbols on the trigger frequencies can also trigger
+            assertTrue(expected.size() >= messageLevels.length);
+            assertEquals(expected, findTriggers(idleAnalyzer, samples, pcm, true));
+            assertEquals(reference.backgroundNoiseEvaluator.result(), idleAnalyzer.backgroundNoiseEvaluator.result(),
+                    0);
+        }
+    }
+
+    /**
+     * Messages around the trigger threshold must trigger the same way with and without idle mode
+     */
+    @Test
+    public void testTriggerIdleModeThreshold() {
+        final double sampleRate = 44100;
+        Configuration configuration = Configuration.getAudible(sampleRate);
+        QRTone qrTone = new QRTone(configuration);
+        float[] message = new float[qrTone.setPayload(IPFS_PAYLOAD)];
+        final double[] messageLevels = new double[]{-60, -62, -64, -66, -68, -70, -72, -74};
+        final float[] samples = new float[(int)((1 + 2 * messageLevels.length) * sampleRate)];
+        for(int idMessage = 0; idMessage < messageLevels.length; idMessage++) {
+            // Restart the message from the gate tones, the waveforms are added to the buffer
+            qrTone.setPayload(IPFS_PAYLOAD);
+            Arrays.fill(message, 0);
+            qrTone.getSamples(message, Math.pow(10, messageLevels[idMessage] / 20.0) * Math.sqrt(2));
+            System.arraycopy(message, 0, samples, (int)((1 + 2 * idMessage) * sampleRate), (int)(0.5 * sampleRate));
+        }
+        Random random = new Random(1337);
+        final short[] pcmSamples = new short[samples.length];
+        for (int s = 0; s < samples.length; s++) {
+            samples[s] += (float)(random.nextGaussian() * Math.pow(10, -60 / 20.0));
+            pcmSamples[s] = FixedPoint.toPcm(samples[s]);
+        }
+        double[] frequencies = configuration.computeFrequencies(QRTone.NUM_FREQUENCIES);
+        double[] frequencyLimits = configuration.computeFrequencies(QRTone.NUM_FREQUENCIES, QRTone.WINDOW_WIDTH);
+        double[] gateFrequencies = new double[]{frequencies[QRTone.FREQUENCY_ROOT], frequencies[QRTone.FREQUENCY_ROOT + 2]};
+        int windowLength = Configuration.computeMinimumWindowSize(sampleRate, gateFrequencies[0],
+                frequencyLimits[QRTone.FREQUENCY_ROOT]);
+        for(short[] pcm : new short[][]{null, pcmSamples}) {
+            TriggerAnalyzer idleAnalyzer = new TriggerAnalyzer(sampleRate, qrTone.gateLength, gateFrequencies,
+                    windowLength, configuration.triggerSnr);
+            TriggerAnalyzer reference = new TriggerAnalyzer(sampleRate, qrTone.gateLength, gateFrequencies,
+                    windowLength, configuration.triggerSnr);
+            reference.setTriggerCallback(new TriggerAnalyzer.TriggerCallback() {
+                @Override
+                public void onNewLevels(TriggerAnalyzer triggerAnalyzer, long location, double[] spl) {
+                }
+
+                @Override
+                public void onTrigger(TriggerAnalyzer triggerAnalyzer, long messageStartLocation) {
+                }
+            });
+            List<Long> expected = findTriggers(reference, samples, pcm, false);
+            // The quietest messages are missed, a message may also trigger after a missed one
+            assertTrue(expected.size() > 1 && expected.size() < messageLevels.length);
+            assertEquals(expected, findTriggers(idleAnalyzer, samples, pcm, true));
+            // The idle windows feed the background noise with the same levels
+            assertEquals(reference.backgroundNoiseEvaluator.result(), idleAnalyzer.backgroundNoiseEvaluator.result(),
+                    0);
+            assertEquals(reference.getTriggerNoiseLevel(), idleAnalyzer.getTriggerNoiseLevel(), 0);
+        }
+    }
+
+    /**
+     * While idle the background noise is evaluated from the Hann windowed level of the last frequency
+     */
+    @Test
+    public void testTriggerIdleBackgroundNoise() {
+        final double sampleRate = 44100;
+        Configuration configuration = Configuration.getAudible(sampleRate);
+        QRTone qrTone = new QRTone(configuration);
+        double[] frequencies = configuration.computeFrequencies(QRTone.NUM_FREQUENCIES);
+        double[] frequencyLimits = configuration.computeFrequencies(QRTone.NUM_FREQUENCIES, QRTone.WINDOW_WIDTH);
+        double[] gateFrequencies = new double[]{frequencies[QRTone.FREQUENCY_ROOT], frequencies[QRTone.FREQUENCY_ROOT + 2]};
+        int windowLength = Configuration.computeMinimumWindowSize(sampleRate, gateFrequencies[0],
+                frequencyLimits[QRTone.FREQUENCY_ROOT]);
+        Random random = new Random(1337);
+        final float[] samples = new float[(int)(5 * sampleRate)];
+        for (int s = 0; s < samples.length; s++) {
+            samples[s] = (float)(random.nextGaussian() * Math.pow(10, -50.0 / 20.0));
+        }
+        TriggerAnalyzer idleAnalyzer = new TriggerAnalyzer(sampleRate, qrTone.gateLength, gateFrequencies,
+                windowLength, configuration.triggerSnr);
+        TriggerAnalyzer reference = new TriggerAnalyzer(sampleRate, qrTone.gateLength, gateFrequencies,
+                windowLength, configuration.triggerSnr);
+        reference.setTriggerCallback(new TriggerAnalyzer.TriggerCallback() {
+            @Override
+            public void onNewLevels(TriggerAnalyzer triggerAnalyzer, long location, double[] spl) {
+            }
+
+            @Override
+            public void onTrigger(TriggerAnalyzer triggerAnalyzer, long messageStartLocation) {
+            }
+        });
+        idleAnalyzer.processSamples(samples, 0);
+        reference.processSamples(samples, 0);
+        assertTrue(idleAnalyzer.isIdle());
+        assertEquals(reference.backgroundNoiseEvaluator.result(), idleAnalyzer.backgroundNoiseEvaluator.result(), 0);
+    }
+
     @Test
     public void testPeakFinding() {
         float[] samples = new float[521];
@@ -840,6 +1431,83 @@ public class QRToneTest {
         assertEquals(1.0, vals[1], 1e-3);
     }
 
+    /**
+     * Symbols encoding as done with the generic Reed-Solomon encoder
+     */
+    private static byte[] referencePayloadToSymbols(byte[] payload, Configuration.ECC_LEVEL eccLevel, boolean addCRC) {
+        final int blockSymbolsSize = Configuration.getTotalSymbolsForEcc(eccLevel);
+        final int blockECCSymbols = Configuration.getEccSymbolsForEcc(eccLevel);
+        Header header = new Header(payload.length, eccLevel, addCRC);
+        if(addCRC) {
+            final int crc = QRTone.crc16(payload, 0, payload.length);
+            payload = Arrays.copyOf(payload, payload.length + QRTone.CRC_BYTE_LENGTH);
+            payload[payload.length - 2] = (byte)(crc >>> 8);
+            payload[payload.length - 1] = (byte)(crc & 0xFF);
+        }
+        byte[] symbols = new byte[header.numberOfSymbols];
+        ReedSolomonEncoder encoder = new ReedSolomonEncoder(GenericGF.AZTEC_PARAM);
+        for(int blockId = 0; blockId < header.numberOfBlocks; blockId++) {
+            int[] blockSymbols = new int[blockSymbolsSize];
+            int payloadSize = Math.min(header.payloadByteSize, payload.length - blockId * header.payloadByteSize);
+            for (int i = 0; i < payloadSize; i++) {
+                blockSymbols[i * 2] = (payload[i + blockId * header.payloadByteSize] >>> 4) & 0x0F;
+                blockSymbols[i * 2 + 1] = payload[i + blockId * header.payloadByteSize] & 0x0F;
+            }
+            encoder.encode(blockSymbols, blockECCSymbols);
+            for(int i = 0; i < payloadSize * 2; i++) {
+                symbols[blockId * blockSymbolsSize + i] = (byte)blockSymbols[i];
+            }
+            for(int i = 0; i < blockECCSymbols; i++) {
+                symbols[blockId * blockSymbolsSize + payloadSize * 2 + i] = (byte)blockSymbols[header.payloadSymbolsSize + i];
+            }
+        }
+        QRTone.interleaveSymbols(symbols, blockSymbolsSize);
+        return symbols;
+    }
+
+    @Test
+    public void testPayloadToSymbolsSameAsReference() {
+        Random random = new Random(QRToneTest.class.hashCode());
+        for(Configuration.ECC_LEVEL eccLevel : Configuration.ECC_LEVEL.values()) {
+            for(int length = 0; length < 40; length++) {
+                byte[] payload = new byte[length];
+                random.nextBytes(payload);
+                assertArrayEquals(referencePayloadToSymbols(payload, eccLevel, false), QRTone.payloadToSymbols(payload, eccLevel, false));
+                assertArrayEquals(referencePayloadToSymbols(payload, eccLevel, true), QRTone.payloadToSymbols(payload, eccLevel, true));
+            }
+        }
+    }
+
+    @Test
+    public void testSetPayloadAllocationFree() {
+        java.lang.management.ThreadMXBean threadMXBean = java.lang.management.ManagementFactory.getThreadMXBean();
+        org.junit.Assume.assumeTrue(threadMXBean instanceof com.sun.management.ThreadMXBean &&
+                ((com.sun.management.ThreadMXBean) threadMXBean).isThreadAllocatedMemorySupported());
+        ((com.sun.management.ThreadMXBean) threadMXBean).setThreadAllocatedMemoryEnabled(true);
+        QRTone qrTone = new QRTone(Configuration.getAudible(44100));
+        byte[] payload = Arrays.copyOf(IPFS_PAYLOAD, IPFS_PAYLOAD.length);
+        qrTone.setPayload(payload);
+        byte[] symbols = qrTone.symbolsToDeliver;
+        for(int i = 0; i < 100; i++) {
+            payload[0] = (byte)i;
+            qrTone.setPayload(payload);
+        }
+        long before = getAllocatedBytes(threadMXBean);
+        for(int i = 0; i < 100; i++) {
+            payload[0] = (byte)i;
+            qrTone.setPayload(payload);
+        }
+        long after = getAllocatedBytes(threadMXBean);
+        assertEquals(0, after - before);
+        assertSame(symbols, qrTone.symbolsToDeliver);
+        byte[] expected = new byte[symbols.length];
+        System.arraycopy(QRTone.payloadToSymbols(new Header(payload.length, Configuration.DEFAULT_ECC_LEVEL, true).encodeHeader(),
+                QRTone.HEADER_SYMBOLS, QRTone.HEADER_ECC_SYMBOLS, false), 0, expected, 0, QRTone.HEADER_SYMBOLS);
+        byte[] payloadSymbols = referencePayloadToSymbols(payload, Configuration.DEFAULT_ECC_LEVEL, true);
+        System.arraycopy(payloadSymbols, 0, expected, QRTone.HEADER_SYMBOLS, payloadSymbols.length);
+        assertArrayEquals(expected, symbols);
+    }
+
     @Test
     public void testSymbolsEncodeDecode() throws ReedSolomonException {
         byte payload[] = {0x00, 0x04, 'n', 'i' , 'c' , 'o', 0x01, 0x05, 'h', 'e', 'l', 'l', 'o' };
@@ -853,6 +1521,203 @@ public class QRToneTest {
         assertArrayEquals(payload, decodedPayload);
     }
 
+    @Test
+    public void testBlockCorrectionsMetrics() throws ReedSolomonException {
+        final Configuration.ECC_LEVEL eccLevel = Configuration.ECC_LEVEL.ECC_Q;
+        final int blockSymbolsSize = Configuration.getTotalSymbolsForEcc(eccLevel);
+        byte[] symbols = QRTone.payloadToSymbols(IPFS_PAYLOAD, eccLevel, true);
+        Interleaver.getInterleaver(symbols.length, blockSymbolsSize).deinterleave(symbols);
+        DecoderMetrics metrics = new DecoderMetrics();
+        byte[] received = Arrays.copyOf(symbols, symbols.length);
+        received[blockSymbolsSize + 1] ^= 0x05;
+        assertArrayEquals(IPFS_PAYLOAD, QRTone.blockSymbolsToPayload(new ReedSolomonGF16(), received, null, eccLevel,
+                true, null, metrics, null));
+        final int numberOfBlocks = (symbols.length + blockSymbolsSize - 1) / blockSymbolsSize;
+        assertEquals(numberOfBlocks - 1, metrics.getBlockCorrections(0));
+        assertEquals(1, metrics.getBlockCorrections(1));
+        // Too many errors in the first block
+        received = Arrays.copyOf(symbols, symbols.length);
+        for(int i = 0; i < blockSymbolsSize - 1; i++) {
+            received[i] ^= 0x05;
+        }
+        try {
+            QRTone.blockSymbolsToPayload(new ReedSolomonGF16(), received, null, eccLevel, true, null, metrics, null);
+            fail();
+        } catch (ReedSolomonException ex) {
+            // expected
+        }
+        assertEquals(1, metrics.getPayloadReedSolomonFailures());
+        assertEquals(0, metrics.getPayloadCrcFailures());
+        // Valid blocks with a wrong CRC
+        byte[] payloadWithWrongCRC = Arrays.copyOf(IPFS_PAYLOAD, IPFS_PAYLOAD.length + QRTone.CRC_BYTE_LENGTH);
+        received = QRTone.payloadToSymbols(payloadWithWrongCRC, eccLevel, false);
+        Interleaver.getInterleaver(received.length, blockSymbolsSize).deinterleave(received);
+        try {
+            QRTone.blockSymbolsToPayload(new ReedSolomonGF16(), received, null, eccLevel, true, null, metrics, null);
+            fail();
+        } catch (ReedSolomonException ex) {
+            // expected
+        }
+        assertEquals(1, metrics.getPayloadReedSolomonFailures());
+        assertEquals(1, metrics.getPayloadCrcFailures());
+        // Snapshot is not modified by the source counters
+        DecoderMetrics snapshot = new DecoderMetrics(metrics);
+        metrics.reset();
+        assertEquals(0, metrics.getPayloadCrcFailures());
+        assertEquals(1, snapshot.getPayloadCrcFailures());
+        assertEquals(numberOfBlocks - 1, snapshot.getBlockCorrections(0));
+    }
+
+    @Test
+    public void testDecoderMetrics() {
+        final double sampleRate = 44100;
+        Configuration configuration = Configuration.getAudible(sampleRate);
+        short[] samples = generateMessage(configuration, -20, -50);
+        QRTone qrTone = new QRTone(configuration);
+        qrTone.setPushLatencyHistogram(true);
+        qrTone.setStageTimers(true);
+        final int pushLength = 1024;
+        int pushes = 0;
+        boolean decoded = false;
+        for(int cursor = 0; cursor < samples.length; cursor += pushLength) {
+            decoded |= qrTone.pushSamples(samples, cursor, Math.min(pushLength, samples.length - cursor));
+            pushes++;
+        }
+        assertTrue(decoded);
+        DecoderMetrics metrics = qrTone.getMetrics();
+        assertEquals(samples.length, metrics.getSamplesProcessed());
+        assertEquals(pushes, metrics.getPushCount());
+        assertTrue(metrics.getPushLatencyPercentile(0.5) > 0);
+        assertTrue(metrics.getTriggerStageNanos() > 0);
+        assertTrue(metrics.getSymbolStageNanos() > 0);
+        assertTrue(metrics.getTriggersFired() >= 1);
+        assertEquals(0, metrics.getDroppedTriggers());
+        assertEquals(1, metrics.getDecodedMessages());
+        long blocks = 0;
+        for(int fixedErrors = 0; fixedErrors <= DecoderMetrics.MAXIMUM_BLOCK_CORRECTIONS; fixedErrors++) {
+            blocks += metrics.getBlockCorrections(fixedErrors);
+        }
+        // Header block and payload blocks
+        assertTrue(blocks > 1);
+        // The trigger is fired on the gate tones, the payload is delivered after the last word of the message
+        final int messageLength = new QRTone(configuration).setPayload(IPFS_PAYLOAD);
+        assertTrue(metrics.getLastPayloadDelay() > messageLength / 2);
+        assertTrue(metrics.getLastPayloadDelay() < messageLength + pushLength);
+        assertEquals(metrics.getLastPayloadDelay(), metrics.getMeanPayloadDelay(), 1e-6);
+        // Counters are not updated in a snapshot
+        DecoderMetrics snapshot = new DecoderMetrics();
+        qrTone.pushSamples(new short[pushLength]);
+        qrTone.getMetrics(snapshot);
+        assertEquals(samples.length + pushLength, snapshot.getSamplesProcessed());
+        assertEquals(samples.length, metrics.getSamplesProcessed());
+        qrTone.resetMetrics();
+        assertEquals(0, qrTone.getMetrics().getSamplesProcessed());
+        assertEquals(0, qrTone.getMetrics().getPushCount());
+        // Nothing is timed once disabled
+        qrTone.setPushLatencyHistogram(false);
+        qrTone.setStageTimers(false);
+        qrTone.pushSamples(samples);
+        metrics = qrTone.getMetrics();
+        assertEquals(0, metrics.getPushCount());
+        assertEquals(0, metrics.getTriggerStageNanos());
+        assertEquals(0, metrics.getSymbolStageNanos());
+        assertEquals(Double.POSITIVE_INFINITY, metrics.getRealTimeFactor(sampleRate), 0);
+    }
+
+    @Test
+    public void testMessageQuality() {
+        final double sampleRate = 44100;
+        Configuration configuration = Configuration.getAudible(sampleRate);
+        short[] samples = generateMessage(configuration, -20, -50);
+        QRTone qrTone = new QRTone(configuration);
+        final List<MessageQuality> reports = new ArrayList<>();
+        qrTone.setQualityCallback(new QRTone.QualityCallback() {
+            @Override
+            public void onMessageQuality(QRTone qrTone, MessageQuality quality) {
+                // Words of the message may also fire triggers, their header is dropped
+                if(quality.isHeaderDecoded()) {
+                    reports.add(new MessageQuality(quality));
+                }
+            }
+        });
+        assertTrue(qrTone.pushSamples(samples));
+        assertEquals(1, reports.size());
+        MessageQuality quality = reports.get(0);
+        assertTrue(quality.isHeaderDecoded());
+        assertTrue(quality.isDecoded());
+        assertEquals(Configuration.DEFAULT_ECC_LEVEL, quality.getEccLevel());
+        final int blockSymbolsSize = Configuration.getTotalSymbolsForEcc(quality.getEccLevel());
+        assertEquals(Header.getNumberOfSymbols(IPFS_PAYLOAD.length, blockSymbolsSize,
+                Configuration.getEccSymbolsForEcc(quality.getEccLevel()), true), quality.getSymbolCount());
+        assertEquals((quality.getSymbolCount() + blockSymbolsSize - 1) / blockSymbolsSize, quality.getBlockCount());
+        for(int blockIndex = 0; blockIndex < quality.getBlockCount(); blockIndex++) {
+            assertEquals(0, quality.getBlockErrors(blockIndex));
+        }
+        assertEquals(qrTone.gePayloadSampleIndex(), quality.getSampleIndex());
+        // Tones at -20 dB over a -50 dB white noise
+        assertTrue(quality.getMinimumMargin() > 10);
+        assertTrue(quality.getMinimumSnr() > 10);
+        assertTrue(quality.getMeanSnr() >= quality.getMinimumSnr());
+        assertEquals(quality.getSymbolLevel(0) - quality.getNoiseLevel(), quality.getSymbolSnr(0), 1e-6);
+        assertTrue(Math.abs(quality.getTimingOffset()) <= qrTone.triggerAnalyzer.getWindowOffset());
+        // The last report is also available without callback
+        assertEquals(quality.getMeanMargin(), qrTone.getMessageQuality().getMeanMargin(), 1e-6);
+    }
+
+    @Test
+    public void testMessageQualityPayloadFailure() {
+        final double sampleRate = 44100;
+        Configuration configuration = Configuration.getAudible(sampleRate);
+        short[] samples = generateMessage(configuration, -20, -50);
+        QRTone qrTone = new QRTone(configuration);
+        // Mute the end of the message, the header is still decoded but there are too many erasures
+        final int messageLength = new QRTone(configuration).setPayload(IPFS_PAYLOAD);
+        final int messageEnd = (int)(0.35 * sampleRate) + messageLength;
+        Arrays.fill(samples, messageEnd - messageLength * 6 / 10, messageEnd, (short)0);
+        assertFalse(qrTone.pushSamples(samples));
+        MessageQuality quality = qrTone.getMessageQuality();
+        assertTrue(quality.isHeaderDecoded());
+        assertFalse(quality.isDecoded());
+        // Silent words have no margin and their level is clamped to the floor
+        assertEquals(0, quality.getMinimumMargin(), 0);
+        assertEquals(MessageQuality.MINIMUM_LEVEL - quality.getNoiseLevel(), quality.getMinimumSnr(), 1e-3);
+        assertFalse(Double.isInfinite(quality.getMeanSnr()) || Double.isNaN(quality.getMeanSnr()));
+        assertTrue(quality.getMeanSnr() > quality.getMinimumSnr());
+        assertFalse(Double.isNaN(quality.getMeanMargin()));
+        // Erasing all parity symbols of a block always succeeds, the wrong correction is found by the CRC
+        DecoderMetrics metrics = qrTone.getMetrics();
+        assertEquals(1, metrics.getPayloadReedSolomonFailures() + metrics.getPayloadCrcFailures());
+    }
+
+    @Test
+    public void testMessageQualitySilentWord() {
+        final double sampleRate = 44100;
+        Configuration configuration = Configuration.getAudible(sampleRate);
+        short[] samples = generateMessage(configuration, -20, -50);
+        QRTone qrTone = new QRTone(configuration);
+        // Mute the last word of the message, its two symbols are erased by the Reed-Solomon decoder
+        final int messageLength = new QRTone(configuration).setPayload(IPFS_PAYLOAD);
+        final int messageEnd = (int)(0.35 * sampleRate) + messageLength;
+        Arrays.fill(samples, messageEnd - qrTone.wordLength, messageEnd, (short)0);
+        assertTrue(qrTone.pushSamples(samples));
+        MessageQuality quality = qrTone.getMessageQuality();
+        assertTrue(quality.isDecoded());
+        int silentSymbols = 0;
+        for(int symbolIndex = 0; symbolIndex < quality.getSymbolCount(); symbolIndex++) {
+            if(quality.getSymbolLevel(symbolIndex) == (float) MessageQuality.MINIMUM_LEVEL) {
+                assertEquals(0, quality.getSymbolMargin(symbolIndex), 0);
+                silentSymbols++;
+            }
+        }
+        assertEquals(2, silentSymbols);
+        // The silent symbols lower the statistics without making them infinite
+        assertEquals(MessageQuality.MINIMUM_LEVEL - quality.getNoiseLevel(), quality.getMinimumSnr(), 1e-3);
+        assertTrue(quality.getMeanSnr() > quality.getMinimumSnr());
+        assertFalse(Double.isInfinite(quality.getMeanSnr()) || Double.isNaN(quality.getMeanSnr()));
+        assertEquals(0, quality.getMinimumMargin(), 0);
+        assertTrue(quality.getMeanMargin() > 0);
+    }
+
     @Test
     public void testToneDetectionArduino() throws IOException, UnsupportedAudioFileException {
         boolean writeCSV = true;
@@ -892,8 +1757,135 @@ public class QRToneTest {
         System.out.println(qrTone.getFixedErrors()+" errors have been fixed");
     }
 
+    @Test
+    public void testToneDetectionArduinoRFFT() throws IOException {
+        double sampleRate = 16000;
+        Configuration configuration = Configuration.getAudible(sampleRate).withSpectralEngine(Configuration.SPECTRAL_ENGINE.RFFT);
+        QRTone qrTone = new QRTone(configuration);
+        float[] samples;
+        try(InputStream fileInputStream = QRToneTest.class.getResourceAsStream("ipfs_16khz_16bits_mono.raw")) {
+            samples = loadShortStream(fileInputStream, ByteOrder.LITTLE_ENDIAN);
+        }
+        assertTrue(qrTone.pushSamples(samples));
+        assertArrayEquals(IPFS_PAYLOAD, qrTone.getPayload());
+        // The recording is decoded without reaching the correction capacity of the payload
+        final int blockSymbolsSize = Configuration.getTotalSymbolsForEcc(Configuration.DEFAULT_ECC_LEVEL);
+        final int blockECCSymbols = Configuration.getEccSymbolsForEcc(Configuration.DEFAULT_ECC_LEVEL);
+        final int blocks = (Header.getNumberOfSymbols(IPFS_PAYLOAD.length, blockSymbolsSize, blockECCSymbols, true) +
+                blockSymbolsSize - 1) / blockSymbolsSize;
+        assertTrue(qrTone.getFixedErrors() < blocks * (blockECCSymbols / 2) / 2);
+    }
+
+
 
 
+    /**
+     * The fixed point engine must give the same results than the double precision Goertzel filters
+     */
+    private static void assertSameDetection(Configuration configuration, short[] samples) {
+        QRTone reference = new QRTone(configuration.withSpectralEngine(Configuration.SPECTRAL_ENGINE.GOERTZEL));
+        QRTone fixedPoint = new QRTone(configuration.withSpectralEngine(Configuration.SPECTRAL_ENGINE.FIXED_POINT));
+        assertTrue(reference.pushSamples(samples));
+        assertTrue(fixedPoint.pushSamples(samples));
+        assertArrayEquals(reference.getPayload(), fixedPoint.getPayload());
+        assertEquals(reference.gePayloadSampleIndex(), fixedPoint.gePayloadSampleIndex());
+        assertEquals(reference.getFixedErrors(), fixedPoint.getFixedErrors());
+    }
+
+    @Test
+    public void testToneDetectionFixedPoint() throws IOException {
+        float[] recording;
+        try(InputStream fileInputStream = QRToneTest.class.getResourceAsStream("ipfs_16khz_16bits_mono.raw")) {
+            recording = loadShortStream(fileInputStream, ByteOrder.LITTLE_ENDIAN);
+        }
+        short[] samples = new short[recording.length];
+        for(int i = 0; i < samples.length; i++) {
+            samples[i] = FixedPoint.toPcm(recording[i]);
+        }
+        assertSameDetection(Configuration.getAudible(16000), samples);
+        // Low level message
+        double sampleRate = 44100;
+        Configuration configuration = Configuration.getAudible(sampleRate);
+        QRTone qrTone = new QRTone(configuration);
+        float[] audio = new float[qrTone.setPayload(IPFS_PAYLOAD)];
+        qrTone.getSamples(audio, Math.pow(10, -60.0 / 20.0) * Math.sqrt(2));
+        final int samplesBefore = (int)(0.35 * sampleRate);
+        samples = new short[samplesBefore + audio.length + samplesBefore];
+        Random random = new Random(1337);
+        for(int i = 0; i < samples.length; i++) {
+            double sample = random.nextGaussian() * Math.pow(10, -85.0 / 20.0);
+            if(i >= samplesBefore && i < samplesBefore + audio.length) {
+                sample += audio[i - samplesBefore];
+            }
+            samples[i] = FixedPoint.toPcm((float) sample);
+        }
+        assertSameDetection(configuration, samples);
+    }
+
+    @Test
+    public void testTriggerLevelsFixedPoint() {
+        final double sampleRate = 16000;
+        Configuration configuration = Configuration.getAudible(sampleRate);
+        double[] frequencies = configuration.computeFrequencies(QRTone.NUM_FREQUENCIES);
+        double[] frequencyLimits = configuration.computeFrequencies(QRTone.NUM_FREQUENCIES, QRTone.WINDOW_WIDTH);
+        double[] gateFrequencies = new double[]{frequencies[QRTone.FREQUENCY_ROOT], frequencies[QRTone.FREQUENCY_ROOT + 2]};
+        int windowLength = Configuration.computeMinimumWindowSize(sampleRate, gateFrequencies[0], frequencyLimits[QRTone.FREQUENCY_ROOT]);
+        final float[] signal = new float[(int)sampleRate];
+        QRTone.generatePitch(signal, 0, signal.length, 0, sampleRate, gateFrequencies[0], 0.1);
+        Random random = new Random(1337);
+        final short[] samples = new short[signal.length];
+        final float[] floatSamples = new float[signal.length];
+        for (int s = 0; s < signal.length; s++) {
+            samples[s] = FixedPoint.toPcm(signal[s] + (float)(random.nextGaussian() * 0.01));
+            floatSamples[s] = samples[s] / (float) Short.MAX_VALUE;
+        }
+        final List<double[]> expectedLevels = new ArrayList<>();
+        TriggerAnalyzer reference = new TriggerAnalyzer(sampleRate, (int)(sampleRate * configuration.gateTime),
+                gateFrequencies, windowLength, configuration.triggerSnr);
+        reference.setTriggerCallback(new TriggerAnalyzer.TriggerCallback() {
+            @Override
+            public void onNewLevels(TriggerAnalyzer triggerAnalyzer, long location, double[] spl) {
+                expectedLevels.add(Arrays.copyOf(spl, spl.length));
+            }
+
+            @Override
+            public void onTrigger(TriggerAnalyzer triggerAnalyzer, long messageStartLocation) {
+            }
+        });
+        reference.processSamples(floatSamples, 0);
+        // Only 16 bits samples then float and 16 bits samples in the same analysis windows
+        for(final boolean mixed : new boolean[] {false, true}) {
+            TriggerAnalyzer triggerAnalyzer = new TriggerAnalyzer(sampleRate, (int)(sampleRate * configuration.gateTime),
+                    gateFrequencies, windowLength, configuration.triggerSnr);
+            final AtomicInteger windows = new AtomicInteger(0);
+            triggerAnalyzer.setTriggerCallback(new TriggerAnalyzer.TriggerCallback() {
+                @Override
+                public void onNewLevels(TriggerAnalyzer triggerAnalyzer, long location, double[] spl) {
+                    double[] expected = expectedLevels.get(windows.getAndIncrement());
+                    for(int idFreq = 0; idFreq < spl.length; idFreq++) {
+                        // Compare RMS values, the integer filters add a noise floor far below 16 bits quantization
+                        final double expectedRms = Math.pow(10, expected[idFreq] / 20);
+                        assertEquals(expectedRms, Math.pow(10, spl[idFreq] / 20), expectedRms * 1e-4 + 1e-6);
+                    }
+                }
+
+                @Override
+                public void onTrigger(TriggerAnalyzer triggerAnalyzer, long messageStartLocation) {
+                }
+            });
+            int cursor = 0;
+            while (cursor < samples.length) {
+                int windowSize = Math.min(random.nextInt(115) + 20, samples.length - cursor);
+                if(mixed && random.nextBoolean()) {
+                    triggerAnalyzer.processSamples(floatSamples, cursor, cursor + windowSize, cursor);
+                } else {
+                    triggerAnalyzer.processSamples(samples, cursor, cursor + windowSize, cursor);
+                }
+                cursor += windowSize;
+            }
+            assertEquals(expectedLevels.size(), windows.get());
+        }
+    }
 
     // Test adaptative geortzel window
     // @Test
@@ -958,6 +1950,52 @@ public class QRToneTest {
      * @ref http://ww1.microchip.com/downloads/en/appnotes/00543c.pdf https://ipfs.io/ipfs/QmdfpU2ziBrEg1WgzBXFqvrgRNse7btHoyVCfw8cEv5qgU
      *
      */
+    private static short[] generateMessage(Configuration configuration, double level, double noiseLevel) {
+        QRTone qrTone = new QRTone(configuration);
+        float[] audio = new float[qrTone.setPayload(IPFS_PAYLOAD)];
+        qrTone.getSamples(audio, Math.pow(10, level / 20.0) * Math.sqrt(2));
+        final int samplesBefore = (int)(0.35 * configuration.sampleRate);
+        short[] samples = new short[samplesBefore + audio.length + samplesBefore];
+        Random random = new Random(1337);
+        for(int i = 0; i < samples.length; i++) {
+            double sample = random.nextGaussian() * Math.pow(10, noiseLevel / 20.0);
+            if(i >= samplesBefore && i < samplesBefore + audio.length) {
+                sample += audio[i - samplesBefore];
+            }
+            samples[i] = FixedPoint.toPcm((float) sample);
+        }
+        return samples;
+    }
+
+    private static void assertDecimatedDetection(Configuration configuration, int decimationFactor, short[] samples) {
+        QRTone reference = new QRTone(configuration);
+        QRTone decimated = new QRTone(configuration.withDecimationFactor(decimationFactor));
+        assertTrue(reference.pushSamples(samples));
+        assertTrue(decimated.pushSamples(samples));
+        assertArrayEquals(reference.getPayload(), decimated.getPayload());
+        assertEquals(reference.gePayloadSampleIndex(), decimated.gePayloadSampleIndex(),
+                0.001 * configuration.sampleRate);
+        assertEquals(samples.length, decimated.getPushedSamples());
+    }
+
+    @Test
+    public void testToneDetectionDecimated() {
+        final double sampleRate = 44100;
+        Configuration audible = Configuration.getAudible(sampleRate);
+        short[] samples = generateMessage(audible, -20, -50);
+        assertDecimatedDetection(audible, 3, samples);
+        assertDecimatedDetection(audible.withSpectralEngine(Configuration.SPECTRAL_ENGINE.FIXED_POINT), 3, samples);
+        Configuration inaudible = Configuration.getInaudible(sampleRate);
+        samples = generateMessage(inaudible, -20, -50);
+        assertDecimatedDetection(inaudible, 8, samples);
+        assertDecimatedDetection(inaudible.withSpectralEngine(Configuration.SPECTRAL_ENGINE.RFFT), 8, samples);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDecimationBandTooWide() {
+        new QRTone(Configuration.getAudible(44100).withDecimationFactor(10));
+    }
+
     @Test
     public void testFastTone() {
         double sampleRate = 16000;
@@ -989,4 +2027,50 @@ public class QRToneTest {
         }
         assertArrayEquals(expected, got, 0.0001f);
     }
+
+    @Test
+    public void testSymbolWaveforms() {
+        Configuration configuration = Configuration.getAudible(44100);
+        QRTone qrTone = new QRTone(configuration);
+        final double power = 0.5;
+        float[] samples = new float[qrTone.setPayload(IPFS_PAYLOAD)];
+        qrTone.getSamples(samples, power);
+        // Generate the message with the oscillators, reset at the start of each gate and each word
+        float[] expected = new float[samples.length];
+        int cursor = 0;
+        for(int idGate = 0; idGate < 2; idGate++) {
+            IterativeTone tone = new IterativeTone(qrTone.getFrequencies()[QRTone.FREQUENCY_ROOT + idGate * 2],
+                    configuration.sampleRate);
+            IterativeHann hannWindow = new IterativeHann(qrTone.gateLength);
+            for(int i = 0; i < qrTone.gateLength; i++) {
+                expected[cursor++] = (float) (tone.next() * hannWindow.next() * power);
+            }
+        }
+        byte[] symbols = qrTone.symbolsToDeliver;
+        for(int wordIndex = 0; wordIndex < symbols.length; wordIndex += 2) {
+            cursor += qrTone.wordSilenceLength;
+            IterativeTone firstTone = new IterativeTone(qrTone.getFrequencies()[symbols[wordIndex]],
+                    configuration.sampleRate);
+            IterativeTone secondTone = new IterativeTone(qrTone.getFrequencies()[symbols[wordIndex + 1] +
+                    QRTone.FREQUENCY_ROOT], configuration.sampleRate);
+            IterativeTukey tukeyWindow = new IterativeTukey(qrTone.wordLength, 0.5);
+            for(int i = 0; i < qrTone.wordLength; i++) {
+                expected[cursor++] = (float) ((firstTone.next() + secondTone.next()) * power / 2 * tukeyWindow.next());
+            }
+        }
+        assertArrayEquals(expected, samples, 1e-6f);
+        // Rendering by chunks gives the same samples
+        QRTone other = new QRTone(configuration);
+        other.setPayload(IPFS_PAYLOAD);
+        float[] chunks = new float[samples.length];
+        float[] chunk = new float[1000];
+        for(int offset = 0; offset < chunks.length; offset += chunk.length) {
+            Arrays.fill(chunk, 0);
+            other.getSamples(chunk, power);
+            System.arraycopy(chunk, 0, chunks, offset, Math.min(chunk.length, chunks.length - offset));
+        }
+        assertArrayEquals(samples, chunks, 0);
+        // Waveforms are shared by the encoders of the same configuration
+        assertSame(SymbolWaveforms.getWaveforms(configuration, 0.5), SymbolWaveforms.getWaveforms(configuration, 0.5));
+    }
 }
\ No newline at end of file
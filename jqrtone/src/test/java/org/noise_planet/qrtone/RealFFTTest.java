@@ -0,0 +1,93 @@
+/*
+ * BSD 3-Clause License
+ *
+ * Copyright (c) Unité Mixte de Recherche en Acoustique Environnementale (univ-gustave-eiffel)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package org.noise_planet.qrtone;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class RealFFTTest {
+
+    @Test
+    public void testCompareDFT() {
+        Random random = new Random(1337);
+        for(int size = 4; size <= 1024; size *= 2) {
+            double[] signal = new double[size];
+            for (int i = 0; i < size; i++) {
+                signal[i] = random.nextGaussian();
+            }
+            double[] spectrum = new double[size + 2];
+            new RealFFT(size).forward(signal, spectrum);
+            for (int k = 0; k <= size / 2; k++) {
+                double re = 0;
+                double im = 0;
+                for (int n = 0; n < size; n++) {
+                    re += signal[n] * Math.cos(QRTone.M2PI * k * n / size);
+                    im -= signal[n] * Math.sin(QRTone.M2PI * k * n / size);
+                }
+                assertEquals(re, spectrum[2 * k], 1e-9);
+                assertEquals(im, spectrum[2 * k + 1], 1e-9);
+            }
+        }
+    }
+
+    @Test
+    public void testToneLevels() {
+        double sampleRate = 44100;
+        double powerRMS = Math.pow(10, -26.0 / 20.0); // -26 dBFS
+        double powerPeak = powerRMS * Math.sqrt(2);
+        Configuration configuration = Configuration.getAudible(sampleRate);
+        double[] frequencies = configuration.computeFrequencies(QRTone.NUM_FREQUENCIES);
+        int wordLength = (int)(sampleRate * configuration.wordTime);
+        int windowLength = Configuration.computeMinimumWindowSize(sampleRate, frequencies[0],
+                configuration.computeFrequencies(1, QRTone.WINDOW_WIDTH)[0]);
+        FFTToneAnalyzer fftToneAnalyzer = new FFTToneAnalyzer(sampleRate, frequencies, windowLength, wordLength);
+        double[] spl = new double[QRTone.NUM_FREQUENCIES];
+        for(int signalFreqIndex = 0; signalFreqIndex < QRTone.NUM_FREQUENCIES; signalFreqIndex++) {
+            float[] audio = new float[wordLength];
+            QRTone.generatePitch(audio, 0, audio.length, 0, sampleRate, frequencies[signalFreqIndex], powerPeak);
+            fftToneAnalyzer.processSamples(audio, 0, audio.length, 0);
+            fftToneAnalyzer.computeSpl(spl);
+            // Hann window coherent gain is 0.5
+            assertEquals(20 * Math.log10(powerRMS * 0.5), spl[signalFreqIndex], 0.5);
+            for(int idfreq = 0; idfreq < QRTone.NUM_FREQUENCIES; idfreq++) {
+                if(idfreq != signalFreqIndex) {
+                    assertTrue(spl[idfreq] < spl[signalFreqIndex] - 20);
+                }
+            }
+        }
+    }
+}
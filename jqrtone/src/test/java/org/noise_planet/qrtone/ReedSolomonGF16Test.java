@@ -0,0 +1,230 @@
+/*
+ * BSD 3-Clause License
+ *
+ * Copyright (c) Unité Mixte de Recherche en Acoustique Environnementale (univ-gustave-eiffel)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package org.noise_planet.qrtone;
+
+import com.google.zxing.common.reedsolomon.GenericGF;
+import com.google.zxing.common.reedsolomon.ReedSolomonEncoder;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class ReedSolomonGF16Test {
+    private static final int[][] CODES = new int[][] {{14, 2}, {14, 4}, {12, 6}, {10, 6}, {8, 2}, {15, 14}};
+
+    private static void randomCodeWord(Random random, int[] codeWord, int eccSymbols) {
+        for(int i = 0; i < codeWord.length - eccSymbols; i++) {
+            codeWord[i] = random.nextInt(ReedSolomonGF16.FIELD_SIZE);
+        }
+        new ReedSolomonGF16().encode(codeWord, eccSymbols);
+    }
+
+    @Test
+    public void testEncodeSameAsGenericGF() {
+        Random random = new Random(0xDEADBEEF);
+        ReedSolomonEncoder reference = new ReedSolomonEncoder(GenericGF.AZTEC_PARAM);
+        ReedSolomonGF16 codec = new ReedSolomonGF16();
+        for(int[] code : CODES) {
+            int[] expected = new int[code[0]];
+            int[] got = new int[code[0]];
+            for(int i = 0; i < 100; i++) {
+                for(int j = 0; j < code[0] - code[1]; j++) {
+                    expected[j] = random.nextInt(ReedSolomonGF16.FIELD_SIZE);
+                    got[j] = expected[j];
+                }
+                reference.encode(expected, code[1]);
+                codec.encode(got, code[1]);
+                assertArrayEquals(expected, got);
+            }
+        }
+    }
+
+    @Test
+    public void testDecodeErrorsAndErasures() {
+        Random random = new Random(0xDEADBEEF);
+        ReedSolomonGF16 codec = new ReedSolomonGF16();
+        for(int[] code : CODES) {
+            int[] codeWord = new int[code[0]];
+            int[] erasures = new int[code[1]];
+            for(int erasuresCount = 0; erasuresCount <= code[1]; erasuresCount++) {
+                int errorsCount = (code[1] - erasuresCount) / 2;
+                for(int i = 0; i < 200; i++) {
+                    randomCodeWord(random, codeWord, code[1]);
+                    int[] received = Arrays.copyOf(codeWord, codeWord.length);
+                    BitSet used = new BitSet(codeWord.length);
+                    int expectedFixed = 0;
+                    for(int e = 0; e < erasuresCount + errorsCount; e++) {
+                        int location;
+                        do {
+                            location = random.nextInt(codeWord.length);
+                        } while (used.get(location));
+                        used.set(location);
+                        if(e < erasuresCount) {
+                            // Erased symbols may or may not be wrong
+                            erasures[e] = location;
+                            received[location] = random.nextInt(ReedSolomonGF16.FIELD_SIZE);
+                        } else {
+                            do {
+                                received[location] = random.nextInt(ReedSolomonGF16.FIELD_SIZE);
+                            } while (received[location] == codeWord[location]);
+                        }
+                        if(received[location] != codeWord[location]) {
+                            expectedFixed++;
+                        }
+                    }
+                    assertEquals(expectedFixed, codec.decode(received, code[1], erasures, erasuresCount));
+                    assertArrayEquals(codeWord, received);
+                }
+            }
+        }
+    }
+
+    /**
+     * Code words encoded by the zxing encoder, with up to all parity symbols erased
+     */
+    @Test
+    public void testDecodeErasuresOfGenericGFCodeWords() {
+        Random random = new Random(0xDEADBEEF);
+        ReedSolomonEncoder encoder = new ReedSolomonEncoder(GenericGF.AZTEC_PARAM);
+        ReedSolomonGF16 codec = new ReedSolomonGF16();
+        for(int[] code : CODES) {
+            int[] blocks = new int[code[0]];
+            int[] erasures = new int[code[1]];
+            for(int erasuresCount = 1; erasuresCount <= code[1]; erasuresCount++) {
+                int errorsCount = (code[1] - erasuresCount) / 2;
+                for(int i = 0; i < 100; i++) {
+                    for(int k = 0; k < code[0] - code[1]; k++) {
+                        blocks[k] = random.nextInt(ReedSolomonGF16.FIELD_SIZE);
+                    }
+                    encoder.encode(blocks, code[1]);
+                    int[] decoded = Arrays.copyOf(blocks, blocks.length);
+                    BitSet used = new BitSet(code[0]);
+                    for(int e = 0; e < erasuresCount + errorsCount; e++) {
+                        int location;
+                        do {
+                            location = random.nextInt(code[0]);
+                        } while (used.get(location));
+                        used.set(location);
+                        if(e < erasuresCount) {
+                            erasures[e] = location;
+                            decoded[location] = random.nextInt(ReedSolomonGF16.FIELD_SIZE);
+                        } else {
+                            do {
+                                decoded[location] = random.nextInt(ReedSolomonGF16.FIELD_SIZE);
+                            } while (decoded[location] == blocks[location]);
+                        }
+                    }
+                    assertNotEquals(ReedSolomonGF16.DECODE_FAILED,
+                            codec.decode(decoded, code[1], erasures, erasuresCount));
+                    assertArrayEquals(blocks, decoded);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testDecodeFailure() {
+        Random random = new Random(0xDEADBEEF);
+        ReedSolomonGF16 codec = new ReedSolomonGF16();
+        int[] codeWord = new int[14];
+        int failures = 0;
+        for(int i = 0; i < 1000; i++) {
+            randomCodeWord(random, codeWord, 4);
+            int[] received = Arrays.copyOf(codeWord, codeWord.length);
+            corrupt(received, 4, random);
+            int[] copy = Arrays.copyOf(received, received.length);
+            int fixed = codec.decode(received, 4);
+            if(fixed == ReedSolomonGF16.DECODE_FAILED) {
+                failures++;
+                assertArrayEquals(copy, received);
+            } else {
+                // Wrong correction must still be a code word
+                int[] check = Arrays.copyOf(received, received.length);
+                codec.encode(check, 4);
+                assertArrayEquals(check, received);
+            }
+        }
+        assertTrue(failures > 0);
+    }
+
+    private static void corrupt(int[] received, int howMany, Random random) {
+        BitSet corrupted = new BitSet(received.length);
+        for(int j = 0; j < howMany; j++) {
+            int location = random.nextInt(received.length);
+            int value = random.nextInt(ReedSolomonGF16.FIELD_SIZE);
+            if(corrupted.get(location) || received[location] == value) {
+                j--;
+            } else {
+                corrupted.set(location);
+                received[location] = value;
+            }
+        }
+    }
+
+    @Test
+    public void testDecodeAllocationFree() {
+        java.lang.management.ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        org.junit.Assume.assumeTrue(threadMXBean instanceof com.sun.management.ThreadMXBean &&
+                ((com.sun.management.ThreadMXBean) threadMXBean).isThreadAllocatedMemorySupported());
+        ((com.sun.management.ThreadMXBean) threadMXBean).setThreadAllocatedMemoryEnabled(true);
+        Random random = new Random(0xDEADBEEF);
+        ReedSolomonGF16 codec = new ReedSolomonGF16();
+        int[] codeWord = new int[14];
+        randomCodeWord(random, codeWord, 4);
+        int[][] received = new int[100][];
+        for(int i = 0; i < received.length; i++) {
+            received[i] = Arrays.copyOf(codeWord, codeWord.length);
+            corrupt(received[i], 1 + i % 3, random);
+        }
+        int[] erasures = new int[] {3};
+        // Warm up
+        for(int i = 0; i < received.length; i++) {
+            codec.decode(Arrays.copyOf(received[i], codeWord.length), 4, erasures, 1);
+        }
+        int[] work = new int[codeWord.length];
+        long before = ((com.sun.management.ThreadMXBean) threadMXBean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        for(int i = 0; i < received.length; i++) {
+            System.arraycopy(received[i], 0, work, 0, work.length);
+            codec.decode(work, 4);
+            System.arraycopy(received[i], 0, work, 0, work.length);
+            codec.decode(work, 4, erasures, 1);
+        }
+        long after = ((com.sun.management.ThreadMXBean) threadMXBean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        assertEquals(0, after - before);
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * BSD 3-Clause License
+ *
+ * Copyright (c) Unité Mixte de Recherche en Acoustique Environnementale (univ-gustave-eiffel)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package org.noise_planet.qrtone;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Run by the failsafe plugin on the multi-release jar, so that the Java 11 version of {@link DecoderEvents} is loaded
+ */
+public class DecoderEventsIT {
+    private static final String[] EVENTS = new String[] {"org.noise_planet.qrtone.Trigger",
+            "org.noise_planet.qrtone.HeaderDecode", "org.noise_planet.qrtone.PayloadDecode",
+            "org.noise_planet.qrtone.DecodeFailure"};
+    private static final byte[] PAYLOAD = "QRTone JFR events".getBytes();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static float[] generateMessage(Configuration configuration) {
+        QRTone qrTone = new QRTone(configuration);
+        float[] message = new float[qrTone.setPayload(PAYLOAD)];
+        qrTone.getSamples(message, Math.pow(10, -20.0 / 20.0) * Math.sqrt(2));
+        final int blank = (int)(0.35 * configuration.sampleRate);
+        float[] samples = new float[blank + message.length + blank];
+        System.arraycopy(message, 0, samples, blank, message.length);
+        Random random = new Random(1337);
+        for(int i = 0; i < samples.length; i++) {
+            samples[i] += (float)(random.nextGaussian() * Math.pow(10, -50.0 / 20.0));
+        }
+        return samples;
+    }
+
+    private List<RecordedEvent> record(float[]... signals) throws IOException {
+        Path file = folder.newFile("qrtone.jfr").toPath();
+        try(Recording recording = new Recording()) {
+            for(String event : EVENTS) {
+                recording.enable(event);
+            }
+            recording.start();
+            for(float[] samples : signals) {
+                new QRTone(Configuration.getAudible(44100)).pushSamples(samples);
+            }
+            recording.stop();
+            recording.dump(file);
+        }
+        return RecordingFile.readAllEvents(file);
+    }
+
+    private static List<RecordedEvent> filter(List<RecordedEvent> events, String name) {
+        List<RecordedEvent> filtered = new ArrayList<>();
+        for(RecordedEvent event : events) {
+            if(event.getEventType().getName().equals(name)) {
+                filtered.add(event);
+            }
+        }
+        return filtered;
+    }
+
+    @Test
+    public void testDecodeEvents() throws IOException {
+        Configuration configuration = Configuration.getAudible(44100);
+        float[] samples = generateMessage(configuration);
+        // Mute the end of the second message, the header is decoded but not the payload
+        float[] mutedSamples = Arrays.copyOf(samples, samples.length);
+        final int blank = (int)(0.35 * configuration.sampleRate);
+        final int messageLength = samples.length - 2 * blank;
+        Arrays.fill(mutedSamples, blank + messageLength * 4 / 10, blank + messageLength, 0);
+        List<RecordedEvent> events = record(samples, mutedSamples);
+
+        List<RecordedEvent> triggers = filter(events, EVENTS[0]);
+        assertTrue(triggers.size() >= 2);
+        for(RecordedEvent trigger : triggers) {
+            assertTrue(trigger.getLong("location") > 0);
+            assertTrue(trigger.getDouble("snr") >= configuration.triggerSnr);
+        }
+        List<RecordedEvent> headers = filter(events, EVENTS[1]);
+        assertEquals(2, headers.size());
+        for(RecordedEvent header : headers) {
+            assertTrue(header.getBoolean("decoded"));
+        }
+        List<RecordedEvent> payloads = filter(events, EVENTS[2]);
+        assertEquals(2, payloads.size());
+        assertEquals(PAYLOAD.length, payloads.get(0).getInt("payloadLength"));
+        assertEquals(-1, payloads.get(1).getInt("payloadLength"));
+        List<RecordedEvent> failures = filter(events, EVENTS[3]);
+        assertEquals(1, failures.size());
+        assertFalse(failures.get(0).getBoolean("header"));
+    }
+}